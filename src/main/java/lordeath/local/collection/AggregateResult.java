@@ -0,0 +1,117 @@
+package lordeath.local.collection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 聚合查询的一行结果，分组字段在前，聚合值按添加的顺序在后，可以按名称或者下标读取
+ */
+public class AggregateResult {
+    private final Map<String, Object> values;
+    private final List<String> names;
+
+    AggregateResult(List<String> names, Object[] row) {
+        this.names = names;
+        this.values = new LinkedHashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            values.put(names.get(i), row[i]);
+        }
+    }
+
+    /**
+     * 按名称获取结果值
+     *
+     * @param name 分组字段名或者聚合值的别名
+     * @return 结果值，没有数据时 sum/avg/min/max 为 null
+     */
+    public Object get(String name) {
+        if (!values.containsKey(name)) {
+            throw new IllegalArgumentException("结果中不存在: " + name + ", 可用的名称: " + names);
+        }
+        return values.get(name);
+    }
+
+    /**
+     * 按下标获取结果值
+     *
+     * @param index 下标
+     * @return 结果值
+     */
+    public Object get(int index) {
+        return values.get(names.get(index));
+    }
+
+    /**
+     * 按名称获取整数结果
+     *
+     * @param name 名称
+     * @return 结果值，为 null 时返回 null
+     */
+    public Long getLong(String name) {
+        return toLong(get(name));
+    }
+
+    /**
+     * 按下标获取整数结果
+     *
+     * @param index 下标
+     * @return 结果值，为 null 时返回 null
+     */
+    public Long getLong(int index) {
+        return toLong(get(index));
+    }
+
+    /**
+     * 按名称获取浮点数结果
+     *
+     * @param name 名称
+     * @return 结果值，为 null 时返回 null
+     */
+    public Double getDouble(String name) {
+        return toDouble(get(name));
+    }
+
+    /**
+     * 按下标获取浮点数结果
+     *
+     * @param index 下标
+     * @return 结果值，为 null 时返回 null
+     */
+    public Double getDouble(int index) {
+        return toDouble(get(index));
+    }
+
+    /**
+     * 结果中的全部名称，顺序和输出的顺序一致
+     *
+     * @return 名称列表
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(new ArrayList<>(names));
+    }
+
+    /**
+     * 转换成 Map，顺序和输出的顺序一致
+     *
+     * @return 不可修改的 Map
+     */
+    public Map<String, Object> asMap() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    private static Long toLong(Object value) {
+        return value == null ? null : ((Number) value).longValue();
+    }
+
+    private static Double toDouble(Object value) {
+        return value == null ? null : ((Number) value).doubleValue();
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
@@ -0,0 +1,176 @@
+package lordeath.local.collection;
+
+import lordeath.local.collection.db.opt.impl.DatabaseFactory;
+import lordeath.local.collection.db.opt.inter.IDatabaseOpt;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 外部归并排序。
+ * <p>
+ * 通过一个只向前的游标读取全部数据，每 runSize 行在内存中排序一次，写成一个有序段保存到临时表中；
+ * 再对所有有序段做 k 路归并，归并结果在一个事务中写回原表。内存中最多同时保存一个有序段的数据，
+ * 归并时每个有序段按页读取，所有页加起来也不超过一个有序段的大小。排序是稳定的。
+ * <p>
+ * 有序段的临时表是新建的，主键从 1 开始连续，所以按主键范围分页读取，每页通过主键索引定位，
+ * 不用 OFFSET 跳过前面的行，归并的总代价和行数成线性关系，读取每一页时才占用连接
+ *
+ * @param <T> 数据类型
+ */
+final class ExternalMergeSort<T> {
+
+    /**
+     * 归并时每个有序段一次最少读取的行数
+     */
+    private static final int MIN_PAGE_SIZE = 100;
+
+    private final IDatabaseOpt<T> databaseOpt;
+    private final Class<T> clazz;
+    private final Comparator<? super T> comparator;
+    private final int runSize;
+
+    ExternalMergeSort(IDatabaseOpt<T> databaseOpt, Class<T> clazz, Comparator<? super T> comparator, int runSize) {
+        if (runSize <= 0) {
+            throw new IllegalArgumentException("runSize must be positive: " + runSize);
+        }
+        this.databaseOpt = databaseOpt;
+        this.clazz = clazz;
+        this.comparator = comparator;
+        this.runSize = runSize;
+    }
+
+    /**
+     * 执行排序
+     *
+     * @return 排序的行数
+     */
+    int sort() {
+        List<Run<T>> runs = new ArrayList<>();
+        try {
+            List<T> buffer = new ArrayList<>();
+            try (Stream<T> stream = databaseOpt.stream()) {
+                Iterator<T> iterator = stream.iterator();
+                while (iterator.hasNext()) {
+                    buffer.add(iterator.next());
+                    if (buffer.size() == runSize) {
+                        runs.add(writeRun(buffer, runs.size()));
+                        buffer = new ArrayList<>();
+                    }
+                }
+            }
+            if (runs.isEmpty()) {
+                // 数据不超过一个有序段，直接在内存中排序后写回
+                buffer.sort(comparator);
+                return databaseOpt.replaceAll(buffer.iterator());
+            }
+            if (!buffer.isEmpty()) {
+                runs.add(writeRun(buffer, runs.size()));
+            }
+            int pageSize = Math.max(MIN_PAGE_SIZE, runSize / runs.size());
+            return databaseOpt.replaceAll(new MergeIterator<>(runs, comparator, pageSize));
+        } finally {
+            runs.forEach(run -> run.opt.close());
+        }
+    }
+
+    private Run<T> writeRun(List<T> buffer, int index) {
+        buffer.sort(comparator);
+        IDatabaseOpt<T> opt = DatabaseFactory.createDatabaseOptForList(clazz);
+        Run<T> run = new Run<>(opt, buffer.size(), index);
+        opt.addAll(buffer);
+        return run;
+    }
+
+    /**
+     * 保存在临时表中的一个有序段，以及归并时的读取位置
+     */
+    private static final class Run<T> {
+        private final IDatabaseOpt<T> opt;
+        private final int size;
+        private final int index;
+        private List<T> page;
+        private int pageStart;
+        private int pagePosition;
+        private T head;
+
+        private Run(IDatabaseOpt<T> opt, int size, int index) {
+            this.opt = opt;
+            this.size = size;
+            this.index = index;
+        }
+
+        /**
+         * 移动到下一行
+         *
+         * @param pageSize 每次读取的行数
+         * @return 是否还有数据
+         */
+        private boolean advance(int pageSize) {
+            if (page == null || pagePosition == page.size()) {
+                int from = page == null ? 0 : pageStart + page.size();
+                if (from >= size) {
+                    page = null;
+                    head = null;
+                    return false;
+                }
+                // 有序段的主键从 1 开始连续，下标 from 开始的一页就是主键 (from, from + pageSize]
+                try (Stream<T> rows = opt.streamByPk(from, Math.min(from + pageSize, size))) {
+                    page = rows.collect(Collectors.toList());
+                }
+                if (page.isEmpty()) {
+                    throw new IllegalStateException("有序段的数据不完整: " + index);
+                }
+                pageStart = from;
+                pagePosition = 0;
+            }
+            head = page.get(pagePosition++);
+            return true;
+        }
+    }
+
+    /**
+     * k 路归并，取出的顺序就是排序后的顺序。比较结果相同时先取前面的有序段，保证排序是稳定的
+     */
+    private static final class MergeIterator<T> implements Iterator<T> {
+        private final PriorityQueue<Run<T>> queue;
+        private final int pageSize;
+
+        private MergeIterator(List<Run<T>> runs, Comparator<? super T> comparator, int pageSize) {
+            this.pageSize = pageSize;
+            this.queue = new PriorityQueue<>(runs.size(), (a, b) -> {
+                int result = comparator.compare(a.head, b.head);
+                return result != 0 ? result : Integer.compare(a.index, b.index);
+            });
+            for (Run<T> run : runs) {
+                if (run.advance(pageSize)) {
+                    queue.add(run);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            Run<T> run = queue.poll();
+            if (run == null) {
+                throw new NoSuchElementException();
+            }
+            T next = run.head;
+            if (run.advance(pageSize)) {
+                queue.add(run);
+            }
+            return next;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package lordeath.local.collection;
+
+import lordeath.local.collection.db.bean.LocalColumn;
+import lordeath.local.collection.db.bean.LocalQueryCondition;
+import lordeath.local.collection.db.opt.inter.IDatabaseOpt;
+import lordeath.local.collection.db.util.ColumnNameUtil;
+import lordeath.local.collection.db.util.DBUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * LocalList 的聚合构建器，count/sum/avg/min/max/countDistinct 编译成一条 SQL 在数据库中执行，
+ * 不需要把数据逐行读到 Java 中，也不会创建中间表：
+ * <pre>
+ * long total = list.aggregate().sum("score").where("age &gt; ?", 18).execute().getLong(0);
+ * </pre>
+ * 只有保存为独立列的字段可以聚合，字典编码的字段按字符串比较大小。
+ * 列表的数据还在内存缓存中时，执行前会先写入数据库
+ *
+ * @param <T> 数据类型
+ */
+public class LocalAggregate<T> {
+    private final LocalList<T> source;
+    private final LocalQueryCondition condition = new LocalQueryCondition();
+    private final List<String> groupByFields = new ArrayList<>();
+    private final List<Aggregation> aggregations = new ArrayList<>();
+
+    LocalAggregate(LocalList<T> source) {
+        this.source = source;
+    }
+
+    /**
+     * 统计行数，结果名称为 count
+     *
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> count() {
+        return count("count");
+    }
+
+    /**
+     * 统计行数
+     *
+     * @param alias 结果名称
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> count(String alias) {
+        aggregations.add(new Aggregation(Function.COUNT, null, alias));
+        return this;
+    }
+
+    /**
+     * 统计字段不同的非空值个数，结果名称为 count_distinct_字段名
+     *
+     * @param field 字段名
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> countDistinct(String field) {
+        return countDistinct(field, "count_distinct_" + field);
+    }
+
+    /**
+     * 统计字段不同的非空值个数
+     *
+     * @param field 字段名
+     * @param alias 结果名称
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> countDistinct(String field, String alias) {
+        return add(Function.COUNT_DISTINCT, field, alias);
+    }
+
+    /**
+     * 求和，整数字段的结果是 Long，浮点数字段的结果是 Double，结果名称为 sum_字段名
+     *
+     * @param field 字段名
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> sum(String field) {
+        return sum(field, "sum_" + field);
+    }
+
+    /**
+     * 求和
+     *
+     * @param field 字段名
+     * @param alias 结果名称
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> sum(String field, String alias) {
+        return add(Function.SUM, field, alias);
+    }
+
+    /**
+     * 求平均值，结果是 Double，结果名称为 avg_字段名
+     *
+     * @param field 字段名
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> avg(String field) {
+        return avg(field, "avg_" + field);
+    }
+
+    /**
+     * 求平均值
+     *
+     * @param field 字段名
+     * @param alias 结果名称
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> avg(String field, String alias) {
+        return add(Function.AVG, field, alias);
+    }
+
+    /**
+     * 求最小值，结果和字段的类型相同，结果名称为 min_字段名
+     *
+     * @param field 字段名
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> min(String field) {
+        return min(field, "min_" + field);
+    }
+
+    /**
+     * 求最小值
+     *
+     * @param field 字段名
+     * @param alias 结果名称
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> min(String field, String alias) {
+        return add(Function.MIN, field, alias);
+    }
+
+    /**
+     * 求最大值，结果和字段的类型相同，结果名称为 max_字段名
+     *
+     * @param field 字段名
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> max(String field) {
+        return max(field, "max_" + field);
+    }
+
+    /**
+     * 求最大值
+     *
+     * @param field 字段名
+     * @param alias 结果名称
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> max(String field, String alias) {
+        return add(Function.MAX, field, alias);
+    }
+
+    /**
+     * 添加过滤条件，多次调用时条件之间是 AND 的关系
+     *
+     * @param whereClause 过滤条件，比如 age &gt; ?
+     * @param params      按顺序绑定到条件中 ? 占位符的参数
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> where(String whereClause, Object... params) {
+        Objects.requireNonNull(whereClause);
+        condition.getWhereClauses().add(whereClause);
+        if (params != null) {
+            condition.getParams().addAll(Arrays.asList(params));
+        }
+        return this;
+    }
+
+    /**
+     * 设置分组字段，设置后使用 {@link #executeGroups()} 获取每一组的结果
+     *
+     * @param fields 分组字段
+     * @return 当前构建器实例
+     */
+    public LocalAggregate<T> groupBy(String... fields) {
+        groupByFields.addAll(Arrays.asList(fields));
+        return this;
+    }
+
+    /**
+     * 执行没有分组的聚合，返回唯一的一行结果
+     *
+     * @return 聚合结果
+     */
+    public AggregateResult execute() {
+        if (!groupByFields.isEmpty()) {
+            throw new IllegalStateException("设置了分组字段时使用 executeGroups() 获取结果");
+        }
+        List<AggregateResult> results = executeGroups();
+        if (results.isEmpty()) {
+            // 空列表还没有创建表
+            Object[] row = new Object[aggregations.size()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = aggregations.get(i).function == Function.COUNT
+                        || aggregations.get(i).function == Function.COUNT_DISTINCT ? 0L : null;
+            }
+            return new AggregateResult(getResultNames(), row);
+        }
+        return results.get(0);
+    }
+
+    /**
+     * 执行聚合，每一组返回一行结果，分组字段的值在前。
+     * 各组按分组字段在数据库中保存的值排序，字典编码的字段按编码的顺序，也就是值第一次出现的顺序
+     *
+     * @return 每一组的聚合结果
+     */
+    public List<AggregateResult> executeGroups() {
+        if (aggregations.isEmpty()) {
+            throw new IllegalStateException("至少需要一个聚合函数");
+        }
+        IDatabaseOpt<T> databaseOpt = source.getDatabaseOpt();
+        if (databaseOpt == null) {
+            return new ArrayList<>();
+        }
+        if (databaseOpt.getDataSource() == null) {
+            throw new UnsupportedOperationException("当前数据库引擎不支持SQL查询: " + databaseOpt.getDatabaseEngine());
+        }
+        List<LocalColumn> columns = databaseOpt.getColumns();
+        List<String> selectExpressions = new ArrayList<>();
+        List<LocalColumn> resultColumns = new ArrayList<>();
+        for (String field : groupByFields) {
+            LocalColumn column = findColumn(columns, field);
+            // 字典编码的列直接按编码分组，读取结果时再解码
+            selectExpressions.add(DBUtil.SOURCE_ALIAS + "." + column.getColumnName());
+            resultColumns.add(column);
+        }
+        for (Aggregation aggregation : aggregations) {
+            LocalColumn column = aggregation.field == null ? null : findColumn(columns, aggregation.field);
+            selectExpressions.add(aggregation.function.expression(column, columns));
+            resultColumns.add(aggregation.function.resultColumn(column, aggregation.alias));
+        }
+        source.restoreCacheToDB();
+        List<Object[]> rows = databaseOpt.aggregate(selectExpressions, resultColumns, groupByFields, condition);
+        List<String> names = getResultNames();
+        List<AggregateResult> results = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            results.add(new AggregateResult(names, row));
+        }
+        return results;
+    }
+
+    private LocalAggregate<T> add(Function function, String field, String alias) {
+        Objects.requireNonNull(field);
+        aggregations.add(new Aggregation(function, field, alias));
+        return this;
+    }
+
+    private List<String> getResultNames() {
+        List<String> names = new ArrayList<>(groupByFields);
+        for (Aggregation aggregation : aggregations) {
+            names.add(aggregation.alias);
+        }
+        return names;
+    }
+
+    /**
+     * 找到字段对应的独立存储列，编码在整行二进制列中的字段和压缩的字段无法在SQL中计算
+     */
+    private static LocalColumn findColumn(List<LocalColumn> columns, String field) {
+        LocalColumn column = ColumnNameUtil.getSqlColumn(columns, field);
+        if (column.getCompressor() != null) {
+            throw new IllegalArgumentException("压缩保存的字段不能聚合: " + field);
+        }
+        return column;
+    }
+
+    private static final class Aggregation {
+        private final Function function;
+        private final String field;
+        private final String alias;
+
+        private Aggregation(Function function, String field, String alias) {
+            this.function = function;
+            this.field = field;
+            this.alias = Objects.requireNonNull(alias);
+        }
+    }
+
+    /**
+     * 聚合函数
+     */
+    private enum Function {
+        COUNT, COUNT_DISTINCT, SUM, AVG, MIN, MAX;
+
+        String expression(LocalColumn column, List<LocalColumn> columns) {
+            if (this == COUNT) {
+                return "COUNT(*)";
+            }
+            String reference = DBUtil.SOURCE_ALIAS + "." + column.getColumnName();
+            switch (this) {
+                case COUNT_DISTINCT:
+                    // 字典编码和字符串一一对应，直接统计编码
+                    return "COUNT(DISTINCT " + reference + ")";
+                case SUM:
+                    checkNumeric(column);
+                    return "SUM(" + reference + ")";
+                case AVG:
+                    checkNumeric(column);
+                    // 统一按浮点数求平均，避免整数列在不同数据库中的结果类型不同
+                    return "AVG(CAST(" + reference + " AS DOUBLE))";
+                default:
+                    // 字典编码的列按解码后的字符串比较
+                    return name() + "(" + DBUtil.decodeDictionaryColumns(column.getColumnName(), columns) + ")";
+            }
+        }
+
+        LocalColumn resultColumn(LocalColumn column, String alias) {
+            switch (this) {
+                case COUNT:
+                case COUNT_DISTINCT:
+                    return new LocalColumn(alias, Long.class, "BIGINT", null);
+                case SUM:
+                    Class<?> type = column.getColumnType();
+                    return type == Integer.class || type == Long.class
+                            ? new LocalColumn(alias, Long.class, "BIGINT", null)
+                            : new LocalColumn(alias, Double.class, "DOUBLE", null);
+                case AVG:
+                    return new LocalColumn(alias, Double.class, "DOUBLE", null);
+                default:
+                    return column.getDictionary() != null
+                            ? new LocalColumn(alias, String.class, "VARCHAR", null)
+                            : column;
+            }
+        }
+
+        private static void checkNumeric(LocalColumn column) {
+            Class<?> type = column.getColumnType();
+            if (type != Integer.class && type != Long.class && type != Double.class && type != Float.class) {
+                throw new IllegalArgumentException("只能对数值类型的字段求和或者求平均值: " + column.getColumnName());
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package lordeath.local.collection;
+
+import lordeath.local.collection.db.bean.LocalColumn;
+import lordeath.local.collection.db.bean.LocalColumnForMap;
+import lordeath.local.collection.db.bean.LocalQueryCondition;
+import lordeath.local.collection.db.opt.inter.IDatabaseOpt;
+import lordeath.local.collection.db.util.ColumnNameUtil;
+import lordeath.local.collection.db.util.DBUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * 两个 LocalList 的连接查询构建器，连接在数据库中用 INSERT ... SELECT ... JOIN 完成，结果直接写入新的 LocalList 或者 LocalMap，
+ * 数据不经过 Java 对象，也不需要在内存中建立哈希表。左边的列表别名是 a，右边的列表别名是 b，条件和输出中的列都要带上别名：
+ * <pre>
+ * LocalJoin.of(orders, users)
+ *         .on("a.userId = b.id")
+ *         .where("b.age &gt;= ?", 18)
+ *         .select("a.orderNo AS orderNo", "b.name AS userName")
+ *         .resultClass(OrderView.class)
+ *         .toLocalList();
+ * </pre>
+ * 和 {@link LocalMap#from(LocalList)} 一样，输出表达式按别名（没有别名时按表达式本身）对应到结果类型的字段，
+ * 只有保存为独立列的字段可以出现在连接条件和输出中，字典编码的字段会自动还原成字符串。
+ * 两个列表需要在同一个数据库中，段文件引擎不支持
+ *
+ * @param <L> 左边列表的数据类型
+ * @param <R> 右边列表的数据类型
+ */
+public class LocalJoin<L, R> {
+    /**
+     * 左边列表的别名
+     */
+    public static final String LEFT_ALIAS = "a";
+    /**
+     * 右边列表的别名
+     */
+    public static final String RIGHT_ALIAS = "b";
+
+    private final LocalList<L> left;
+    private final LocalList<R> right;
+    private final LocalQueryCondition condition = new LocalQueryCondition();
+    private final List<String> selectColumns = new ArrayList<>();
+    private String onClause;
+    private boolean leftJoin;
+    private Class<?> resultClass;
+
+    private LocalJoin(LocalList<L> left, LocalList<R> right) {
+        this.left = Objects.requireNonNull(left);
+        this.right = Objects.requireNonNull(right);
+    }
+
+    /**
+     * 创建连接查询构建器
+     *
+     * @param left  左边的列表，别名是 a
+     * @param right 右边的列表，别名是 b
+     * @param <L>   左边列表的数据类型
+     * @param <R>   右边列表的数据类型
+     * @return 连接查询构建器
+     */
+    public static <L, R> LocalJoin<L, R> of(LocalList<L> left, LocalList<R> right) {
+        return new LocalJoin<>(left, right);
+    }
+
+    /**
+     * 设置连接条件
+     *
+     * @param onClause 连接条件，比如 a.userId = b.id
+     * @return 当前构建器实例
+     */
+    public LocalJoin<L, R> on(String onClause) {
+        this.onClause = Objects.requireNonNull(onClause);
+        return this;
+    }
+
+    /**
+     * 使用 LEFT JOIN，左边的行在右边没有匹配时也会输出，右边的字段为 null
+     *
+     * @return 当前构建器实例
+     */
+    public LocalJoin<L, R> leftJoin() {
+        this.leftJoin = true;
+        return this;
+    }
+
+    /**
+     * 添加过滤条件，多次调用时条件之间是 AND 的关系
+     *
+     * @param whereClause 过滤条件，比如 b.age &gt;= ?
+     * @param params      按顺序绑定到条件中 ? 占位符的参数
+     * @return 当前构建器实例
+     */
+    public LocalJoin<L, R> where(String whereClause, Object... params) {
+        Objects.requireNonNull(whereClause);
+        condition.getWhereClauses().add(whereClause);
+        if (params != null) {
+            condition.getParams().addAll(Arrays.asList(params));
+        }
+        return this;
+    }
+
+    /**
+     * 设置输出的表达式
+     *
+     * @param columns 输出的表达式，比如 b.name AS userName
+     * @return 当前构建器实例
+     */
+    public LocalJoin<L, R> select(String... columns) {
+        selectColumns.addAll(Arrays.asList(columns));
+        return this;
+    }
+
+    /**
+     * 设置结果类型
+     *
+     * @param resultClass 结果类型
+     * @return 当前构建器实例
+     */
+    public LocalJoin<L, R> resultClass(Class<?> resultClass) {
+        this.resultClass = resultClass;
+        return this;
+    }
+
+    /**
+     * 执行连接查询，结果写入新的列表，按左边列表的顺序排列，左边的一行匹配到多行时按右边列表的顺序排列。
+     * 结果类型的字段需要按列存储，不能使用整行存储、字典编码和压缩，没有输出的字段为 null
+     *
+     * @param <V> 结果类型
+     * @return 新的列表，使用完需要关闭
+     */
+    @SuppressWarnings("unchecked")
+    public <V> LocalList<V> toLocalList() {
+        List<LocalColumnForMap> columnForMapList = buildColumnForMaps();
+        LocalList<V> result = new LocalList<>((Class<V>) resultClass);
+        try {
+            List<LocalColumn> storageColumns = result.getDatabaseOpt().getColumns();
+            for (LocalColumn column : storageColumns) {
+                if (column.getRowSerializer() != null || ColumnNameUtil.isRowHashColumn(column)
+                        || column.getDictionary() != null || column.getCompressor() != null) {
+                    throw new UnsupportedOperationException("连接结果的类型需要按列存储，不能使用整行存储、字典编码和压缩: "
+                            + resultClass.getName() + "." + column.getColumnName());
+                }
+            }
+            // 输出到结果列表自己的存储列中
+            for (LocalColumnForMap columnForMap : columnForMapList) {
+                columnForMap.setSinkColumn(ColumnNameUtil.getSqlColumn(storageColumns,
+                        columnForMap.getSinkColumn().getColumnName()));
+            }
+        } catch (RuntimeException e) {
+            result.close();
+            throw e;
+        }
+        LocalQueryCondition listCondition = buildCondition();
+        String leftPk = left.getDatabaseOpt() == null ? null : left.getDatabaseOpt().getPkColumnName();
+        String rightPk = right.getDatabaseOpt() == null ? null : right.getDatabaseOpt().getPkColumnName();
+        if (leftPk != null) {
+            listCondition.getOrderByClauses().add(LEFT_ALIAS + "." + leftPk);
+        }
+        if (rightPk != null) {
+            listCondition.getOrderByClauses().add(RIGHT_ALIAS + "." + rightPk);
+        }
+        return execute(result, columnForMapList, listCondition);
+    }
+
+    /**
+     * 执行连接查询，结果写入新的 LocalMap，key 保存为字符串。每个 key 只能对应连接结果中的一行
+     *
+     * @param keyExpression key 的表达式，比如 a.orderNo
+     * @param <K>           键类型
+     * @param <V>           值类型
+     * @return 新的 LocalMap，使用完需要关闭
+     */
+    @SuppressWarnings("unchecked")
+    public <K extends String, V> LocalMap<K, V> toLocalMap(String keyExpression) {
+        Objects.requireNonNull(keyExpression);
+        String keyColumn = "key_" + UUID.randomUUID().toString().replace("-", "");
+        LocalColumnForMap keyColumnForMap = new LocalColumnForMap();
+        keyColumnForMap.setKey(true);
+        keyColumnForMap.setExpression(keyExpression);
+        keyColumnForMap.setSinkColumn(LocalMap.buildLocalColumn(keyColumn, String.class, null));
+        List<LocalColumnForMap> columnForMapList = new ArrayList<>();
+        columnForMapList.add(keyColumnForMap);
+        columnForMapList.addAll(buildColumnForMaps());
+        LocalList<V> innerList = new LocalList<>((Class<V>) resultClass, newTableName(), columnForMapList);
+        return new LocalMap<>(keyColumn, execute(innerList, columnForMapList, buildCondition()));
+    }
+
+    private <V> LocalList<V> execute(LocalList<V> result, List<LocalColumnForMap> columnForMapList,
+                                     LocalQueryCondition resultCondition) {
+        try {
+            IDatabaseOpt<L> leftOpt = left.getDatabaseOpt();
+            IDatabaseOpt<R> rightOpt = right.getDatabaseOpt();
+            if (leftOpt == null || (rightOpt == null && !leftJoin)) {
+                // 左边没有数据，或者内连接时右边没有数据，结果一定是空的
+                return result;
+            }
+            if (rightOpt == null) {
+                throw new IllegalStateException("右边的列表还没有创建数据表，无法执行 LEFT JOIN");
+            }
+            left.restoreCacheToDB();
+            right.restoreCacheToDB();
+            leftOpt.ensureIndexes();
+            rightOpt.ensureIndexes();
+            List<LocalColumnForMap> decoded = new ArrayList<>();
+            for (LocalColumnForMap columnForMap : columnForMapList) {
+                LocalColumnForMap copy = new LocalColumnForMap();
+                copy.setKey(columnForMap.isKey());
+                copy.setSinkColumn(columnForMap.getSinkColumn());
+                copy.setExpression(decode(columnForMap.getExpression()));
+                decoded.add(copy);
+            }
+            String joinClause = leftOpt.getTableName() + " " + LEFT_ALIAS + (leftJoin ? " LEFT JOIN " : " JOIN ")
+                    + rightOpt.getTableName() + " " + RIGHT_ALIAS + " ON " + decode(onClause);
+            result.insertJoinedData(joinClause, decoded, resultCondition);
+            return result;
+        } catch (RuntimeException e) {
+            result.close();
+            throw e;
+        }
+    }
+
+    private List<LocalColumnForMap> buildColumnForMaps() {
+        if (onClause == null) {
+            throw new IllegalStateException("没有设置连接条件");
+        }
+        if (resultClass == null || selectColumns.isEmpty()) {
+            throw new IllegalStateException("没有设置结果类型或者输出的表达式");
+        }
+        IDatabaseOpt<L> leftOpt = left.getDatabaseOpt();
+        IDatabaseOpt<R> rightOpt = right.getDatabaseOpt();
+        if ((leftOpt != null && leftOpt.getDataSource() == null) || (rightOpt != null && rightOpt.getDataSource() == null)) {
+            throw new UnsupportedOperationException("段文件引擎不支持 LocalJoin 连接查询");
+        }
+        if (leftOpt != null && rightOpt != null && leftOpt.getDataSource() != rightOpt.getDataSource()) {
+            throw new UnsupportedOperationException("两个列表不在同一个数据库中，无法连接: "
+                    + leftOpt.getDatabaseEngine() + ", " + rightOpt.getDatabaseEngine());
+        }
+        List<LocalColumnForMap> columnForMapList = new ArrayList<>();
+        for (String selectColumn : selectColumns) {
+            columnForMapList.add(LocalMap.buildSelectColumn(selectColumn, resultClass));
+        }
+        return columnForMapList;
+    }
+
+    private LocalQueryCondition buildCondition() {
+        LocalQueryCondition resultCondition = new LocalQueryCondition();
+        for (String whereClause : condition.getWhereClauses()) {
+            resultCondition.getWhereClauses().add(decode(whereClause));
+        }
+        resultCondition.getParams().addAll(condition.getParams());
+        return resultCondition;
+    }
+
+    /**
+     * 把两边字典编码列的引用替换成解码后的字符串
+     */
+    private String decode(String expression) {
+        String result = expression;
+        if (left.getDatabaseOpt() != null) {
+            result = DBUtil.decodeDictionaryColumns(result, left.getDatabaseOpt().getColumns(), LEFT_ALIAS);
+        }
+        if (right.getDatabaseOpt() != null) {
+            result = DBUtil.decodeDictionaryColumns(result, right.getDatabaseOpt().getColumns(), RIGHT_ALIAS);
+        }
+        return result;
+    }
+
+    private static String newTableName() {
+        return "join_" + UUID.randomUUID().toString().replace("-", "");
+    }
+}
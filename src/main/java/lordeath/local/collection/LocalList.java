@@ -1,14 +1,18 @@
 package lordeath.local.collection;
 
+import com.google.common.collect.Lists;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import lordeath.local.collection.db.bean.LocalColumn;
 import lordeath.local.collection.db.bean.LocalColumnForMap;
+import lordeath.local.collection.db.bean.LocalQueryCondition;
 import lordeath.local.collection.db.config.MainConfig;
 import lordeath.local.collection.db.opt.impl.DatabaseFactory;
 import lordeath.local.collection.db.opt.inter.IDatabaseOpt;
 import lordeath.local.collection.db.util.ColumnNameUtil;
 import lordeath.local.collection.db.util.DBUtil;
+import lordeath.local.collection.db.util.RowMapper;
+import lordeath.local.collection.serialize.ColumnCompressor;
 import lordeath.local.collection.serialize.TypeCodec;
 
 import javax.sql.DataSource;
@@ -24,11 +28,18 @@ import java.sql.Statement;
 import java.math.BigDecimal;
 import java.lang.ref.Cleaner;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 参考的是ArrayList，但是实现方式是H2数据库或者其他数据库
@@ -64,6 +75,11 @@ public class LocalList<T> implements AutoCloseable, List<T> {
      */
     List<LocalColumn> columns;
 
+    /**
+     * 元素类型，还没有添加过元素的空列表为 null
+     */
+    private Class<T> elementClass;
+
     final int cacheSize;
     final ArrayList<T> cache;
 
@@ -139,15 +155,40 @@ public class LocalList<T> implements AutoCloseable, List<T> {
      * @return 运行时指标
      */
     public LocalListRuntimeMetrics getRuntimeMetrics() {
+        refreshCompressionMetrics();
         return runtimeMetrics;
     }
+
+    /**
+     * 汇总各个压缩列的压缩统计
+     */
+    private void refreshCompressionMetrics() {
+        if (databaseOpt == null) {
+            return;
+        }
+        long rawBytes = 0;
+        long storedBytes = 0;
+        long compressNanos = 0;
+        long decompressNanos = 0;
+        for (LocalColumn column : databaseOpt.getColumns()) {
+            ColumnCompressor compressor = column.getCompressor();
+            if (compressor != null) {
+                rawBytes += compressor.getRawBytes();
+                storedBytes += compressor.getStoredBytes();
+                compressNanos += compressor.getCompressNanos();
+                decompressNanos += compressor.getDecompressNanos();
+            }
+        }
+        runtimeMetrics.recordCompression(rawBytes, storedBytes, compressNanos, decompressNanos);
+    }
     public LocalList(Class<T> clazz, String tableName, List<LocalColumnForMap> columnsForMap) {
         this.columns = columnsForMap.stream().map(LocalColumnForMap::getSinkColumn).collect(Collectors.toList());
+        this.elementClass = clazz;
 
         // 创建数据库操作对象
         this.databaseOpt = DatabaseFactory.createDatabaseOptForMap(clazz, tableName, columnsForMap);
-        DataSource dataSource = databaseOpt.getDataSource();
-        cleanable = cleaner.register(this, () -> DBUtil.drop(tableName, dataSource));
+        IDatabaseOpt<T> opt = databaseOpt;
+        cleanable = cleaner.register(this, opt::close);
 //        cacheSize = MainConfig.CACHE_SIZE.getPropertyInt();
         // map不进行缓存，直接使用db的数据
         cacheSize = 0;
@@ -163,9 +204,10 @@ public class LocalList<T> implements AutoCloseable, List<T> {
     void init(Class<T> clazz) {
         databaseOpt = DatabaseFactory.createDatabaseOptForList(clazz);
         columns = ColumnNameUtil.getFields(clazz);
-        String tableName = databaseOpt.getTableName();
-        DataSource dataSource = databaseOpt.getDataSource();
-        cleanable = cleaner.register(this, () -> DBUtil.drop(tableName, dataSource));
+        elementClass = clazz;
+        // 清理动作只引用数据库操作对象，由各个引擎自己负责删除表或者文件
+        IDatabaseOpt<T> opt = databaseOpt;
+        cleanable = cleaner.register(this, opt::close);
         initRecoveryState();
     }
 
@@ -222,14 +264,14 @@ public class LocalList<T> implements AutoCloseable, List<T> {
     }
 
     /**
-     * 判断列表是否包含指定元素
+     * 判断列表是否包含指定元素，相等的定义和 {@link #indexOf(Object)} 相同
      *
      * @param o 元素
      * @return 列表包含元素返回true，否则返回false
      */
     @Override
     public boolean contains(Object o) {
-        throw new UnsupportedOperationException();
+        return indexOf(o) >= 0;
     }
 
     /**
@@ -248,6 +290,342 @@ public class LocalList<T> implements AutoCloseable, List<T> {
         return new LocalListIterator();
     }
 
+    /**
+     * 遍历全部元素，数据在数据库中时只执行一次查询，通过只向前的游标边读边处理，不再分页查询
+     *
+     * @param action 消费者
+     */
+    @Override
+    public void forEach(Consumer<? super T> action) {
+        Objects.requireNonNull(action);
+        boolean b = cacheSize > 0 && !cacheToDBFlag;
+        if (b) {
+            cache.forEach(action);
+            return;
+        }
+        restoreCacheToDB();
+        if (databaseOpt == null) {
+            return;
+        }
+        try (Stream<T> stream = databaseOpt.stream()) {
+            stream.forEach(action);
+        }
+    }
+
+    /**
+     * 获取顺序流，数据在数据库中时只执行一次查询，通过只向前的游标边读边处理。
+     * 遍历结束时自动释放游标，没有遍历完就不再使用时需要关闭流
+     *
+     * @return 顺序流
+     */
+    @Override
+    public Stream<T> stream() {
+        boolean b = cacheSize > 0 && !cacheToDBFlag;
+        if (b) {
+            return cache.stream();
+        }
+        restoreCacheToDB();
+        if (databaseOpt == null) {
+            return Stream.empty();
+        }
+        return databaseOpt.stream();
+    }
+
+    /**
+     * 按批遍历全部元素，每一批就是一次预读查询的结果，直接交给消费者，不再复制
+     *
+     * @param batchSize 每一批的大小
+     * @param action    消费者
+     */
+    public void forEachBatch(int batchSize, Consumer<? super List<T>> action) {
+        forEachBatch(batchSize, false, action);
+    }
+
+    /**
+     * 按批遍历全部元素
+     *
+     * @param batchSize 每一批的大小
+     * @param parallel  是否并行预读和处理，并行时不保证批次之间的顺序
+     * @param action    消费者，并行时需要是线程安全的
+     */
+    public void forEachBatch(int batchSize, boolean parallel, Consumer<? super List<T>> action) {
+        Objects.requireNonNull(action);
+        Stream<List<T>> batches = streamBatches(batchSize);
+        try (Stream<List<T>> stream = parallel ? batches.parallel() : batches) {
+            stream.forEach(action);
+        }
+    }
+
+    /**
+     * 获取按批划分的流，每一批是按 batchSize 对齐的一次预读查询结果。
+     * 流可以切分，调用 parallel() 后各批会在不同的线程中并行查询
+     *
+     * @param batchSize 每一批的大小
+     * @return 批次流
+     */
+    public Stream<List<T>> streamBatches(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        boolean b = cacheSize > 0 && !cacheToDBFlag;
+        if (b) {
+            return Lists.partition(cache, batchSize).stream();
+        }
+        restoreCacheToDB();
+        return StreamSupport.stream(new BatchSpliterator(0, size(), batchSize), false);
+    }
+
+    /**
+     * 只读取指定字段的遍历，查询时只查询这些字段对应的列，返回的对象中其余字段保持默认值。
+     * 数据还在内存缓存中时，直接返回缓存中的完整对象
+     *
+     * @param fieldNames 要读取的字段名称
+     * @return 可遍历对象
+     */
+    public Iterable<T> project(String... fieldNames) {
+        if (databaseOpt == null) {
+            // 还没有写入过数据，不知道元素类型
+            return Collections.emptyList();
+        }
+        List<LocalColumn> projection = ColumnNameUtil.getProjectionColumns(databaseOpt.getColumns(), fieldNames);
+        return () -> {
+            boolean b = cacheSize > 0 && !cacheToDBFlag;
+            if (b) {
+                return cache.iterator();
+            }
+            restoreCacheToDB();
+            return new ProjectionIterator(projection);
+        };
+    }
+
+    /**
+     * 创建查询构建器，过滤、排序和分页条件编译成SQL在数据库中执行
+     *
+     * @return 查询构建器
+     */
+    public LocalQuery<T> query() {
+        return new LocalQuery<>(this);
+    }
+
+    /**
+     * 创建聚合构建器，count/sum/avg/min/max/countDistinct 编译成一条SQL在数据库中执行
+     *
+     * @return 聚合构建器
+     */
+    public LocalAggregate<T> aggregate() {
+        return new LocalAggregate<>(this);
+    }
+
+    /**
+     * 去重，生成一个新的列表，所有字段都相同的元素只保留第一次出现的一个，保持原来的先后顺序。
+     * 去重通过 INSERT ... SELECT 在数据库中完成，数据不经过 Java 对象，也不需要在内存中保存已经出现过的元素
+     *
+     * @return 去重后的新列表，使用完需要关闭
+     */
+    public LocalList<T> distinct() {
+        return distinctBy(false);
+    }
+
+    /**
+     * 按指定的字段去重，生成一个新的列表，这些字段都相同的元素只保留第一次出现的一个
+     *
+     * @param fieldNames 去重的字段，只能使用保存为独立列的字段
+     * @return 去重后的新列表，使用完需要关闭
+     */
+    public LocalList<T> distinctBy(String... fieldNames) {
+        return distinctBy(false, fieldNames);
+    }
+
+    /**
+     * 按指定的字段去重，生成一个新的列表，保持保留下来的元素原来的先后顺序
+     *
+     * @param keepLast   是否保留最后出现的一个，否则保留第一次出现的一个
+     * @param fieldNames 去重的字段，只能使用保存为独立列的字段；不指定时按所有字段去重
+     * @return 去重后的新列表，使用完需要关闭
+     */
+    public LocalList<T> distinctBy(boolean keepLast, String... fieldNames) {
+        if (databaseOpt == null) {
+            return new LocalList<>();
+        }
+        if (databaseOpt.getDataSource() == null) {
+            throw new UnsupportedOperationException("段文件引擎不支持 distinct/distinctBy 去重");
+        }
+        List<String> keyColumns = new ArrayList<>();
+        if (fieldNames == null || fieldNames.length == 0) {
+            for (LocalColumn column : databaseOpt.getColumns()) {
+                if (!ColumnNameUtil.isRowHashColumn(column)) {
+                    keyColumns.add(column.getColumnName());
+                }
+            }
+        } else {
+            for (String fieldName : fieldNames) {
+                keyColumns.add(ColumnNameUtil.getSqlColumn(databaseOpt.getColumns(), fieldName).getColumnName());
+            }
+        }
+        restoreCacheToDB();
+        LocalList<T> result = new LocalList<>(elementClass);
+        try {
+            result.recordDirectInsert(databaseOpt.insertDistinct(keyColumns, keepLast,
+                    result.databaseOpt.getTableName(), result.databaseOpt.getColumns()));
+        } catch (RuntimeException e) {
+            result.close();
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * 获取按 comparator 排序后的前 k 个元素，相当于排序后取 subList(0, k)，但是不修改列表。
+     * 只顺序读取一遍数据，内存中最多保存 k 个元素；需要后 k 个元素时传入反向的比较器
+     *
+     * @param k          元素个数
+     * @param comparator 比较器，为 null 时按自然顺序
+     * @return 排好序的前 k 个元素
+     */
+    public List<T> topK(int k, Comparator<? super T> comparator) {
+        return topK(k, comparator, false);
+    }
+
+    /**
+     * 获取按 comparator 排序后的前 k 个元素
+     *
+     * @param k          元素个数
+     * @param comparator 比较器，为 null 时按自然顺序
+     * @param parallel   是否按主键范围切分后并行读取：先查出最小和最大的主键，把范围平均切成和公共线程池并行度相同的份数，
+     *                   每份用 pk &gt; ? AND pk &lt;= ? 通过主键索引定位后用一个游标读取，保留自己的前 k 个元素，最后合并
+     * @return 排好序的前 k 个元素
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> topK(int k, Comparator<? super T> comparator, boolean parallel) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        Comparator<? super T> c = comparator != null ? comparator : (Comparator<? super T>) Comparator.naturalOrder();
+        boolean b = cacheSize > 0 && !cacheToDBFlag;
+        if (b) {
+            return cache.stream().collect(TopK.collector(k, c));
+        }
+        restoreCacheToDB();
+        if (databaseOpt == null) {
+            return new ArrayList<>();
+        }
+        if (!parallel) {
+            try (Stream<T> stream = databaseOpt.stream()) {
+                return stream.collect(TopK.collector(k, c));
+            }
+        }
+        long[] range = databaseOpt.pkRange();
+        if (range == null) {
+            return new ArrayList<>();
+        }
+        long start = range[0] - 1;
+        long span = range[1] - start;
+        int splits = (int) Math.min(span, Math.max(1, ForkJoinPool.getCommonPoolParallelism()));
+        return IntStream.range(0, splits).parallel()
+                .mapToObj(i -> {
+                    try (Stream<T> stream = databaseOpt.streamByPk(start + span * i / splits, start + span * (i + 1) / splits)) {
+                        return stream.collect(TopK.collector(k, c));
+                    }
+                })
+                .flatMap(List::stream)
+                .collect(TopK.collector(k, c));
+    }
+
+    /**
+     * 按列排序后取前 k 个元素，排序和截取用 ORDER BY ... LIMIT k 在数据库中完成。
+     * 排序条件的写法和 {@link LocalQuery#orderBy(String...)} 一样，比如 score desc
+     *
+     * @param k              元素个数
+     * @param orderByClauses 排序条件
+     * @return 排好序的前 k 个元素
+     */
+    public List<T> topK(int k, String... orderByClauses) {
+        if (orderByClauses == null || orderByClauses.length == 0) {
+            throw new IllegalArgumentException("排序条件不能为空");
+        }
+        try (Stream<T> stream = query().orderBy(orderByClauses).limit(k).stream()) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * 排序。数据还在内存缓存中时直接排序缓存；数据已经写入数据库时使用外部归并排序，
+     * 每次只在内存中排序 {@link MainConfig#SORT_RUN_SIZE} 行，排序结果在一个事务中写回。排序是稳定的。
+     * 段文件引擎同样使用外部归并排序，有序段写到临时的段文件中，写回时清空段文件后重新追加，没有事务
+     *
+     * @param c 比较器，为 null 时按自然顺序排序
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void sort(Comparator<? super T> c) {
+        boolean b = cacheSize > 0 && !cacheToDBFlag;
+        if (b) {
+            cache.sort(c);
+            runtimeMetrics.recordCacheWrite();
+            return;
+        }
+        restoreCacheToDB();
+        if (databaseOpt == null) {
+            return;
+        }
+        Comparator<? super T> comparator = c != null ? c : (Comparator<? super T>) Comparator.naturalOrder();
+        removeFlag.set(true);
+        int sorted = new ExternalMergeSort<>(databaseOpt, elementClass, comparator,
+                MainConfig.SORT_RUN_SIZE.getPropertyInt()).sort();
+        // 写回时主键重新从1开始连续编号
+        removeFlag.set(false);
+        runtimeMetrics.recordDatabaseWrite(sorted);
+    }
+
+    /**
+     * 按列排序，排序在数据库中用一条 ORDER BY 完成，数据不经过内存。
+     * 排序条件的写法和 {@link LocalQuery#orderBy(String...)} 一样，比如 score desc；相同时保持原来的顺序
+     *
+     * @param orderByClauses 排序条件
+     */
+    public void sortBy(String... orderByClauses) {
+        if (orderByClauses == null || orderByClauses.length == 0) {
+            throw new IllegalArgumentException("排序条件不能为空");
+        }
+        restoreCacheToDB();
+        if (databaseOpt == null) {
+            return;
+        }
+        if (databaseOpt.getDataSource() == null) {
+            throw new UnsupportedOperationException("段文件引擎不支持 sortBy，按列排序请使用 sort(Comparator)");
+        }
+        removeFlag.set(true);
+        int sorted = databaseOpt.sortBy(Arrays.asList(orderByClauses));
+        removeFlag.set(false);
+        runtimeMetrics.recordDatabaseWrite(sorted);
+    }
+
+    /**
+     * 复用同一个对象的遍历，每一行都解码到 factory 创建的同一个对象中再交给 action，
+     * 遍历过程中不会为每一行创建新对象。action 返回后对象的内容就会被下一行覆盖，不要保存对象的引用。
+     * 数据还在内存缓存中时，直接遍历缓存中的对象
+     *
+     * @param factory 创建复用对象，只会调用一次
+     * @param action  消费者
+     */
+    public void forEachReusing(Supplier<T> factory, Consumer<? super T> action) {
+        Objects.requireNonNull(factory);
+        Objects.requireNonNull(action);
+        boolean b = cacheSize > 0 && !cacheToDBFlag;
+        if (b) {
+            cache.forEach(action);
+            return;
+        }
+        restoreCacheToDB();
+        T reuse = factory.get();
+        int currentSize = size();
+        for (int from = 0; from < currentSize; from += preReadCacheSize) {
+            if (databaseOpt.batchQueryInto(from, Math.min(from + preReadCacheSize, currentSize), reuse, action) == 0) {
+                break;
+            }
+        }
+    }
+
     /**
      * 将列表转换为数组
      *
@@ -319,7 +697,7 @@ public class LocalList<T> implements AutoCloseable, List<T> {
     }
 
     /**
-     * 判断列表是否包含指定集合
+     * 判断列表是否包含指定集合，相等的定义和 {@link #indexOf(Object)} 相同
      *
      * @param c 集合
      * @return 列表包含集合返回true，否则返回false
@@ -327,7 +705,31 @@ public class LocalList<T> implements AutoCloseable, List<T> {
     @SuppressWarnings("NullableProblems")
     @Override
     public boolean containsAll(Collection<?> c) {
-        throw new UnsupportedOperationException();
+        boolean b = cacheSize > 0 && !cacheToDBFlag;
+        if (b) {
+            if (c.isEmpty()) {
+                return true;
+            }
+            if (databaseOpt == null) {
+                return false;
+            }
+            Set<List<Object>> keys = new HashSet<>();
+            for (T t : cache) {
+                keys.add(equalityKey(t));
+            }
+            for (Object o : c) {
+                List<Object> key = equalityKey(o);
+                if (key == null || !keys.contains(key)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        restoreCacheToDB();
+        if (c.isEmpty()) {
+            return true;
+        }
+        return databaseOpt != null && databaseOpt.containsAll(c);
     }
 
     /**
@@ -385,7 +787,11 @@ public class LocalList<T> implements AutoCloseable, List<T> {
     }
 
     /**
-     * 添加指定集合到列表指定位置
+     * 添加指定集合到列表指定位置。
+     * 数据在数据库中时，列表的顺序就是主键的顺序，新的行使用前后两行主键之间空出的主键，不需要移动其他行；
+     * 主键之间没有空位时只把插入位置附近的一段行重新编号。主键连续的列表没有空位，第一次按位置插入时会把整张表重新编号一次。
+     * 按位置插入后主键不再连续，和删除过数据一样，之后的 get/set/remove(index) 以及下一次按位置插入都需要按偏移量查询，
+     * 代价和下标成正比；{@link #sort(Comparator)}、{@link #sortBy(String...)} 重写整张表后主键重新连续
      *
      * @param index 索引
      * @param c     集合
@@ -394,11 +800,44 @@ public class LocalList<T> implements AutoCloseable, List<T> {
     @SuppressWarnings("NullableProblems")
     @Override
     public boolean addAll(int index, Collection<? extends T> c) {
-        throw new UnsupportedOperationException();
+        Objects.requireNonNull(c);
+        int size = size();
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        if (index == size) {
+            return addAll(c);
+        }
+        if (c.isEmpty()) {
+            return false;
+        }
+        // 和 addAll 一样，传入的列表大于缓存上限时不使用缓存
+        boolean b = cacheSize > 0 && !cacheToDBFlag && c.size() < cacheSize;
+        if (b) {
+            cache.addAll(index, c);
+            sizeCounter.addAndGet(c.size());
+            runtimeMetrics.recordCacheWrite(c.size());
+            runtimeMetrics.recordDatabaseSize(sizeCounter.get());
+            if (cache.size() >= cacheSize) {
+                restoreCacheToDB();
+            }
+            return true;
+        }
+        restoreCacheToDB();
+        if (databaseOpt.getDataSource() == null) {
+            throw new UnsupportedOperationException("段文件引擎不支持 add(index)/addAll(index) 按位置插入");
+        }
+        // 插入后主键不再连续，之后按下标读取由数据库操作对象的位置索引定位主键
+        removeFlag.set(true);
+        int inserted = databaseOpt.insertAt(index, c);
+        sizeCounter.addAndGet(inserted);
+        runtimeMetrics.recordDatabaseWrite(inserted);
+        runtimeMetrics.recordDatabaseSize(sizeCounter.get());
+        return inserted > 0;
     }
 
     /**
-     * 移除指定集合
+     * 移除指定集合，相等的定义和 {@link #indexOf(Object)} 相同，按各列编码后的值比较
      *
      * @param c 集合
      * @return 移除成功返回true，否则返回false
@@ -406,11 +845,12 @@ public class LocalList<T> implements AutoCloseable, List<T> {
     @SuppressWarnings("NullableProblems")
     @Override
     public boolean removeAll(Collection<?> c) {
-        throw new UnsupportedOperationException();
+        Set<List<Object>> keys = toEqualityKeys(c);
+        return removeIf(t -> keys.contains(equalityKey(t)));
     }
 
     /**
-     * 保留指定集合
+     * 保留指定集合，相等的定义和 {@link #indexOf(Object)} 相同，按各列编码后的值比较
      *
      * @param c 集合
      * @return 保留成功返回true，否则返回false
@@ -418,7 +858,59 @@ public class LocalList<T> implements AutoCloseable, List<T> {
     @SuppressWarnings("NullableProblems")
     @Override
     public boolean retainAll(Collection<?> c) {
-        throw new UnsupportedOperationException();
+        Set<List<Object>> keys = toEqualityKeys(c);
+        return removeIf(t -> !keys.contains(equalityKey(t)));
+    }
+
+    /**
+     * 删除所有满足条件的元素。数据在数据库中时，通过一次顺序读取找出要删除的主键，
+     * 分批在同一个事务中删除，列表大小最后统一更新
+     *
+     * @param filter 删除条件
+     * @return 是否删除了元素
+     */
+    @Override
+    public boolean removeIf(Predicate<? super T> filter) {
+        Objects.requireNonNull(filter);
+        boolean b = cacheSize > 0 && !cacheToDBFlag;
+        if (b) {
+            int before = cache.size();
+            if (!cache.removeIf(filter)) {
+                return false;
+            }
+            runtimeMetrics.recordCacheWrite();
+            sizeCounter.addAndGet(cache.size() - before);
+            runtimeMetrics.recordDatabaseSize(sizeCounter.get());
+            return true;
+        }
+        restoreCacheToDB();
+        if (databaseOpt == null) {
+            return false;
+        }
+        int removed = databaseOpt.removeIf(filter);
+        if (removed == 0) {
+            return false;
+        }
+        removeFlag.set(true);
+        sizeCounter.addAndGet(-removed);
+        runtimeMetrics.recordDatabaseWrite(removed);
+        runtimeMetrics.recordDatabaseSize(sizeCounter.get());
+        return true;
+    }
+
+    /**
+     * 转换成各列编码后的值的集合，用于逐行判断，不可能在列表中的元素直接忽略
+     */
+    private Set<List<Object>> toEqualityKeys(Collection<?> c) {
+        Objects.requireNonNull(c);
+        Set<List<Object>> keys = new HashSet<>();
+        for (Object o : c) {
+            List<Object> key = equalityKey(o);
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+        return keys;
     }
 
     /**
@@ -455,14 +947,23 @@ public class LocalList<T> implements AutoCloseable, List<T> {
     }
 
     private String getRecoveryTableName() {
-        if (databaseOpt == null) {
+        if (!hasRecoveryStore()) {
             return null;
         }
         return RECOVERY_TABLE_PREFIX + databaseOpt.getTableName();
     }
 
+    /**
+     * 恢复状态记录在数据源的表里，没有数据源的引擎（段文件）不记录恢复状态
+     *
+     * @return 是否可以记录恢复状态
+     */
+    private boolean hasRecoveryStore() {
+        return databaseOpt != null && databaseOpt.getDataSource() != null;
+    }
+
     private void initRecoveryState() {
-        if (databaseOpt == null) {
+        if (!hasRecoveryStore()) {
             return;
         }
         try {
@@ -546,7 +1047,7 @@ public class LocalList<T> implements AutoCloseable, List<T> {
      */
     @Override
     public void add(int index, T element) {
-        throw new UnsupportedOperationException();
+        addAll(index, Collections.singletonList(element));
     }
 
     /**
@@ -576,25 +1077,62 @@ public class LocalList<T> implements AutoCloseable, List<T> {
     }
 
     /**
-     * 获取指定元素索引
+     * 获取指定元素索引。
+     * 两个元素相等指的是各列编码后的值相等（和写入数据库的值一致），不使用元素的 equals，
+     * 数据在写入缓存中、在数据库中还是在段文件中结果都一样。
+     * 数据在数据库中时，把元素按列编码后做等值查询，开启整行哈希时可以走哈希列的索引
      *
      * @param o 元素
      * @return 索引
      */
     @Override
     public int indexOf(Object o) {
-        throw new UnsupportedOperationException();
+        boolean b = cacheSize > 0 && !cacheToDBFlag;
+        if (b) {
+            return indexOfInCache(o, false);
+        }
+        restoreCacheToDB();
+        return databaseOpt == null ? -1 : databaseOpt.indexOf(o, false);
     }
 
     /**
-     * 获取指定元素最后索引
+     * 获取指定元素最后索引，相等的定义和 {@link #indexOf(Object)} 相同
      *
      * @param o 元素
      * @return 索引
      */
     @Override
     public int lastIndexOf(Object o) {
-        throw new UnsupportedOperationException();
+        boolean b = cacheSize > 0 && !cacheToDBFlag;
+        if (b) {
+            return indexOfInCache(o, true);
+        }
+        restoreCacheToDB();
+        return databaseOpt == null ? -1 : databaseOpt.indexOf(o, true);
+    }
+
+    /**
+     * 在写入缓存中按值查找，和数据库中一样比较各列编码后的值
+     */
+    private int indexOfInCache(Object o, boolean last) {
+        List<Object> key = equalityKey(o);
+        if (key == null) {
+            return -1;
+        }
+        for (int i = 0; i < cache.size(); i++) {
+            int index = last ? cache.size() - 1 - i : i;
+            if (key.equals(equalityKey(cache.get(index)))) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 元素按列编码后用于比较的值，列表还没有数据或者元素不可能在列表中时返回 null
+     */
+    private List<Object> equalityKey(Object o) {
+        return databaseOpt == null ? null : DBUtil.equalityKey(databaseOpt.getColumns(), elementClass, o);
     }
 
     /**
@@ -671,21 +1209,39 @@ public class LocalList<T> implements AutoCloseable, List<T> {
      * @param keyColumn 键列名
      * @param key       键值
      * @param value     对象值
-     * @return 被更新或添加的对象
+     * @return 原来的对象，key 不存在时返回 null
      */
     T putByKey(String keyColumn, String key, T value) {
         restoreCacheToDB();
-        AtomicBoolean removed = new AtomicBoolean(false);
-        T t = databaseOpt.putByKey(keyColumn, key, value, removed);
+        AtomicInteger removedRows = new AtomicInteger();
+        T t = databaseOpt.putByKey(keyColumn, key, value, removedRows);
         runtimeMetrics.recordDatabaseWrite(1);
-        if (!removed.get()) {
-            // 新加的元素，计数+1
-            sizeCounter.incrementAndGet();
+        if (removedRows.get() != 1) {
+            // 新加的 key 计数+1，key 有多行时合并成了一行
+            sizeCounter.addAndGet(1 - removedRows.get());
             runtimeMetrics.recordDatabaseSize(sizeCounter.get());
         }
         return t;
     }
 
+    /**
+     * 在一个事务中批量写入 key-value。
+     *
+     * @param keyColumn 键列名
+     * @param entries   要写入的键和对象
+     * @param overwrite 已经存在的键是否覆盖
+     * @param existing  不为空时，放入已经存在的键和原来的对象
+     * @return 表中增加的行数
+     */
+    int putAllByKey(String keyColumn, Map<String, ? extends T> entries, boolean overwrite, Map<String, T> existing) {
+        restoreCacheToDB();
+        int inserted = databaseOpt.putAllByKey(keyColumn, entries, overwrite, existing);
+        sizeCounter.addAndGet(inserted);
+        runtimeMetrics.recordDatabaseWrite(overwrite ? entries.size() : inserted);
+        runtimeMetrics.recordDatabaseSize(sizeCounter.get());
+        return inserted;
+    }
+
     /**
      * 根据给定的键删除对象。
      *
@@ -721,6 +1277,44 @@ public class LocalList<T> implements AutoCloseable, List<T> {
         runtimeMetrics.recordDatabaseSize(sizeCounter.get());
     }
 
+    /**
+     * 把连接查询的结果通过 INSERT ... SELECT 直接追加到当前列表，数据不经过 Java 对象
+     *
+     * @param joinClause       FROM 之后的连接子句
+     * @param columnForMapList 列映射列表
+     * @param condition        查询条件
+     */
+    void insertJoinedData(String joinClause, List<LocalColumnForMap> columnForMapList, LocalQueryCondition condition) {
+        restoreCacheToDB();
+        recordDirectInsert(databaseOpt.insertJoinedData(joinClause, columnForMapList, condition));
+    }
+
+    /**
+     * 把源列表中满足条件的行通过 INSERT ... SELECT 直接追加到当前列表，数据不经过 Java 对象。
+     * 两个列表的数据都要在数据库中，还在内存缓存中的数据会先写入数据库
+     *
+     * @param source    源列表，和当前列表的元素类型相同
+     * @param condition 查询条件
+     */
+    void insertQueryResult(LocalList<T> source, LocalQueryCondition condition) {
+        source.restoreCacheToDB();
+        restoreCacheToDB();
+        recordDirectInsert(source.databaseOpt.insertQuery(condition, databaseOpt.getTableName(), databaseOpt.getColumns()));
+    }
+
+    /**
+     * 记录绕过缓存直接写到表中的行
+     *
+     * @param inserted 写入的行数
+     */
+    private void recordDirectInsert(int inserted) {
+        // 数据已经直接写到了表中，之后的读取都要走数据库
+        cacheToDBFlag = true;
+        sizeCounter.addAndGet(inserted);
+        runtimeMetrics.recordDatabaseWrite(inserted);
+        runtimeMetrics.recordDatabaseSize(sizeCounter.get());
+    }
+
     void restoreCacheToDB() {
         if (cache.isEmpty()) {
             return;
@@ -769,7 +1363,7 @@ public class LocalList<T> implements AutoCloseable, List<T> {
     }
 
     private void markRecoveryState(String state, String detail) {
-        if (databaseOpt == null) {
+        if (!hasRecoveryStore()) {
             return;
         }
         String tableName = getRecoveryTableName();
@@ -804,7 +1398,7 @@ public class LocalList<T> implements AutoCloseable, List<T> {
     }
 
     private String readRecoveryState() {
-        if (databaseOpt == null) {
+        if (!hasRecoveryStore()) {
             return RECOVERY_STATE_CORRUPTED;
         }
         String tableName = getRecoveryTableName();
@@ -1027,23 +1621,13 @@ public class LocalList<T> implements AutoCloseable, List<T> {
             return parseSimpleValue(row.get(0), columns.get(0));
         }
         Class<?> valueClass = columns.get(0).getField().getDeclaringClass();
-        Object bean;
-        try {
-            bean = valueClass.getDeclaredConstructor().newInstance();
-        } catch (Exception e) {
-            throw new RuntimeException("对象实例化失败: " + valueClass, e);
-        }
+        Object bean = RowMapper.of(valueClass).newInstance();
         for (int i = 0; i < columns.size(); i++) {
             LocalColumn column = columns.get(i);
             if (column.getField() == null) {
                 continue;
             }
-            try {
-                column.getField().setAccessible(true);
-                column.getField().set(bean, parseSimpleValue(row.get(i), column));
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException("恢复字段失败: " + column.getColumnName(), e);
-            }
+            column.getAccessor().set(bean, parseSimpleValue(row.get(i), column));
         }
         @SuppressWarnings("unchecked")
         T value = (T) bean;
@@ -1111,15 +1695,10 @@ public class LocalList<T> implements AutoCloseable, List<T> {
         if (columns.size() == 1 && column.getField() == null) {
             return value;
         }
-        try {
-            if (column.getField() != null) {
-                column.getField().setAccessible(true);
-                return column.getField().get(value);
-            }
-            return null;
-        } catch (IllegalAccessException e) {
-            throw new RuntimeException("读取字段失败: " + column.getColumnName(), e);
+        if (column.getField() != null) {
+            return column.getAccessor().get(value);
         }
+        return null;
     }
 
     private String escapeCsv(String text) {
@@ -1341,6 +1920,92 @@ public class LocalList<T> implements AutoCloseable, List<T> {
 
     private final int preReadCacheSize = 5000;
 
+    /**
+     * 按批读取的 Spliterator，每次前进读取一批，切分时按批对齐
+     */
+    private class BatchSpliterator implements Spliterator<List<T>> {
+        private int from;
+        private final int to;
+        private final int batchSize;
+
+        BatchSpliterator(int from, int to, int batchSize) {
+            this.from = from;
+            this.to = to;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super List<T>> action) {
+            if (from >= to) {
+                return false;
+            }
+            List<T> batch = databaseOpt.batchQuery(from, Math.min(from + batchSize, to));
+            from += batchSize;
+            if (batch.isEmpty()) {
+                from = to;
+                return false;
+            }
+            action.accept(batch);
+            return true;
+        }
+
+        @Override
+        public Spliterator<List<T>> trySplit() {
+            long batches = estimateSize();
+            if (batches < 2) {
+                return null;
+            }
+            int mid = from + (int) (batches / 2) * batchSize;
+            BatchSpliterator prefix = new BatchSpliterator(from, mid, batchSize);
+            from = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return from >= to ? 0 : ((long) to - from + batchSize - 1) / batchSize;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
+    /**
+     * 投影查询的迭代器，只向前按块读取，列表大小在创建时读取一次
+     */
+    private class ProjectionIterator implements Iterator<T> {
+        private final List<LocalColumn> projection;
+        private final int end;
+        private List<T> page = Collections.emptyList();
+        private int pageStart;
+        private int cursor;
+
+        ProjectionIterator(List<LocalColumn> projection) {
+            this.projection = projection;
+            this.end = size();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor < end;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (cursor - pageStart >= page.size()) {
+                pageStart = cursor;
+                page = databaseOpt.batchQuery(cursor, Math.min(cursor + preReadCacheSize, end), projection);
+                if (page.isEmpty())
+                    throw new ConcurrentModificationException();
+            }
+            return page.get(cursor++ - pageStart);
+        }
+    }
+
     /**
      * 列表迭代器实现
      */
@@ -16,6 +16,10 @@ public final class LocalListRuntimeMetrics {
     private final LongAdder databaseWriteOps = new LongAdder();
     private final LongAdder databaseWriteRows = new LongAdder();
     private final AtomicLong databaseSize = new AtomicLong(0);
+    private final AtomicLong compressionRawBytes = new AtomicLong(0);
+    private final AtomicLong compressionStoredBytes = new AtomicLong(0);
+    private final AtomicLong compressionTimeNanos = new AtomicLong(0);
+    private final AtomicLong decompressionTimeNanos = new AtomicLong(0);
 
     void recordCacheHit() {
         cacheHits.increment();
@@ -93,4 +97,47 @@ public final class LocalListRuntimeMetrics {
             databaseSize.set(size);
         }
     }
+
+    /**
+     * 压缩列在压缩前的总字节数。
+     *
+     * @return 字节数
+     */
+    public long getCompressionRawBytes() {
+        return compressionRawBytes.get();
+    }
+
+    /**
+     * 压缩列实际保存的总字节数。
+     *
+     * @return 字节数
+     */
+    public long getCompressionStoredBytes() {
+        return compressionStoredBytes.get();
+    }
+
+    /**
+     * 压缩率，实际保存的字节数 / 压缩前的字节数，没有压缩过数据时为 0。
+     *
+     * @return 压缩率
+     */
+    public double getCompressionRatio() {
+        long raw = getCompressionRawBytes();
+        return raw == 0 ? 0D : (double) getCompressionStoredBytes() / raw;
+    }
+
+    public long getCompressionTotalNanos() {
+        return compressionTimeNanos.get();
+    }
+
+    public long getDecompressionTotalNanos() {
+        return decompressionTimeNanos.get();
+    }
+
+    void recordCompression(long rawBytes, long storedBytes, long compressNanos, long decompressNanos) {
+        compressionRawBytes.set(rawBytes);
+        compressionStoredBytes.set(storedBytes);
+        compressionTimeNanos.set(compressNanos);
+        decompressionTimeNanos.set(decompressNanos);
+    }
 }
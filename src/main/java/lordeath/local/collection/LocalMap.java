@@ -1,5 +1,6 @@
 package lordeath.local.collection;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lordeath.local.collection.db.bean.LocalColumn;
 import lordeath.local.collection.db.bean.LocalColumnForMap;
@@ -27,6 +28,20 @@ import java.util.*;
 public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
     private final String keyColumn;
     private LocalList<V> innerList;
+    // 堆内缓存的 key 数量，0 表示不缓存，每次读写都直接访问数据库
+    @Getter(AccessLevel.NONE)
+    private final int frontCacheSize = MainConfig.MAP_CACHE_SIZE.getPropertyInt();
+    // 最近访问过的 key 和值，超过缓存大小时淘汰最久没有访问的
+    @Getter(AccessLevel.NONE)
+    private final Map<String, V> frontCache = new LinkedHashMap<String, V>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > frontCacheSize;
+        }
+    };
+    // 还没有写入数据库的 key 和值，攒到缓存大小时在一个事务中按批写入
+    @Getter(AccessLevel.NONE)
+    private final Map<String, V> dirtyEntries = new LinkedHashMap<>();
 
     /**
      * 获取线程安
@@ -60,27 +75,36 @@ public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
         innerList = new LocalList<>();
     }
 
-    private LocalMap(String keyColumn, LocalList<V> innerList) {
+    LocalMap(String keyColumn, LocalList<V> innerList) {
         this.keyColumn = keyColumn;
         this.innerList = innerList;
     }
 
+    /**
+     * 获取内部的列表，缓存中还没有写入的数据会先写入数据库
+     *
+     * @return 内部的列表
+     */
+    public LocalList<V> getInnerList() {
+        flushFrontCache();
+        return innerList;
+    }
+
     @Override
     public int size() {
+        flushFrontCache();
         return innerList.size();
     }
 
     @Override
     public boolean isEmpty() {
+        flushFrontCache();
         return innerList.isEmpty();
     }
 
     @Override
     public boolean containsKey(Object key) {
-        if (innerList.getDatabaseOpt() == null) {
-            return false;
-        }
-        return innerList.getDatabaseOpt().getByKey(keyColumn, key) != null;
+        return get(key) != null;
     }
 
     @Override
@@ -88,21 +112,122 @@ public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * 开启堆内缓存时，先查还没有写入的数据和缓存，都没有时再查数据库并放入缓存。
+     * 缓存中的值是同一个对象，修改后需要重新 put
+     *
+     * @param key 键
+     * @return 值，不存在时返回 null
+     */
     @Override
     public V get(Object key) {
         if (innerList.getDatabaseOpt() == null) {
             return null;
         }
-        return innerList.getDatabaseOpt().getByKey(keyColumn, key);
+        if (frontCacheSize <= 0) {
+            return innerList.getDatabaseOpt().getByKey(keyColumn, key);
+        }
+        String keyString = key + "";
+        if (dirtyEntries.containsKey(keyString)) {
+            return dirtyEntries.get(keyString);
+        }
+        V value = frontCache.get(keyString);
+        if (value == null) {
+            value = innerList.getDatabaseOpt().getByKey(keyColumn, key);
+            if (value != null) {
+                frontCache.put(keyString, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 批量查询多个 key，key 按批用 IN 查询，所有的查询使用同一个连接
+     *
+     * @param keys 要查询的 key
+     * @return 找到的 key 和对应的值，按传入的顺序排列，不存在的 key 不会出现在结果中
+     */
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        return getAll(keys, false);
+    }
+
+    /**
+     * 批量查询多个 key，key 按批用 IN 查询
+     *
+     * @param keys     要查询的 key
+     * @param parallel 是否使用多个连接并行查询各批，适合 h2 这类支持多个连接同时读取的引擎
+     * @return 找到的 key 和对应的值，按传入的顺序排列，不存在的 key 不会出现在结果中
+     */
+    public Map<K, V> getAll(Collection<? extends K> keys, boolean parallel) {
+        Objects.requireNonNull(keys);
+        Map<K, V> result = new LinkedHashMap<>();
+        if (innerList.getDatabaseOpt() == null || keys.isEmpty()) {
+            return result;
+        }
+        flushFrontCache();
+        Set<String> keyStrings = new LinkedHashSet<>();
+        for (K key : keys) {
+            keyStrings.add(key + "");
+        }
+        Map<String, V> found = innerList.getDatabaseOpt().getAllByKeys(keyColumn, keyStrings, parallel);
+        for (K key : keys) {
+            String keyString = key + "";
+            if (found.containsKey(keyString)) {
+                result.put(key, found.get(keyString));
+            }
+        }
+        return result;
     }
 
-    @SuppressWarnings({"resource", "unchecked"})
+    /**
+     * 开启堆内缓存时，值先写入缓存，修改过的 key 攒到缓存大小时再按批写入数据库
+     *
+     * @param key   键
+     * @param value 值
+     * @return 原来的值，不存在时返回 null
+     */
     @Override
     public V put(K key, V value) {
-        V oldValue = null;
-        if (innerList.getDatabaseOpt() != null) {
-            oldValue = get(key);
+        createTableIfAbsent(key, value);
+        if (frontCacheSize <= 0) {
+            // 读取原来的值和写入在同一个事务中完成
+            return innerList.putByKey(keyColumn, key + "", value);
+        }
+        String keyString = key + "";
+        V oldValue = get(keyString);
+        dirtyEntries.put(keyString, value);
+        frontCache.put(keyString, value);
+        if (dirtyEntries.size() >= frontCacheSize) {
+            flushFrontCache();
+        }
+        return oldValue;
+    }
+
+    /**
+     * 把缓存中还没有写入的数据按批写入数据库
+     */
+    private void flushFrontCache() {
+        if (dirtyEntries.isEmpty()) {
+            return;
         }
+        innerList.putAllByKey(keyColumn, dirtyEntries, true, null);
+        dirtyEntries.clear();
+    }
+
+    /**
+     * 从缓存中去掉一个 key，包括还没有写入的数据
+     */
+    private void evictFrontCache(Object key) {
+        String keyString = key + "";
+        dirtyEntries.remove(keyString);
+        frontCache.remove(keyString);
+    }
+
+    /**
+     * 第一次写入时，按 key 和 value 的类型创建数据表
+     */
+    @SuppressWarnings({"resource", "unchecked"})
+    private void createTableIfAbsent(K key, V value) {
         if (innerList.getDatabaseOpt() == null) {
             Class<?> resultClass = value.getClass();
             String newTableName = "map_" + UUID.randomUUID().toString().replace("-", "");
@@ -112,6 +237,8 @@ public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
             {
                 LocalColumnForMap localColumnForMap = new LocalColumnForMap();
                 localColumnForMap.setKey(true);
+                // put 按 key 使用 upsert 写入，依赖 key 列上的唯一索引
+                localColumnForMap.setUnique(true);
                 localColumnForMap.setExpression(keyColumn);
                 localColumnForMap.setSinkColumn(buildLocalColumn(keyColumn, key.getClass(), null));
                 columnForMapList.add(localColumnForMap);
@@ -149,11 +276,9 @@ public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
 
             this.innerList = new LocalList<>((Class<V>) value.getClass(), newTableName, columnForMapList);
         }
-        innerList.putByKey(keyColumn, key + "", value);
-        return oldValue;
     }
 
-    private static LocalColumn buildLocalColumn(String columnName, Class<?> type, Field field) {
+    static LocalColumn buildLocalColumn(String columnName, Class<?> type, Field field) {
         String sqlType = DBUtil.getSqlTypeOrNull(type);
         if (sqlType == null) {
             throw new UnsupportedOperationException("不支持的数据类型，请联系开发: " + type);
@@ -162,9 +287,36 @@ public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
         return new LocalColumn(columnName, type, sqlType, field, codec);
     }
 
+    /**
+     * 把 select 中的一个表达式转换成列映射，有别名时按别名，否则按表达式本身找到结果类型中的字段
+     *
+     * @param selectColumn 表达式，比如 avg(age) AS age
+     * @param resultClass  结果类型
+     * @return 列映射
+     */
+    static LocalColumnForMap buildSelectColumn(String selectColumn, Class<?> resultClass) {
+        LocalColumnForMap localColumnForMap = new LocalColumnForMap();
+        localColumnForMap.setExpression(selectColumn);
+        String sinkColumnName = selectColumn;
+        sinkColumnName = StringUtils.replace(sinkColumnName, "\n", " ");
+        sinkColumnName = StringUtils.replace(sinkColumnName, "\r", " ");
+        if (StringUtils.containsIgnoreCase(sinkColumnName, " AS ")) {
+            // 有别名，拿到别名
+            sinkColumnName = selectColumn.substring(StringUtils.lastIndexOfIgnoreCase(selectColumn, " AS ") + " AS ".length()).trim();
+        }
+        // 通过别名，拿到字段名称
+        Field field = FieldUtils.getDeclaredField(resultClass, sinkColumnName, true);
+        if (field == null) {
+            throw new UnsupportedOperationException("目标的类无法找到对应的字段: " + selectColumn);
+        }
+        localColumnForMap.setSinkColumn(buildLocalColumn(sinkColumnName, field.getType(), field));
+        return localColumnForMap;
+    }
+
     @Override
     public V remove(Object key) {
         V value = get(key);
+        evictFrontCache(key);
         if (value != null) {
             innerList.removeByKey(keyColumn, key);
         }
@@ -210,31 +362,63 @@ public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
         if (!java.util.Objects.equals(current, value)) {
             return false;
         }
+        evictFrontCache(key);
         innerList.removeByKey(keyColumn, key);
         return true;
     }
 
+    /**
+     * 批量写入，已经存在的 key 会被覆盖。所有的写入按批在同一个事务中完成
+     *
+     * @param m 要写入的数据
+     */
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
-        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
-            put(entry.getKey(), entry.getValue());
-        }
-    }
+        putAllByKey(m, true, null);
+    }
+
+    /**
+     * 批量写入不存在的 key，已经存在的 key 保持原来的值。先用 IN 查询分批找出已经存在的 key，再在同一个事务中插入其余的数据
+     *
+     * @param m 要写入的数据
+     */
     public void putAllIfAbsent(Map<? extends K, ? extends V> m) {
-        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
-            putIfAbsent(entry.getKey(), entry.getValue());
-        }
+        putAllByKey(m, false, null);
     }
 
+    /**
+     * 批量写入不存在的 key，并返回已经存在的 key 和它们原来的值
+     *
+     * @param m 要写入的数据
+     * @return 已经存在的 key 和原来的值
+     */
     public Map<K, V> putAllIfAbsentWithExisting(Map<? extends K, ? extends V> m) {
-        Map<K, V> existing = new LinkedHashMap<>();
-        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
-            V existingValue = putIfAbsent(entry.getKey(), entry.getValue());
-            if (existingValue != null) {
-                existing.put(entry.getKey(), existingValue);
+        Map<String, V> existing = new LinkedHashMap<>();
+        putAllByKey(m, false, existing);
+        // 按传入的顺序返回
+        Map<K, V> result = new LinkedHashMap<>();
+        for (K key : m.keySet()) {
+            String keyString = key + "";
+            if (existing.containsKey(keyString)) {
+                result.put(key, existing.get(keyString));
             }
         }
-        return existing;
+        return result;
+    }
+
+    private void putAllByKey(Map<? extends K, ? extends V> m, boolean overwrite, Map<String, V> existing) {
+        if (m.isEmpty()) {
+            return;
+        }
+        Map<String, V> entries = new LinkedHashMap<>();
+        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            entries.put(entry.getKey() + "", entry.getValue());
+        }
+        Entry<? extends K, ? extends V> first = m.entrySet().iterator().next();
+        createTableIfAbsent(first.getKey(), first.getValue());
+        flushFrontCache();
+        entries.keySet().forEach(frontCache::remove);
+        innerList.putAllByKey(keyColumn, entries, overwrite, existing);
     }
 
     public Map<K, V> removeIfEquals(Map<? extends K, ? extends V> entries) {
@@ -252,6 +436,8 @@ public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
 
     @Override
     public void clear() {
+        dirtyEntries.clear();
+        frontCache.clear();
         innerList.clear();
     }
 
@@ -261,6 +447,7 @@ public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
         if (innerList.getDatabaseOpt() == null) {
             return Collections.emptySet();
         }
+        flushFrontCache();
         List<String> keys = innerList.getDatabaseOpt().getAllKeys(keyColumn);
         return new HashSet<>((Collection<K>) keys);
     }
@@ -268,6 +455,7 @@ public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
     @SuppressWarnings("NullableProblems")
     @Override
     public Collection<V> values() {
+        flushFrontCache();
         return Collections.unmodifiableList(innerList);
     }
 
@@ -286,6 +474,9 @@ public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
 
     @Override
     public void close() {
+        // 关闭时数据表会被删除，还没有写入的数据直接丢弃
+        dirtyEntries.clear();
+        frontCache.clear();
         innerList.close();
     }
 
@@ -383,6 +574,9 @@ public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
          */
         @SuppressWarnings("unchecked")
         public <K extends String, V> LocalMap<K, V> build() {
+            if (source.getDatabaseOpt() != null && source.getDatabaseOpt().getDataSource() == null) {
+                throw new UnsupportedOperationException("源列表的数据库引擎不支持SQL聚合: " + source.getDatabaseOpt().getDatabaseEngine());
+            }
             // 生成新表名和key列名
             String newTableName = "map_" + UUID.randomUUID().toString().replace("-", "");
             String keyColumn = "key_" + UUID.randomUUID().toString().replace("-", "");
@@ -392,10 +586,17 @@ public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
             // 创建新的LocalList实例，使用自定义的列定义
             LocalList<V> innerList = new LocalList<>((Class<V>) resultClass, newTableName, columnForMapList);
 
+            // 字典编码的列按编码分组，输出和过滤时再还原成字符串
+            List<LocalColumn> sourceColumns = source.getDatabaseOpt() == null ? null : source.getDatabaseOpt().getColumns();
+            for (LocalColumnForMap localColumnForMap : columnForMapList) {
+                localColumnForMap.setExpression(decodeDictionaryColumns(localColumnForMap.getExpression(), sourceColumns));
+            }
+
             // 给这个innerList灌数据，insert into sink_table (...) select ... from source_table where ... group by ...
             source.restoreCacheToDB();
+            source.getDatabaseOpt().ensureIndexes();
             innerList.insertGroupedData(source.getDatabaseOpt().getTableName()
-                    , newTableName, groupByColumns, whereClause, columnForMapList);
+                    , newTableName, groupByColumns, DBUtil.decodeDictionaryColumns(whereClause, sourceColumns), columnForMapList);
 
             // 创建新的LocalMap实例
             return new LocalMap<>(keyColumn, innerList);
@@ -414,26 +615,20 @@ public class LocalMap<K extends String, V> implements Map<K, V>, AutoCloseable {
 
             // 我们只需要注我们自己需要采集的列就好，不需要把原的列都采集过来
             for (String selectColumn : selectColumns) {
-                LocalColumnForMap localColumnForMap = new LocalColumnForMap();
-                localColumnForMap.setExpression(selectColumn);
-                String sinkColumnName = selectColumn;
-                sinkColumnName = StringUtils.replace(sinkColumnName, "\n", " ");
-                sinkColumnName = StringUtils.replace(sinkColumnName, "\r", " ");
-                if (StringUtils.containsIgnoreCase(sinkColumnName, " AS ")) {
-                    // 有别名，拿到别名
-                    sinkColumnName = selectColumn.substring(StringUtils.lastIndexOfIgnoreCase(selectColumn, " AS ") + " AS ".length()).trim();
-                }
-                // 通过别名，拿到字段名称
-                Field field = FieldUtils.getDeclaredField(resultClass, sinkColumnName, true);
-                if (field == null) {
-                    throw new UnsupportedOperationException("目标的类无法找到对应的字段: " + selectColumn);
-                }
-                localColumnForMap.setSinkColumn(buildLocalColumn(sinkColumnName, field.getType(), field));
-                columnForMapList.add(localColumnForMap);
+                columnForMapList.add(buildSelectColumn(selectColumn, resultClass));
             }
             return columnForMapList;
         }
 
+        private static String decodeDictionaryColumns(String expression, List<LocalColumn> sourceColumns) {
+            // 别名部分不需要替换
+            int aliasIndex = StringUtils.lastIndexOfIgnoreCase(expression, " AS ");
+            if (aliasIndex < 0) {
+                return DBUtil.decodeDictionaryColumns(expression, sourceColumns);
+            }
+            return DBUtil.decodeDictionaryColumns(expression.substring(0, aliasIndex), sourceColumns) + expression.substring(aliasIndex);
+        }
+
         private String buildGroupByKeyExpression(String keyColumn) {
             IDatabaseOpt<T> databaseOpt = source.getDatabaseOpt();
             String engine = databaseOpt == null ? MainConfig.DB_ENGINE.getProperty() : databaseOpt.getDatabaseEngine();
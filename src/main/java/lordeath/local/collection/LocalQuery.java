@@ -0,0 +1,125 @@
+package lordeath.local.collection;
+
+import lordeath.local.collection.db.bean.LocalQueryCondition;
+import lordeath.local.collection.db.opt.inter.IDatabaseOpt;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * LocalList 的查询构建器，过滤、排序和分页条件编译成 SQL 在数据库中执行，数据不需要逐行读到 Java 中再判断。
+ * 条件中直接使用字段名，值通过 ? 占位符绑定：
+ * <pre>
+ * list.query().where("age &gt;= ?", 18).orderBy("score desc").limit(1000).toLocalList()
+ * </pre>
+ * 只有保存为独立列的字段可以出现在条件和排序中，整行存储时编码在二进制列中的字段和压缩保存的字段无法在 SQL 中比较。
+ * 列表的数据还在内存缓存中时，执行查询前会先写入数据库
+ *
+ * @param <T> 数据类型
+ */
+public class LocalQuery<T> {
+    private final LocalList<T> source;
+    private final LocalQueryCondition condition = new LocalQueryCondition();
+
+    LocalQuery(LocalList<T> source) {
+        this.source = source;
+    }
+
+    /**
+     * 添加过滤条件，多次调用时条件之间是 AND 的关系
+     *
+     * @param whereClause 过滤条件，比如 age &gt;= ?
+     * @param params      按顺序绑定到条件中 ? 占位符的参数
+     * @return 当前构建器实例
+     */
+    public LocalQuery<T> where(String whereClause, Object... params) {
+        Objects.requireNonNull(whereClause);
+        condition.getWhereClauses().add(whereClause);
+        if (params != null) {
+            condition.getParams().addAll(Arrays.asList(params));
+        }
+        return this;
+    }
+
+    /**
+     * 添加排序，排序值相同的元素保持在原列表中的先后顺序
+     *
+     * @param orderByClauses 排序，比如 score desc
+     * @return 当前构建器实例
+     */
+    public LocalQuery<T> orderBy(String... orderByClauses) {
+        condition.getOrderByClauses().addAll(Arrays.asList(orderByClauses));
+        return this;
+    }
+
+    /**
+     * 设置最多返回的元素个数
+     *
+     * @param limit 最多返回的元素个数
+     * @return 当前构建器实例
+     */
+    public LocalQuery<T> limit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative: " + limit);
+        }
+        condition.setLimit(limit);
+        return this;
+    }
+
+    /**
+     * 设置跳过的元素个数
+     *
+     * @param offset 跳过的元素个数
+     * @return 当前构建器实例
+     */
+    public LocalQuery<T> offset(long offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must not be negative: " + offset);
+        }
+        condition.setOffset(offset);
+        return this;
+    }
+
+    /**
+     * 执行查询，结果通过 INSERT ... SELECT 直接写入一个新的 LocalList，数据不经过 Java 对象。
+     * 新列表和源列表互相独立，使用完后需要关闭
+     *
+     * @return 保存查询结果的新列表
+     */
+    public LocalList<T> toLocalList() {
+        if (source.getDatabaseOpt() == null) {
+            return new LocalList<>();
+        }
+        checkSupported();
+        LocalList<T> result = new LocalList<>(source.getElementClass());
+        try {
+            result.insertQueryResult(source, condition);
+        } catch (RuntimeException e) {
+            result.close();
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * 执行查询，通过只向前的游标流式读取结果。遍历结束时自动释放游标，没有遍历完就不再使用时需要关闭流
+     *
+     * @return 查询结果的流
+     */
+    public Stream<T> stream() {
+        IDatabaseOpt<T> databaseOpt = source.getDatabaseOpt();
+        if (databaseOpt == null) {
+            return Stream.empty();
+        }
+        checkSupported();
+        source.restoreCacheToDB();
+        return databaseOpt.query(condition);
+    }
+
+    private void checkSupported() {
+        if (source.getDatabaseOpt().getDataSource() == null) {
+            throw new UnsupportedOperationException("当前数据库引擎不支持SQL查询: " + source.getDatabaseOpt().getDatabaseEngine());
+        }
+    }
+}
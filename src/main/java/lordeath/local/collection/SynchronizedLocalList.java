@@ -8,6 +8,8 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Objects;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 import java.io.File;
 
@@ -65,6 +67,35 @@ public final class SynchronizedLocalList<E> implements List<E>, AutoCloseable {
         }
     }
 
+    /**
+     * 只读取指定字段的遍历，返回的迭代器同样在锁内执行
+     *
+     * @param fieldNames 要读取的字段名称
+     * @return 可遍历对象
+     */
+    public Iterable<E> project(String... fieldNames) {
+        synchronized (mutex) {
+            Iterable<E> iterable = delegate.project(fieldNames);
+            return () -> {
+                synchronized (mutex) {
+                    return new SynchronizedIterator(iterable.iterator());
+                }
+            };
+        }
+    }
+
+    public void forEachReusing(Supplier<E> factory, Consumer<? super E> action) {
+        synchronized (mutex) {
+            delegate.forEachReusing(factory, action);
+        }
+    }
+
+    public void forEachBatch(int batchSize, Consumer<? super List<E>> action) {
+        synchronized (mutex) {
+            delegate.forEachBatch(batchSize, action);
+        }
+    }
+
     @Override
     public Object[] toArray() {
         synchronized (mutex) {
@@ -128,6 +159,13 @@ public final class SynchronizedLocalList<E> implements List<E>, AutoCloseable {
         }
     }
 
+    @Override
+    public boolean removeIf(Predicate<? super E> filter) {
+        synchronized (mutex) {
+            return delegate.removeIf(filter);
+        }
+    }
+
     @Override
     public void clear() {
         synchronized (mutex) {
@@ -255,6 +293,48 @@ public final class SynchronizedLocalList<E> implements List<E>, AutoCloseable {
         }
     }
 
+    public LocalList<E> distinct() {
+        synchronized (mutex) {
+            return delegate.distinct();
+        }
+    }
+
+    public LocalList<E> distinctBy(String... fieldNames) {
+        synchronized (mutex) {
+            return delegate.distinctBy(fieldNames);
+        }
+    }
+
+    public LocalList<E> distinctBy(boolean keepLast, String... fieldNames) {
+        synchronized (mutex) {
+            return delegate.distinctBy(keepLast, fieldNames);
+        }
+    }
+
+    public List<E> topK(int k, Comparator<? super E> comparator) {
+        synchronized (mutex) {
+            return delegate.topK(k, comparator);
+        }
+    }
+
+    public List<E> topK(int k, Comparator<? super E> comparator, boolean parallel) {
+        synchronized (mutex) {
+            return delegate.topK(k, comparator, parallel);
+        }
+    }
+
+    public List<E> topK(int k, String... orderByClauses) {
+        synchronized (mutex) {
+            return delegate.topK(k, orderByClauses);
+        }
+    }
+
+    public void sortBy(String... orderByClauses) {
+        synchronized (mutex) {
+            delegate.sortBy(orderByClauses);
+        }
+    }
+
     @Override
     public void close() {
         synchronized (mutex) {
@@ -72,6 +72,18 @@ public final class SynchronizedLocalMap<K extends String, V> implements Map<K, V
         }
     }
 
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        synchronized (mutex) {
+            return delegate.getAll(keys);
+        }
+    }
+
+    public Map<K, V> getAll(Collection<? extends K> keys, boolean parallel) {
+        synchronized (mutex) {
+            return delegate.getAll(keys, parallel);
+        }
+    }
+
     @Override
     public V put(K key, V value) {
         synchronized (mutex) {
@@ -95,9 +107,7 @@ public final class SynchronizedLocalMap<K extends String, V> implements Map<K, V
 
     public void putAllIfAbsent(Map<? extends K, ? extends V> m) {
         synchronized (mutex) {
-            for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
-                putIfAbsent(entry.getKey(), entry.getValue());
-            }
+            delegate.putAllIfAbsent(m);
         }
     }
 
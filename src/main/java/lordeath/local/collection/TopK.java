@@ -0,0 +1,59 @@
+package lordeath.local.collection;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collector;
+
+/**
+ * 只保留排序后前 k 个元素的有界堆。
+ * <p>
+ * 堆顶是当前保留的元素中排在最后的一个，新元素只有排在它前面时才会替换它，所以内存中最多保存 k 个元素。
+ * 并行时每个线程使用自己的堆，最后把各个堆合并
+ *
+ * @param <T> 数据类型
+ */
+final class TopK<T> {
+    private final int k;
+    private final Comparator<? super T> comparator;
+    private final PriorityQueue<T> heap;
+
+    private TopK(int k, Comparator<? super T> comparator) {
+        this.k = k;
+        this.comparator = comparator;
+        this.heap = new PriorityQueue<>(Math.max(1, Math.min(k, 1024)), comparator.reversed());
+    }
+
+    /**
+     * 创建收集前 k 个元素的收集器，收集结果按 comparator 排好序
+     *
+     * @param k          保留的元素个数
+     * @param comparator 比较器
+     * @param <T>        数据类型
+     * @return 收集器，可以用于并行流
+     */
+    static <T> Collector<T, ?, List<T>> collector(int k, Comparator<? super T> comparator) {
+        return Collector.of(() -> new TopK<T>(k, comparator), TopK::offer, TopK::merge, TopK::toSortedList);
+    }
+
+    private void offer(T element) {
+        if (heap.size() < k) {
+            heap.add(element);
+        } else if (k > 0 && comparator.compare(element, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(element);
+        }
+    }
+
+    private TopK<T> merge(TopK<T> other) {
+        other.heap.forEach(this::offer);
+        return this;
+    }
+
+    private List<T> toSortedList() {
+        List<T> result = new ArrayList<>(heap);
+        result.sort(comparator);
+        return result;
+    }
+}
@@ -0,0 +1,40 @@
+package lordeath.local.collection.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 字段的存储配置
+ * 用于控制对象的字段在数据库中的存储方式
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface LocalField {
+
+    /**
+     * 整行存储模式下，是否仍然把这个字段保存为独立的列
+     * 保存为独立列的字段可以在 {@code LocalMap.from(...)} 的 where、groupBy、select 中使用
+     *
+     * @return 是否保留为独立列
+     */
+    boolean keepColumn() default false;
+
+    /**
+     * 是否对这个字段使用字典编码，只支持 String 字段
+     * 适用于状态、地区、类别这类重复值很多的字段，数据库中只保存整数编码，
+     * 读取时返回字典中的同一个字符串实例。字典编码的字段总是保存为独立列
+     *
+     * @return 是否使用字典编码
+     */
+    boolean dictionary() default false;
+
+    /**
+     * 是否压缩这个字段，支持 String 字段和注册了 {@code TypeCodec} 的字段
+     * 超过压缩阈值的值会压缩后保存到二进制列中，适用于大段的 JSON、文本这类字段。压缩的字段总是保存为独立列
+     *
+     * @return 是否压缩
+     */
+    boolean compress() default false;
+}
@@ -0,0 +1,28 @@
+package lordeath.local.collection.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 二级索引的声明
+ * 用在类上时，{@link #value()} 按顺序列出组合索引的字段；用在字段上时，索引以这个字段开头，
+ * {@link #value()} 中可以再追加组合索引的其余字段。可以重复使用，声明多个索引。
+ * 索引中的字段总是保存为独立列。索引不会在建表时创建，而是在表中的数据第一次达到
+ * {@code lordeath.local.collection.db.index.build.threshold} 行，或者第一次执行下推到数据库的查询时一次性创建，
+ * 避免少量数据时每次写入都维护索引
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.FIELD})
+@Repeatable(LocalIndexes.class)
+public @interface LocalIndex {
+
+    /**
+     * 组合索引的字段名
+     *
+     * @return 字段名
+     */
+    String[] value() default {};
+}
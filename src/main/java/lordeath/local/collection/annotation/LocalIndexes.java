@@ -0,0 +1,21 @@
+package lordeath.local.collection.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * {@link LocalIndex} 的容器，重复声明索引时由编译器自动生成
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.FIELD})
+public @interface LocalIndexes {
+
+    /**
+     * 声明的索引
+     *
+     * @return 索引
+     */
+    LocalIndex[] value();
+}
@@ -1,6 +1,12 @@
 package lordeath.local.collection.db.bean;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lordeath.local.collection.db.util.FieldAccessor;
+import lordeath.local.collection.serialize.BinaryRowSerializer;
+import lordeath.local.collection.serialize.ColumnCompressor;
+import lordeath.local.collection.serialize.StringDictionary;
 import lordeath.local.collection.serialize.TypeCodec;
 
 import java.lang.reflect.Field;
@@ -18,6 +24,22 @@ public class LocalColumn {
     private final Field field;
     // 对非原生类型的序列化/反序列化支持
     private final TypeCodec typeCodec;
+    // 字段访问器，代替每次读写都走反射
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private final FieldAccessor accessor;
+    // 整行存储时，用于把对象的其余字段编码到这一列
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private BinaryRowSerializer<?> rowSerializer;
+    // 字典编码时，字符串和整数编码之间的字典
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private StringDictionary dictionary;
+    // 压缩存储时使用的压缩器
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private ColumnCompressor compressor;
 
     /**
      * 数据库列定义类
@@ -38,5 +60,6 @@ public class LocalColumn {
         this.dbType = dbType;
         this.field = field;
         this.typeCodec = typeCodec;
+        this.accessor = field == null ? null : FieldAccessor.of(field);
     }
 }
@@ -13,6 +13,8 @@ public class LocalColumnForMap {
     // 表达式，比如 avg(age) AS age
     private String expression;
     private boolean isKey = false;
+    // key 列是否建唯一索引，只有 put 创建的表需要，group by 等生成的表 key 可能重复
+    private boolean unique = false;
 
     /**
      * 数据库列映射定义类
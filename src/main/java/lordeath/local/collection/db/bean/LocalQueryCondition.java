@@ -0,0 +1,31 @@
+package lordeath.local.collection.db.bean;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 查询条件定义类
+ * 用于把 LocalList 上的过滤、排序和分页条件下推到数据库执行
+ */
+@Data
+public class LocalQueryCondition {
+    // 过滤条件，多个条件之间是 AND 的关系，条件中的 ? 按顺序绑定 params 中的参数
+    private final List<String> whereClauses = new ArrayList<>();
+    // 过滤条件中的参数
+    private final List<Object> params = new ArrayList<>();
+    // 排序，比如 score desc
+    private final List<String> orderByClauses = new ArrayList<>();
+    // 最多返回的行数，小于 0 表示不限制
+    private long limit = -1;
+    // 跳过的行数
+    private long offset = 0;
+
+    /**
+     * 查询条件定义类
+     * 用于把 LocalList 上的过滤、排序和分页条件下推到数据库执行
+     */
+    public LocalQueryCondition() {
+    }
+}
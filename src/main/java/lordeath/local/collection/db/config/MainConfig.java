@@ -38,6 +38,42 @@ public enum MainConfig {
      * 是否自动创建数据库索引
      */
     DB_CREATE_INDEX("lordeath.local.collection.db.create.index", "true"),
+    /**
+     * 段文件引擎单个段文件的大小，单位字节，默认64MB
+     */
+    DB_SEGMENT_SIZE("lordeath.local.collection.db.segment.size", (64 * 1024 * 1024) + ""),
+    /**
+     * 数据的存储布局，column 表示每个字段一列，row 表示整行编码成一个二进制列
+     */
+    DB_STORAGE_LAYOUT("lordeath.local.collection.db.storage.layout", "column"),
+    /**
+     * 整行存储时，是否压缩整行的二进制数据
+     */
+    DB_STORAGE_ROW_COMPRESS("lordeath.local.collection.db.storage.row.compress", "false"),
+    /**
+     * 压缩的阈值，单位字节，小于这个大小的值不压缩
+     */
+    DB_COMPRESS_THRESHOLD("lordeath.local.collection.db.compress.threshold", "512"),
+    /**
+     * 流式遍历时，JDBC 游标每次从数据库获取的行数
+     */
+    DB_FETCH_SIZE("lordeath.local.collection.db.fetch.size", "1000"),
+    /**
+     * 是否额外保存整行的哈希列并建立索引，用于加速 contains/indexOf 这类按值查找
+     */
+    DB_ROW_HASH("lordeath.local.collection.db.row.hash", "false"),
+    /**
+     * 表中的数据达到多少行时创建 {@code @LocalIndex} 声明的二级索引，执行下推到数据库的查询前也会创建
+     */
+    DB_INDEX_BUILD_THRESHOLD("lordeath.local.collection.db.index.build.threshold", "10000"),
+    /**
+     * 外部归并排序时，每个有序段在内存中排序的行数
+     */
+    SORT_RUN_SIZE("lordeath.local.collection.sort.run.size", "100000"),
+    /**
+     * LocalMap 在堆内缓存的 key 数量，修改过的值也攒到这个数量后按批写入数据库，0 表示不缓存
+     */
+    MAP_CACHE_SIZE("lordeath.local.collection.map.cache.size", "0"),
     ;
 
     private final String key;
@@ -0,0 +1,67 @@
+package lordeath.local.collection.db.config;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 段文件引擎配置类
+ */
+public final class SegmentConfig {
+    /**
+     * 工具类，不允许实例化
+     */
+    private SegmentConfig() {
+    }
+    /**
+     * 段文件目录配置键
+     */
+    public static final String CONST_SEGMENT_FILE_PATH = "lordeath.local.collection.segment.file.path";
+    /**
+     * 段文件默认目录
+     */
+    public static final String DEFAULT_SEGMENT_FILE_PATH = "./local_collection/segment";
+
+    private static File directory;
+
+    /**
+     * 获取段文件存放目录
+     * @return 段文件目录
+     */
+    public static File getDirectory() {
+        if (directory != null) {
+            return directory;
+        }
+        init();
+        return directory;
+    }
+
+    /**
+     * 初始化段文件目录
+     */
+    private static synchronized void init() {
+        if (directory != null) {
+            return;
+        }
+        String filePath = System.getProperty(CONST_SEGMENT_FILE_PATH);
+        if (StringUtils.isBlank(filePath)) {
+            // 判断是否存在 app 名称，原有的路径上，增加一级
+            String appName = MainConfig.DB_ENGINE_APP_NAME.getProperty();
+            filePath = new File(DEFAULT_SEGMENT_FILE_PATH, appName).getAbsolutePath();
+        }
+        File file = new File(filePath);
+        try {
+            if (MainConfig.DB_ENGINE_INIT_DELETE.getPropertyBoolean() && file.exists()) {
+                // 启动时删除原有的段文件
+                FileUtils.cleanDirectory(file);
+            }
+            FileUtils.forceMkdir(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        directory = file;
+    }
+
+}
@@ -75,6 +75,9 @@ public class SqliteConfig {
             if (file.exists()) {
                 file.delete();
             }
+            // WAL 模式下残留的日志文件也要一起删除，否则会被重放到新的数据文件中
+            FileUtils.deleteQuietly(new File(filePath + "-wal"));
+            FileUtils.deleteQuietly(new File(filePath + "-shm"));
         }
 
         String username = System.getProperty(CONST_SQLITE_USERNAME);
@@ -83,6 +86,8 @@ public class SqliteConfig {
         hikariDataSource.setJdbcUrl("jdbc:sqlite:" + filePath);
         hikariDataSource.setUsername(username);
         hikariDataSource.setPassword(password);
+        // 流式遍历会一直持有读游标，WAL 模式下读游标不会阻塞其他连接的写入
+        hikariDataSource.addDataSourceProperty("journal_mode", "WAL");
         dataSource = hikariDataSource;
         // File file = new File(filePath);
         // file.deleteOnExit();
@@ -37,6 +37,8 @@ public class DatabaseFactory {
             databaseOpt = new SqliteOpt<>(clazz);
         } else if ("h2".equalsIgnoreCase(dbEngine)) {
             databaseOpt = new H2Opt<>(clazz);
+        } else if ("segment".equalsIgnoreCase(dbEngine)) {
+            databaseOpt = new SegmentOpt<>(clazz);
         } else {
             throw new IllegalArgumentException("其他的数据库暂时不支持: " + dbEngine);
         }
@@ -56,7 +58,8 @@ public class DatabaseFactory {
         // 这里可以根据配置或者其他条件选择不同的数据库实现
         String dbEngine = MainConfig.DB_ENGINE.getProperty();
         IDatabaseOpt<T> databaseOpt;
-        if (dbEngine == null || "sqlite".equalsIgnoreCase(dbEngine)) {
+        if (dbEngine == null || "sqlite".equalsIgnoreCase(dbEngine) || "segment".equalsIgnoreCase(dbEngine)) {
+            // 段文件引擎只支持列表，map仍然使用sqlite
             databaseOpt = new SqliteOpt<>(clazz, tableName, columnsForMap);
         } else if ("h2".equalsIgnoreCase(dbEngine)) {
             databaseOpt = new H2Opt<>(clazz, tableName, columnsForMap);
@@ -0,0 +1,71 @@
+package lordeath.local.collection.db.opt.impl;
+
+import lordeath.local.collection.db.config.MainConfig;
+import lordeath.local.collection.db.util.DBUtil;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * 延迟创建 {@code @LocalIndex} 声明的二级索引。
+ * 写入少量数据时不维护索引，表中的数据第一次达到阈值，或者第一次执行下推到数据库的查询时，一次性创建全部索引，
+ * 之后的写入由数据库自己维护索引
+ */
+final class LazyIndexBuilder {
+
+    private final DataSource dataSource;
+    private final String tableName;
+    private final List<List<String>> indexes;
+    private final int threshold;
+    /**
+     * 写入的行数，只用于判断是否达到阈值，不需要精确
+     */
+    private long writtenRows;
+    private volatile boolean built;
+
+    LazyIndexBuilder(DataSource dataSource, String tableName, List<List<String>> indexes) {
+        this.dataSource = dataSource;
+        this.tableName = tableName;
+        this.indexes = indexes;
+        this.threshold = MainConfig.DB_INDEX_BUILD_THRESHOLD.getPropertyInt();
+        // 没有声明索引或者关闭了自动建索引时，视为已经创建
+        this.built = indexes.isEmpty() || !MainConfig.DB_CREATE_INDEX.getPropertyBoolean();
+    }
+
+    /**
+     * 写入数据后调用，数据达到阈值时创建索引
+     *
+     * @param rows 写入的行数
+     */
+    void afterWrite(int rows) {
+        if (built) {
+            return;
+        }
+        synchronized (this) {
+            writtenRows += rows;
+            if (writtenRows >= threshold) {
+                build();
+            }
+        }
+    }
+
+    /**
+     * 执行查询前调用，确保索引已经创建
+     */
+    void ensureBuilt() {
+        if (built) {
+            return;
+        }
+        synchronized (this) {
+            build();
+        }
+    }
+
+    private void build() {
+        if (built) {
+            return;
+        }
+        DBUtil.createIndexes(dataSource, tableName, indexes);
+        built = true;
+    }
+}
@@ -0,0 +1,279 @@
+package lordeath.local.collection.db.opt.impl;
+
+import lordeath.local.collection.db.util.DBUtil;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 列表的表的位置索引，把下标换算成主键，列表的顺序就是主键的顺序。
+ * 主键从 1 开始连续时第 i 行的主键就是 i + 1，不需要查询；删除过或者按位置插入过之后，
+ * 按主键范围把表分成若干块，记录每一块的起始主键和行数，和段文件的每块墓碑计数一样，前缀和在需要时才重新计算。
+ * 按下标读取时先找到所在的块，再从块的起始主键开始跳过块内的偏移量，代价和块的大小成正比，不再和下标成正比。
+ * 其他操作对象直接追加到表末尾的行（自增主键）都在最后一块里面，最后一块的行数可能偏少，不影响定位，
+ * 块内的偏移量过大时把这一块重新切分
+ */
+final class PkRankIndex {
+
+    /**
+     * 每一块的目标行数，块内的偏移量达到两倍时重新切分
+     */
+    private static final int BLOCK_SIZE = 1 << 12;
+
+    private final DataSource dataSource;
+    private final String tableName;
+    private final String pkColumnName;
+    /**
+     * 主键是否从 1 开始连续
+     */
+    private boolean dense = true;
+    /**
+     * 每一块是 {起始主键, 行数}，第一块从 Long.MIN_VALUE 开始，每一块覆盖从自己的起始主键到下一块的起始主键之前的主键
+     */
+    private final List<long[]> blocks = new ArrayList<>();
+    /**
+     * 分块需要重新扫描主键才能建立，比如整张表重新编号或者批量删除之后
+     */
+    private boolean stale;
+    /**
+     * 每一块之前的行数，块的行数变化后延迟重新计算
+     */
+    private int[] prefix = new int[0];
+    private boolean prefixDirty;
+
+    PkRankIndex(DataSource dataSource, String tableName, String pkColumnName) {
+        this.dataSource = dataSource;
+        this.tableName = tableName;
+        this.pkColumnName = pkColumnName;
+    }
+
+    /**
+     * 主键是否从 1 开始连续
+     */
+    synchronized boolean isDense() {
+        return dense;
+    }
+
+    /**
+     * 获取指定下标的行的主键
+     *
+     * @param index 下标
+     * @return 主键，主键不连续并且没有这一行时返回 -1
+     */
+    synchronized long pkAt(int index) {
+        if (dense) {
+            return index + 1L;
+        }
+        ensureBlocks();
+        int b = blockOfIndex(index);
+        int offset = index - prefix[b];
+        if (offset >= 2 * BLOCK_SIZE) {
+            split(b);
+            b = blockOfIndex(index);
+            offset = index - prefix[b];
+        }
+        return DBUtil.pk(blocks.get(b)[0], offset, tableName, pkColumnName, dataSource);
+    }
+
+    /**
+     * 获取指定主键的行的下标，只统计这一行所在的块中更小的主键
+     *
+     * @param pk 主键
+     * @return 下标
+     */
+    synchronized int rankOf(long pk) {
+        if (dense) {
+            return (int) (pk - 1);
+        }
+        ensureBlocks();
+        int b = blockOfPk(pk);
+        return prefix[b] + DBUtil.countPks(blocks.get(b)[0], pk, tableName, pkColumnName, dataSource);
+    }
+
+    /**
+     * 在表末尾追加数据之后调用
+     *
+     * @param rows 追加的行数
+     */
+    synchronized void afterAppend(int rows) {
+        if (dense || stale) {
+            return;
+        }
+        blocks.get(blocks.size() - 1)[1] += rows;
+        prefixDirty = true;
+    }
+
+    /**
+     * 按主键删除一行之后调用，自增主键不会复用，删除任何一行之后主键都不再连续
+     *
+     * @param pk 删除的行的主键
+     */
+    synchronized void afterRemove(long pk) {
+        if (dense) {
+            toBlocks();
+        }
+        if (stale) {
+            return;
+        }
+        int b = blockOfPk(pk);
+        long[] block = blocks.get(b);
+        block[1]--;
+        if (block[1] <= 0 && b > 0) {
+            // 空的块并入前一块
+            blocks.remove(b);
+        }
+        prefixDirty = true;
+    }
+
+    /**
+     * 按位置插入之后调用，重新统计主键发生变化的范围所覆盖的块
+     *
+     * @param changed 主键发生变化的范围 (lo, hi)，整张表重新编号过时是 null
+     */
+    synchronized void afterInsert(long[] changed) {
+        dense = false;
+        if (changed == null) {
+            stale = true;
+            return;
+        }
+        if (stale) {
+            return;
+        }
+        int last = blockOfPk(changed[1] - 1);
+        for (int b = blockOfPk(changed[0] + 1); b <= last; b++) {
+            long[] block = blocks.get(b);
+            block[1] = DBUtil.countPks(block[0], upperBound(b), tableName, pkColumnName, dataSource);
+        }
+        prefixDirty = true;
+    }
+
+    /**
+     * 整张表按顺序重写之后调用，重写后主键从 1 开始连续
+     */
+    synchronized void afterRewrite() {
+        dense = true;
+        stale = false;
+        blocks.clear();
+    }
+
+    /**
+     * 清空表之后调用，自增主键不一定从 1 重新开始，之后追加的行都在唯一的一块里面
+     */
+    synchronized void afterClear() {
+        dense = false;
+        stale = false;
+        blocks.clear();
+        blocks.add(new long[]{Long.MIN_VALUE, 0});
+        prefixDirty = true;
+    }
+
+    /**
+     * 批量删除之后调用，下次按下标读取时重新扫描主键建立分块
+     */
+    synchronized void invalidate() {
+        dense = false;
+        stale = true;
+    }
+
+    /**
+     * 主键连续时不需要查询每一行的主键，按最大的主键直接算出分块
+     */
+    private void toBlocks() {
+        long[] range = DBUtil.pkRange(tableName, pkColumnName, dataSource);
+        long size = range == null ? 0 : range[1];
+        dense = false;
+        stale = false;
+        blocks.clear();
+        blocks.add(new long[]{Long.MIN_VALUE, Math.min(size, BLOCK_SIZE)});
+        for (long low = BLOCK_SIZE + 1; low <= size; low += BLOCK_SIZE) {
+            blocks.add(new long[]{low, Math.min(size - low + 1, BLOCK_SIZE)});
+        }
+        prefixDirty = true;
+    }
+
+    private void ensureBlocks() {
+        if (stale) {
+            blocks.clear();
+            blocks.add(new long[]{Long.MIN_VALUE, 0});
+            scan(0);
+            stale = false;
+        }
+        if (prefixDirty) {
+            if (prefix.length < blocks.size()) {
+                prefix = new int[blocks.size() * 2];
+            }
+            int sum = 0;
+            for (int b = 0; b < blocks.size(); b++) {
+                prefix[b] = sum;
+                sum += (int) blocks.get(b)[1];
+            }
+            prefixDirty = false;
+        }
+    }
+
+    /**
+     * 重新扫描一块的主键，按 {@link #BLOCK_SIZE} 行切分成多块
+     */
+    private void split(int b) {
+        scan(b);
+        ensureBlocks();
+    }
+
+    /**
+     * 扫描第 b 块覆盖的主键，每 {@link #BLOCK_SIZE} 行作为一块替换原来的块
+     */
+    private void scan(int b) {
+        List<long[]> scanned = new ArrayList<>();
+        scanned.add(new long[]{blocks.get(b)[0], 0});
+        DBUtil.forEachPk(blocks.get(b)[0], upperBound(b), tableName, pkColumnName, dataSource, pk -> {
+            long[] block = scanned.get(scanned.size() - 1);
+            if (block[1] == BLOCK_SIZE) {
+                block = new long[]{pk, 0};
+                scanned.add(block);
+            }
+            block[1]++;
+        });
+        blocks.remove(b);
+        blocks.addAll(b, scanned);
+        prefixDirty = true;
+    }
+
+    private long upperBound(int b) {
+        return b + 1 < blocks.size() ? blocks.get(b + 1)[0] : Long.MAX_VALUE;
+    }
+
+    /**
+     * 下标所在的块，也就是之前的行数不大于下标的最后一块，超过已知行数的下标都在最后一块
+     */
+    private int blockOfIndex(int index) {
+        int lo = 0;
+        int hi = blocks.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (prefix[mid] <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 主键所在的块，也就是起始主键不大于它的最后一块
+     */
+    private int blockOfPk(long pk) {
+        int lo = 0;
+        int hi = blocks.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (blocks.get(mid)[0] <= pk) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+}
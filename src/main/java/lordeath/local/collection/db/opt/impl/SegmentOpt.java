@@ -0,0 +1,757 @@
+package lordeath.local.collection.db.opt.impl;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import lordeath.local.collection.db.bean.LocalColumn;
+import lordeath.local.collection.db.bean.LocalColumnForMap;
+import lordeath.local.collection.db.bean.LocalQueryCondition;
+import lordeath.local.collection.db.config.MainConfig;
+import lordeath.local.collection.db.config.SegmentConfig;
+import lordeath.local.collection.db.opt.inter.IDatabaseOpt;
+import lordeath.local.collection.db.util.ColumnNameUtil;
+import lordeath.local.collection.db.util.DBUtil;
+import lordeath.local.collection.serialize.BinaryRowSerializer;
+import org.apache.commons.io.FileUtils;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 段文件数据库操作实现类
+ * 行数据按二进制编码顺序追加到内存映射的段文件里，不经过SQL解析和JDBC。
+ * 偏移量索引同样放在映射文件里，按物理行号O(1)定位；删除只在墓碑位图里做标记。
+ * 只适合先追加、再扫描的列表场景，不支持Map相关的操作。注意，这个类是线程不安全的
+ *
+ * @param <T> 数据类型
+ */
+@Slf4j
+class SegmentOpt<T> implements IDatabaseOpt<T> {
+
+    /**
+     * 每个索引分片的行数
+     */
+    private static final int INDEX_CHUNK_ROWS = 1 << 17;
+    /**
+     * 墓碑计数的分块大小（2的幂）
+     */
+    private static final int BLOCK_SHIFT = 12;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    /**
+     * 操作的表名，同时也是段文件的文件名前缀
+     */
+    @Getter
+    private final String tableName;
+    /**
+     * 列定义
+     */
+    @Getter
+    private final List<LocalColumn> columns;
+    /**
+     * 元素类型
+     */
+    private final Class<T> clazz;
+    /**
+     * 行序列化器
+     */
+    private final BinaryRowSerializer<T> serializer;
+    /**
+     * 段文件大小
+     */
+    private final int segmentSize;
+    /**
+     * 段文件存放目录
+     */
+    private final File directory;
+
+    /**
+     * 已经映射的段文件
+     */
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    /**
+     * 已经映射的索引分片，每一项是物理行号对应的地址（高32位段号，低32位段内偏移）
+     */
+    private final List<MappedByteBuffer> indexChunks = new ArrayList<>();
+    /**
+     * 当前写入段的写入位置
+     */
+    private int writePosition;
+    /**
+     * 已经写入的物理行数（包含已删除的行）
+     */
+    private int rowCount;
+    /**
+     * 存活的行数
+     */
+    private int liveCount;
+    /**
+     * 墓碑位图，按物理行号标记被删除的行
+     */
+    private final BitSet tombstones = new BitSet();
+    /**
+     * 每个分块里被删除的行数
+     */
+    private int[] deadPerBlock = new int[16];
+    /**
+     * 分块存活行数的前缀和，删除之后懒计算
+     */
+    private int[] livePrefix = new int[0];
+    private boolean livePrefixDirty = true;
+
+    /**
+     * 使用指定的元素类型构造段文件操作对象
+     *
+     * @param clazz 元素类型
+     */
+    SegmentOpt(Class<T> clazz) {
+        this.tableName = "seg_" + UUID.randomUUID().toString().replace("-", "");
+        this.columns = Collections.unmodifiableList(ColumnNameUtil.getFields(clazz));
+        this.clazz = clazz;
+        this.serializer = new BinaryRowSerializer<>(clazz, columns);
+        this.segmentSize = MainConfig.DB_SEGMENT_SIZE.getPropertyInt();
+        this.directory = SegmentConfig.getDirectory();
+        log.debug("段文件初始化完毕: {} {}", directory, tableName);
+    }
+
+    /**
+     * 添加元素到段文件
+     *
+     * @param obj 元素
+     * @return 添加成功与否
+     */
+    @Override
+    public boolean add(T obj) {
+        append(obj);
+        return true;
+    }
+
+    /**
+     * 批量添加元素到段文件
+     *
+     * @param c 元素集合
+     * @return 添加成功与否
+     */
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        for (T t : c) {
+            append(t);
+        }
+        return true;
+    }
+
+    /**
+     * 移除指定索引的元素，只在墓碑位图里做标记，不移动数据
+     *
+     * @param index 索引
+     * @return 移除的元素
+     */
+    @Override
+    public T remove(int index) {
+        if (index < 0 || index >= liveCount) {
+            return null;
+        }
+        int row = physicalRow(index);
+        T obj = read(row);
+        markDeleted(row);
+        livePrefixDirty = true;
+        liveCount--;
+        return obj;
+    }
+
+    /**
+     * 删除所有满足条件的元素，按物理顺序扫描一次，只在墓碑位图中标记，最后统一更新计数
+     *
+     * @param filter 删除条件
+     * @return 删除的元素个数
+     */
+    @Override
+    public int removeIf(Predicate<? super T> filter) {
+        int removed = 0;
+        for (int row = tombstones.nextClearBit(0); row < rowCount; row = tombstones.nextClearBit(row + 1)) {
+            if (filter.test(read(row))) {
+                markDeleted(row);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            livePrefixDirty = true;
+            liveCount -= removed;
+        }
+        return removed;
+    }
+
+    private void markDeleted(int row) {
+        tombstones.set(row);
+        int block = row >>> BLOCK_SHIFT;
+        if (block >= deadPerBlock.length) {
+            deadPerBlock = Arrays.copyOf(deadPerBlock, Math.max(block + 1, deadPerBlock.length << 1));
+        }
+        deadPerBlock[block]++;
+    }
+
+    /**
+     * 清空段文件
+     */
+    @Override
+    public void clear() {
+        release();
+        rowCount = 0;
+        liveCount = 0;
+        writePosition = 0;
+        tombstones.clear();
+        Arrays.fill(deadPerBlock, 0);
+        livePrefixDirty = true;
+    }
+
+    /**
+     * 关闭并删除段文件
+     */
+    @Override
+    public void close() {
+        release();
+    }
+
+    /**
+     * 获取存活的行数
+     *
+     * @return 大小
+     */
+    @Override
+    public int size() {
+        return liveCount;
+    }
+
+    /**
+     * 获取指定索引的元素，没有删除过的时候索引就是物理行号
+     *
+     * @param index      索引
+     * @param removeFlag 段文件自己维护墓碑位图，这个参数不使用
+     * @return 元素
+     */
+    @Override
+    public T get(int index, boolean removeFlag) {
+        if (index < 0 || index >= liveCount) {
+            return null;
+        }
+        return read(physicalRow(index));
+    }
+
+    /**
+     * 设置指定索引的元素，新数据追加到段文件末尾，然后把索引指向新地址
+     *
+     * @param index   索引
+     * @param element 元素
+     * @return 新元素
+     */
+    @Override
+    public T set(int index, T element) {
+        if (index < 0 || index >= liveCount) {
+            throw new RuntimeException("没有找到对应的数据");
+        }
+        int row = physicalRow(index);
+        writeIndex(row, write(serializer.encode(element)));
+        return element;
+    }
+
+    /**
+     * 获取指定索引的主键值，也就是物理行号+1
+     *
+     * @param index 索引
+     * @return 主键值
+     */
+    @Override
+    public long pk(int index) {
+        if (index < 0 || index >= liveCount) {
+            throw new RuntimeException("没有找到对应的数据");
+        }
+        return physicalRow(index) + 1L;
+    }
+
+    /**
+     * 批量查询元素，按物理顺序扫描映射内存，直接在映射的缓冲区上解码，不复制行数据
+     *
+     * @param fromIndex 开始索引
+     * @param toIndex   结束索引
+     * @return 元素集合
+     */
+    @Override
+    public List<T> batchQuery(int fromIndex, int toIndex) {
+        int to = Math.min(toIndex, liveCount);
+        if (fromIndex >= to) {
+            return new ArrayList<>();
+        }
+        List<T> result = new ArrayList<>(to - fromIndex);
+        ByteBuffer view = null;
+        int viewSegment = -1;
+        int row = physicalRow(fromIndex);
+        for (int i = fromIndex; i < to; i++) {
+            row = tombstones.nextClearBit(row);
+            long address = readIndex(row);
+            int segment = (int) (address >>> 32);
+            if (segment != viewSegment) {
+                view = segments.get(segment).duplicate();
+                viewSegment = segment;
+            }
+            result.add(decodeAt(view, (int) address));
+            row++;
+        }
+        return result;
+    }
+
+    /**
+     * 批量查询元素，段文件中每一行都是整体编码的，没有办法只解码部分列，所以和完整查询一致
+     *
+     * @param fromIndex 开始索引
+     * @param toIndex   结束索引
+     * @param columns   要读取的列
+     * @return 元素集合
+     */
+    @Override
+    public List<T> batchQuery(int fromIndex, int toIndex, List<LocalColumn> columns) {
+        return batchQuery(fromIndex, toIndex);
+    }
+
+    /**
+     * 批量查询元素，直接在映射的缓冲区上解码到复用的对象中
+     *
+     * @param fromIndex 开始索引
+     * @param toIndex   结束索引
+     * @param reuse     复用的对象
+     * @param action    消费者
+     * @return 读取的行数
+     */
+    @Override
+    public int batchQueryInto(int fromIndex, int toIndex, T reuse, Consumer<? super T> action) {
+        int to = Math.min(toIndex, liveCount);
+        ByteBuffer view = null;
+        int viewSegment = -1;
+        int row = fromIndex < to ? physicalRow(fromIndex) : 0;
+        for (int i = fromIndex; i < to; i++) {
+            row = tombstones.nextClearBit(row);
+            long address = readIndex(row);
+            int segment = (int) (address >>> 32);
+            if (segment != viewSegment) {
+                view = segments.get(segment).duplicate();
+                viewSegment = segment;
+            }
+            action.accept(decodeAt(view, (int) address, reuse));
+            row++;
+        }
+        return Math.max(to - fromIndex, 0);
+    }
+
+    /**
+     * 按物理顺序流式扫描映射内存，不需要分页
+     *
+     * @return 元素流
+     */
+    @Override
+    public Stream<T> stream() {
+        return scan(0, rowCount, liveCount);
+    }
+
+    /**
+     * 按主键范围流式读取，主键就是物理行号+1，直接从对应的物理行开始扫描
+     *
+     * @param fromPk 起始主键(不包含)
+     * @param toPk   结束主键(包含)
+     * @return 元素流
+     */
+    @Override
+    public Stream<T> streamByPk(long fromPk, long toPk) {
+        int fromRow = (int) Math.max(0, Math.min(fromPk, rowCount));
+        int toRow = (int) Math.max(fromRow, Math.min(toPk, rowCount));
+        return scan(fromRow, toRow, -1);
+    }
+
+    /**
+     * 获取主键的最小值和最大值，也就是第一个和最后一个存活的物理行号+1
+     *
+     * @return 最小和最大的主键，没有数据时返回 null
+     */
+    @Override
+    public long[] pkRange() {
+        if (liveCount == 0) {
+            return null;
+        }
+        return new long[]{tombstones.nextClearBit(0) + 1L, tombstones.previousClearBit(rowCount - 1) + 1L};
+    }
+
+    /**
+     * 扫描 [fromRow, toRow) 之间存活的物理行
+     *
+     * @param count 存活的行数，不知道时传 -1
+     */
+    private Stream<T> scan(int fromRow, int toRow, int count) {
+        int characteristics = count < 0 ? Spliterator.ORDERED : Spliterator.ORDERED | Spliterator.SIZED;
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(count < 0 ? Long.MAX_VALUE : count, characteristics) {
+            private int row = fromRow;
+            private ByteBuffer view;
+            private int viewSegment = -1;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                row = tombstones.nextClearBit(row);
+                if (row >= toRow) {
+                    return false;
+                }
+                long address = readIndex(row);
+                int segment = (int) (address >>> 32);
+                if (segment != viewSegment) {
+                    view = segments.get(segment).duplicate();
+                    viewSegment = segment;
+                }
+                T t = decodeAt(view, (int) address);
+                row++;
+                action.accept(t);
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    /**
+     * 按值查找元素的下标，段文件没有索引，顺序扫描解码后比较。
+     * 和数据库引擎一样比较各列编码后的值，不使用元素的 equals
+     *
+     * @param o    要查找的元素
+     * @param last 是否查找最后一个
+     * @return 下标，找不到时返回 -1
+     */
+    @Override
+    public int indexOf(Object o, boolean last) {
+        List<Object> key = DBUtil.equalityKey(columns, clazz, o);
+        if (key == null) {
+            return -1;
+        }
+        int found = -1;
+        try (Stream<T> all = stream()) {
+            Iterator<T> iterator = all.iterator();
+            for (int i = 0; iterator.hasNext(); i++) {
+                if (key.equals(DBUtil.equalityKey(columns, clazz, iterator.next()))) {
+                    found = i;
+                    if (!last) {
+                        break;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 判断是否包含全部的元素，顺序扫描一次，和 {@link #indexOf(Object, boolean, boolean)} 一样比较各列编码后的值
+     *
+     * @param c 元素集合
+     * @return 是否全部包含
+     */
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        Set<List<Object>> remaining = new HashSet<>();
+        for (Object o : c) {
+            List<Object> key = DBUtil.equalityKey(columns, clazz, o);
+            if (key == null) {
+                return false;
+            }
+            remaining.add(key);
+        }
+        if (remaining.isEmpty()) {
+            return true;
+        }
+        try (Stream<T> all = stream()) {
+            return all.anyMatch(t -> remaining.remove(DBUtil.equalityKey(columns, clazz, t)) && remaining.isEmpty());
+        }
+    }
+
+    @Override
+    public Stream<T> query(LocalQueryCondition condition) {
+        throw new UnsupportedOperationException("段文件引擎不支持 query() 条件查询");
+    }
+
+    @Override
+    public int insertQuery(LocalQueryCondition condition, String targetTableName, List<LocalColumn> targetColumns) {
+        throw new UnsupportedOperationException("段文件引擎不支持 query() 条件查询");
+    }
+
+    @Override
+    public int insertDistinct(List<String> keyColumns, boolean keepLast, String targetTableName,
+                              List<LocalColumn> targetColumns) {
+        throw new UnsupportedOperationException("段文件引擎不支持 distinct/distinctBy 去重");
+    }
+
+    @Override
+    public int sortBy(List<String> orderByClauses) {
+        throw new UnsupportedOperationException("段文件引擎不支持 sortBy，按列排序请使用 sort(Comparator)");
+    }
+
+    /**
+     * 清空段文件后按顺序重新追加，替换后主键从 1 开始连续。
+     * 外部归并排序在调用前已经把数据全部读到内存或者有序段中，所以可以先清空；段文件没有事务，写入过程中出错时数据不完整
+     *
+     * @param rows 新的数据
+     * @return 写入的行数
+     */
+    @Override
+    public int replaceAll(Iterator<? extends T> rows) {
+        clear();
+        int written = 0;
+        while (rows.hasNext()) {
+            append(rows.next());
+            written++;
+        }
+        return written;
+    }
+
+    @Override
+    public int insertAt(int index, Collection<? extends T> rows) {
+        throw new UnsupportedOperationException("段文件引擎不支持 add(index)/addAll(index) 按位置插入");
+    }
+
+    @Override
+    public void ensureIndexes() {
+        // 段文件引擎没有二级索引
+    }
+
+    @Override
+    public List<Object[]> aggregate(List<String> selectExpressions, List<LocalColumn> resultColumns,
+                                    List<String> groupByColumns, LocalQueryCondition condition) {
+        throw new UnsupportedOperationException("段文件引擎不支持 aggregate() 聚合查询");
+    }
+
+    @Override
+    public boolean createGroupedTable(String newTableName, List<String> groupByColumns, String whereClause, String keyColumn, List<LocalColumn> resultColumns) {
+        throw new UnsupportedOperationException("段文件引擎不支持 LocalMap.from(...) 分组");
+    }
+
+    @Override
+    public boolean insertGroupedData(String sourceTableName, String targetTableName, List<String> groupByColumns, String whereClause, List<LocalColumnForMap> columnForMapList) {
+        throw new UnsupportedOperationException("段文件引擎不支持 LocalMap.from(...) 分组");
+    }
+
+    @Override
+    public int insertJoinedData(String joinClause, List<LocalColumnForMap> columnForMapList, LocalQueryCondition condition) {
+        throw new UnsupportedOperationException("段文件引擎不支持 LocalJoin 连接查询");
+    }
+
+    @Override
+    public T getByKey(String keyColumn, Object keyValue) {
+        throw new UnsupportedOperationException("段文件引擎不支持按key操作");
+    }
+
+    @Override
+    public T putByKey(String keyColumn, String key, T value, AtomicInteger removedRows) {
+        throw new UnsupportedOperationException("段文件引擎不支持按key操作");
+    }
+
+    @Override
+    public Map<String, T> getAllByKeys(String keyColumn, Collection<String> keys, boolean parallel) {
+        throw new UnsupportedOperationException("段文件引擎不支持按key操作");
+    }
+
+    @Override
+    public int putAllByKey(String keyColumn, Map<String, ? extends T> entries, boolean overwrite, Map<String, T> existing) {
+        throw new UnsupportedOperationException("段文件引擎不支持按key操作");
+    }
+
+    @Override
+    public boolean removeByKey(String keyColumn, Object keyValue) {
+        throw new UnsupportedOperationException("段文件引擎不支持按key操作");
+    }
+
+    @Override
+    public List<String> getAllKeys(String keyColumn) {
+        throw new UnsupportedOperationException("段文件引擎不支持按key操作");
+    }
+
+    /**
+     * 段文件没有主键列
+     *
+     * @return null
+     */
+    @Override
+    public String getPkColumnName() {
+        return null;
+    }
+
+    /**
+     * 段文件引擎不使用数据源
+     *
+     * @return null
+     */
+    @Override
+    public DataSource getDataSource() {
+        return null;
+    }
+
+    @Override
+    public String getDatabaseEngine() {
+        return "segment";
+    }
+
+    private void append(T obj) {
+        long address = write(serializer.encode(obj));
+        writeIndex(rowCount, address);
+        rowCount++;
+        liveCount++;
+        livePrefixDirty = true;
+    }
+
+    /**
+     * 把一行数据写入当前段，空间不够时新建一个段
+     *
+     * @param bytes 编码后的行数据
+     * @return 行地址
+     */
+    private long write(byte[] bytes) {
+        int required = Integer.BYTES + bytes.length;
+        if (segments.isEmpty() || writePosition + required > segments.get(segments.size() - 1).capacity()) {
+            segments.add(map(segmentFile(segments.size()), 0, Math.max(segmentSize, required)));
+            writePosition = 0;
+        }
+        int segment = segments.size() - 1;
+        MappedByteBuffer buffer = segments.get(segment);
+        int offset = writePosition;
+        buffer.putInt(offset, bytes.length);
+        buffer.position(offset + Integer.BYTES);
+        buffer.put(bytes);
+        writePosition = offset + required;
+        return ((long) segment << 32) | offset;
+    }
+
+    private T read(int row) {
+        long address = readIndex(row);
+        return decodeAt(segments.get((int) (address >>> 32)).duplicate(), (int) address);
+    }
+
+    private T decodeAt(ByteBuffer view, int offset) {
+        return decodeAt(view, offset, null);
+    }
+
+    /**
+     * 解码指定位置的一行，复用的对象不为空时写入到复用的对象中
+     */
+    private T decodeAt(ByteBuffer view, int offset, T reuse) {
+        int length = view.getInt(offset);
+        view.limit(offset + Integer.BYTES + length);
+        view.position(offset + Integer.BYTES);
+        T t;
+        // 序列化器内部复用缓冲区，按批并行读取时需要串行解码
+        synchronized (serializer) {
+            t = reuse == null ? serializer.decode(view) : serializer.decodeInto(view, reuse);
+        }
+        view.limit(view.capacity());
+        return t;
+    }
+
+    private void writeIndex(int row, long address) {
+        int chunk = row / INDEX_CHUNK_ROWS;
+        while (indexChunks.size() <= chunk) {
+            long chunkBytes = (long) INDEX_CHUNK_ROWS * Long.BYTES;
+            indexChunks.add(map(indexFile(), indexChunks.size() * chunkBytes, chunkBytes));
+        }
+        indexChunks.get(chunk).putLong((row % INDEX_CHUNK_ROWS) * Long.BYTES, address);
+    }
+
+    private long readIndex(int row) {
+        return indexChunks.get(row / INDEX_CHUNK_ROWS).getLong((row % INDEX_CHUNK_ROWS) * Long.BYTES);
+    }
+
+    /**
+     * 逻辑索引转换成物理行号。没有删除时直接返回，删除过则先用分块前缀和定位分块，再在块内跳过墓碑
+     *
+     * @param index 逻辑索引
+     * @return 物理行号
+     */
+    private int physicalRow(int index) {
+        if (liveCount == rowCount) {
+            return index;
+        }
+        if (livePrefixDirty) {
+            int blocks = (rowCount + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+            // 先在局部变量中算好再发布，按批并行读取时其他线程不会看到没有填满的数组
+            int[] prefix = new int[blocks + 1];
+            for (int b = 0; b < blocks; b++) {
+                int blockRows = Math.min(BLOCK_SIZE, rowCount - (b << BLOCK_SHIFT));
+                int dead = b < deadPerBlock.length ? deadPerBlock[b] : 0;
+                prefix[b + 1] = prefix[b] + blockRows - dead;
+            }
+            livePrefix = prefix;
+            livePrefixDirty = false;
+        }
+        // 找到最后一个前缀和小于等于index的分块
+        int low = 0;
+        int high = livePrefix.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (livePrefix[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int row = tombstones.nextClearBit(low << BLOCK_SHIFT);
+        for (int skip = index - livePrefix[low]; skip > 0; skip--) {
+            row = tombstones.nextClearBit(row + 1);
+        }
+        return row;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, tableName + "." + segment + ".seg");
+    }
+
+    private File indexFile() {
+        return new File(directory, tableName + ".idx");
+    }
+
+    private static MappedByteBuffer map(File file, long position, long size) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        } catch (IOException e) {
+            throw new RuntimeException("映射段文件失败: " + file, e);
+        }
+    }
+
+    /**
+     * 释放映射并删除段文件。映射内存要等GC回收，删除失败的文件在退出时再删除
+     */
+    private void release() {
+        int segmentCount = segments.size();
+        segments.clear();
+        indexChunks.clear();
+        for (int i = 0; i < segmentCount; i++) {
+            deleteQuietly(segmentFile(i));
+        }
+        deleteQuietly(indexFile());
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !FileUtils.deleteQuietly(file)) {
+            file.deleteOnExit();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package lordeath.local.collection.db.opt.impl;
 
 import lordeath.local.collection.db.bean.LocalColumn;
 import lordeath.local.collection.db.bean.LocalColumnForMap;
+import lordeath.local.collection.db.bean.LocalQueryCondition;
 import lordeath.local.collection.db.config.SqliteConfig;
 import lordeath.local.collection.db.config.MainConfig;
 import lordeath.local.collection.db.opt.inter.IDatabaseOpt;
@@ -12,12 +13,18 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * SQLite数据库操作实现类
@@ -42,16 +49,30 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
     /**
      * 主键列名
      */
+    @Getter
     private final String pkColumnName;
     /**
      * 列定义
      */
+    @Getter
     private final List<LocalColumn> columns;
     /**
      * 
 素类型
      */
     private final Class<T> clazz;
+    /**
+     * 延迟创建的二级索引
+     */
+    private final LazyIndexBuilder indexBuilder;
+    /**
+     * 按下标定位主键的位置索引，Map 内部的表没有主键，是 null
+     */
+    private final PkRankIndex rankIndex;
+    /**
+     * key 列上是否有唯一索引，有的时候按 key 写入使用 upsert
+     */
+    private final boolean uniqueKey;
 
     /**
      * 使用指定的
@@ -65,8 +86,9 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
         dataSource = SqliteConfig.getDataSource();
         tableName = "tmp_" + UUID.randomUUID().toString().replace("-", "");
         pkColumnName = "id" + UUID.randomUUID().toString().replace("-", "");
+        uniqueKey = false;
         log.debug("开始初始化数据源（用class）: {} {}", dataSource, tableName);
-        columns = Collections.unmodifiableList(ColumnNameUtil.getFields(clazz));
+        columns = Collections.unmodifiableList(ColumnNameUtil.getStorageColumns(clazz, getDatabaseEngine()));
         // 创建表
         // 1. 获取到表名
         // 2. 获取到列名和类型
@@ -80,6 +102,10 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
         log.debug("创建表的sql（用class）: {}", sql);
         // 执行sql
         DBUtil.executeSql(dataSource, sql.toString());
+        DBUtil.createDictionaryTables(dataSource, columns);
+        DBUtil.createRowHashIndex(dataSource, tableName, columns);
+        indexBuilder = new LazyIndexBuilder(dataSource, tableName, ColumnNameUtil.getIndexes(clazz));
+        rankIndex = new PkRankIndex(dataSource, tableName, pkColumnName);
         log.debug("数据源初始化完毕（用class）: {} {}", dataSource, tableName);
     }
 
@@ -112,13 +138,18 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
 
         // 使用 columnsForMap的isKey判断是否是
         String pks = columnsForMap.stream().filter(LocalColumnForMap::isKey).map(m -> m.getSinkColumn().getColumnName()).collect(Collectors.joining(","));
-        if (MainConfig.DB_CREATE_INDEX.getPropertyBoolean()) {
-            sql = new StringBuilder("create index idx_").append(StringUtils.replace(pks, ",", "_")).
+        // put 创建的表 key 列的唯一索引是 upsert 的前提，不受是否自动创建索引的配置影响；
+        // group by 等生成的表 key 可能重复，仍然按配置创建普通索引
+        uniqueKey = columnsForMap.stream().anyMatch(m -> m.isKey() && m.isUnique());
+        if (uniqueKey || MainConfig.DB_CREATE_INDEX.getPropertyBoolean()) {
+            sql = new StringBuilder(uniqueKey ? "create unique index idx_" : "create index idx_").append(StringUtils.replace(pks, ",", "_")).
                     append(" ON ").append(tableName).append("(").append(pks).append(")");
             log.debug("创建Map表索引: {} {}", sql);
             DBUtil.executeSql(dataSource, sql.toString());
-        }
+        }
         pkColumnName = null;
+        indexBuilder = new LazyIndexBuilder(dataSource, tableName, Collections.emptyList());
+        rankIndex = null;
         log.debug("数据源初始化完毕: {} {}", dataSource, tableName);
     }
 
@@ -132,7 +163,12 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
      */
     @Override
     public boolean add(T obj) {
-        return DBUtil.add(obj, tableName, columns, dataSource);
+        boolean added = DBUtil.add(obj, tableName, columns, dataSource);
+        indexBuilder.afterWrite(1);
+        if (rankIndex != null) {
+            rankIndex.afterAppend(1);
+        }
+        return added;
     }
 
     /**
@@ -145,7 +181,12 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
      */
     @Override
     public boolean addAll(Collection<? extends T> c) {
-        return DBUtil.addAll(c, tableName, columns, dataSource);
+        boolean added = DBUtil.addAll(c, tableName, columns, dataSource);
+        indexBuilder.afterWrite(c.size());
+        if (rankIndex != null) {
+            rankIndex.afterAppend(c.size());
+        }
+        return added;
     }
 
     /**
@@ -158,7 +199,12 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
      */
     @Override
     public T remove(int index) {
-        return DBUtil.remove(index, tableName, pkColumnName, columns, dataSource, clazz);
+        long pk = rankIndex.pkAt(index);
+        T removed = pk < 0 ? null : DBUtil.remove(pk, tableName, pkColumnName, columns, dataSource, clazz);
+        if (removed != null) {
+            rankIndex.afterRemove(pk);
+        }
+        return removed;
     }
 
     /**
@@ -171,6 +217,9 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
         StringBuilder sql = new StringBuilder("delete from ").append(tableName).append(";");
         log.debug("清空表的sql: {}", sql);
         DBUtil.executeSql(dataSource, sql.toString());
+        if (rankIndex != null) {
+            rankIndex.afterClear();
+        }
     }
 
     /**
@@ -179,6 +228,7 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
      */
     @Override
     public void close() {
+        DBUtil.dropDictionaryTables(dataSource, columns);
         DBUtil.drop(tableName, dataSource);
     }
 
@@ -197,13 +247,17 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
 素
      *
      * @param index      索引
-     * @param removeFlag 用于判断是否对集合操作过移除，如果没有操作过移除，那就可以用下标+1作为id来进行查询
+     * @param removeFlag 列表的表由位置索引定位主键，不使用这个参数；Map 内部的表没有主键，按偏移量查询
      * @return 
 素
      */
     @Override
     public T get(int index, boolean removeFlag) {
-        return DBUtil.get(index, tableName, columns, pkColumnName, dataSource, clazz, removeFlag);
+        if (rankIndex == null) {
+            return DBUtil.get(index, tableName, columns, pkColumnName, dataSource, clazz, removeFlag);
+        }
+        long pk = rankIndex.pkAt(index);
+        return pk < 0 ? null : DBUtil.getByPk(pk, tableName, columns, pkColumnName, dataSource, clazz);
     }
 
     /**
@@ -218,7 +272,7 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
      */
     @Override
     public T set(int index, T element) {
-        return DBUtil.set(index, element, tableName, columns, pkColumnName, dataSource);
+        return DBUtil.set(pk(index), element, tableName, columns, pkColumnName, dataSource);
     }
 
     /**
@@ -229,7 +283,11 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
      */
     @Override
     public long pk(int index) {
-        return DBUtil.pk(index, tableName, pkColumnName, dataSource);
+        long pk = rankIndex.pkAt(index);
+        if (pk < 0) {
+            throw new RuntimeException("没有找到对应的数据");
+        }
+        return pk;
     }
 
     /**
@@ -243,7 +301,228 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
      */
     @Override
     public List<T> batchQuery(int fromIndex, int toIndex) {
-        return DBUtil.batchQuery(fromIndex, toIndex, tableName, columns, pkColumnName, dataSource, clazz);
+        return batchQuery(fromIndex, toIndex, columns);
+    }
+
+    /**
+     * 批量查询元素，只读取指定的列
+     *
+     * @param fromIndex 开始索引
+     * @param toIndex   结束索引
+     * @param columns   要读取的列
+     * @return 元素集合
+     */
+    @Override
+    public List<T> batchQuery(int fromIndex, int toIndex, List<LocalColumn> columns) {
+        if (rankIndex == null) {
+            return DBUtil.batchQuery(fromIndex, toIndex, tableName, columns, pkColumnName, dataSource, clazz);
+        }
+        long fromPk = rankIndex.pkAt(fromIndex);
+        return fromPk < 0 ? new ArrayList<>()
+                : DBUtil.batchQueryByPk(fromPk, toIndex - fromIndex, tableName, columns, pkColumnName, dataSource, clazz);
+    }
+
+    /**
+     * 批量查询元素，每一行都解码到复用的对象中
+     *
+     * @param fromIndex 开始索引
+     * @param toIndex   结束索引
+     * @param reuse     复用的对象
+     * @param action    消费者
+     * @return 读取的行数
+     */
+    @Override
+    public int batchQueryInto(int fromIndex, int toIndex, T reuse, Consumer<? super T> action) {
+        if (rankIndex == null) {
+            return DBUtil.batchQueryInto(fromIndex, toIndex, tableName, columns, pkColumnName, dataSource, clazz, reuse, action);
+        }
+        long fromPk = rankIndex.pkAt(fromIndex);
+        return fromPk < 0 ? 0 : DBUtil.batchQueryIntoByPk(fromPk, toIndex - fromIndex, tableName, columns, pkColumnName,
+                dataSource, clazz, reuse, action);
+    }
+
+    /**
+     * 通过一个只向前的游标流式读取全部元素
+     *
+     * @return 元素流
+     */
+    @Override
+    public Stream<T> stream() {
+        return DBUtil.stream(tableName, columns, pkColumnName, dataSource, clazz);
+    }
+
+    /**
+     * 按主键范围流式读取，主键上有索引，直接定位到范围的开始
+     *
+     * @param fromPk 起始主键(不包含)
+     * @param toPk   结束主键(包含)
+     * @return 元素流
+     */
+    @Override
+    public Stream<T> streamByPk(long fromPk, long toPk) {
+        return DBUtil.streamByPk(fromPk, toPk, tableName, columns, pkColumnName, dataSource, clazz);
+    }
+
+    /**
+     * 获取主键的最小值和最大值
+     *
+     * @return 最小和最大的主键，没有数据时返回 null
+     */
+    @Override
+    public long[] pkRange() {
+        return DBUtil.pkRange(tableName, pkColumnName, dataSource);
+    }
+
+    /**
+     * 按条件流式读取元素，条件编译成SQL后通过只向前的游标读取
+     *
+     * @param condition 查询条件
+     * @return 元素流
+     */
+    @Override
+    public Stream<T> query(LocalQueryCondition condition) {
+        indexBuilder.ensureBuilt();
+        return DBUtil.query(condition, tableName, columns, pkColumnName, getDatabaseEngine(), dataSource, clazz);
+    }
+
+    /**
+     * 通过 INSERT ... SELECT 把满足条件的行复制到目标表
+     *
+     * @param condition       查询条件
+     * @param targetTableName 目标表名
+     * @param targetColumns   目标表的列定义
+     * @return 插入的行数
+     */
+    @Override
+    public int insertQuery(LocalQueryCondition condition, String targetTableName, List<LocalColumn> targetColumns) {
+        indexBuilder.ensureBuilt();
+        return DBUtil.insertQuery(condition, tableName, columns, pkColumnName, getDatabaseEngine(), dataSource,
+                targetTableName, targetColumns);
+    }
+
+    /**
+     * 通过 INSERT ... SELECT 把去重后的行复制到目标表
+     *
+     * @param keyColumns      去重的列名
+     * @param keepLast        是否保留最后出现的一行
+     * @param targetTableName 目标表名
+     * @param targetColumns   目标表的列定义
+     * @return 插入的行数
+     */
+    @Override
+    public int insertDistinct(List<String> keyColumns, boolean keepLast, String targetTableName,
+                              List<LocalColumn> targetColumns) {
+        indexBuilder.ensureBuilt();
+        return DBUtil.insertDistinct(keyColumns, keepLast, tableName, columns, pkColumnName, dataSource,
+                targetTableName, targetColumns);
+    }
+
+    /**
+     * 通过临时表按指定的排序重写整张表
+     *
+     * @param orderByClauses 排序
+     * @return 表中的行数
+     */
+    @Override
+    public int sortBy(List<String> orderByClauses) {
+        int sorted = DBUtil.sortBy(orderByClauses, tableName, columns, pkColumnName, getDatabaseEngine(), dataSource);
+        rankIndex.afterRewrite();
+        return sorted;
+    }
+
+    /**
+     * 在一个事务中清空表并按顺序写入新的数据
+     *
+     * @param rows 新的数据
+     * @return 写入的行数
+     */
+    @Override
+    public int replaceAll(Iterator<? extends T> rows) {
+        int written = DBUtil.replaceAll(rows, tableName, columns, pkColumnName, getDatabaseEngine(), dataSource);
+        rankIndex.afterRewrite();
+        return written;
+    }
+
+    /**
+     * 使用前后两行主键之间空出的主键插入数据，前后两行的主键通过位置索引查询
+     *
+     * @param index 插入的位置
+     * @param rows  要插入的数据
+     * @return 插入的行数
+     */
+    @Override
+    public int insertAt(int index, Collection<? extends T> rows) {
+        boolean densePk = rankIndex.isDense();
+        long prevPk = densePk || index == 0 ? 0 : rankIndex.pkAt(index - 1);
+        long nextPk = densePk ? 0 : rankIndex.pkAt(index);
+        long[] changed = DBUtil.insertAt(index, prevPk, nextPk, densePk, rows, tableName, columns, pkColumnName,
+                getDatabaseEngine(), dataSource);
+        rankIndex.afterInsert(changed);
+        indexBuilder.afterWrite(rows.size());
+        return rows.size();
+    }
+
+    /**
+     * 确保声明的二级索引已经创建
+     */
+    @Override
+    public void ensureIndexes() {
+        indexBuilder.ensureBuilt();
+    }
+
+    /**
+     * 在数据库中执行一次聚合查询
+     *
+     * @param selectExpressions 输出的表达式
+     * @param resultColumns     和输出表达式一一对应的列定义
+     * @param groupByColumns    分组的列名
+     * @param condition         查询条件
+     * @return 每一行的结果
+     */
+    @Override
+    public List<Object[]> aggregate(List<String> selectExpressions, List<LocalColumn> resultColumns,
+                                    List<String> groupByColumns, LocalQueryCondition condition) {
+        indexBuilder.ensureBuilt();
+        return DBUtil.aggregate(selectExpressions, resultColumns, groupByColumns, condition, tableName, columns, dataSource);
+    }
+
+    /**
+     * 按值查找元素的下标，把元素按列编码后做等值查询
+     *
+     * @param o    要查找的元素
+     * @param last 是否查找最后一个
+     * @return 下标，找不到时返回 -1
+     */
+    @Override
+    public int indexOf(Object o, boolean last) {
+        long pk = DBUtil.findPk(o, last, tableName, columns, pkColumnName, dataSource, clazz);
+        return pk < 0 ? -1 : rankIndex.rankOf(pk);
+    }
+
+    /**
+     * 判断是否包含全部的元素，开启整行哈希时分批合并成一条查询，否则顺序读取整张表一次
+     *
+     * @param c 元素集合
+     * @return 是否全部包含
+     */
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        return DBUtil.containsAll(c, tableName, columns, dataSource, clazz);
+    }
+
+    /**
+     * 删除所有满足条件的元素，边读边按主键分批删除，在一个事务中提交
+     *
+     * @param filter 删除条件
+     * @return 删除的元素个数
+     */
+    @Override
+    public int removeIf(Predicate<? super T> filter) {
+        int removed = DBUtil.removeIf(filter, tableName, columns, pkColumnName, dataSource, clazz);
+        if (removed > 0) {
+            rankIndex.invalidate();
+        }
+        return removed;
     }
 
     /**
@@ -278,6 +557,19 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
         return DBUtil.insertGroupedData(dataSource, sourceTableName, targetTableName, groupByColumns, whereClause, columnForMapList);
     }
 
+    /**
+     * 把连接查询的结果插入到当前表
+     *
+     * @param joinClause       连接子句
+     * @param columnForMapList 列映射列表
+     * @param condition        查询条件
+     * @return 插入的行数
+     */
+    @Override
+    public int insertJoinedData(String joinClause, List<LocalColumnForMap> columnForMapList, LocalQueryCondition condition) {
+        return DBUtil.insertJoinedData(dataSource, tableName, joinClause, columnForMapList, condition);
+    }
+
     /**
      * 根据主键获取
 素
@@ -300,13 +592,42 @@ class SqliteOpt<T> implements IDatabaseOpt<T> {
      * @param key       主键值
      * @param value     
 素
-     * @param removed   是否被移除，值在方法里面更新
+     * @param removedRows 被覆盖或删除的行数，值在方法里面更新
      * @return 原
 素
      */
     @Override
-    public T putByKey(String keyColumn, String key, T value, AtomicBoolean removed) {
-        return DBUtil.putByKey(dataSource, tableName, keyColumn, key, value, columns, removed);
+    public T putByKey(String keyColumn, String key, T value, AtomicInteger removedRows) {
+        return DBUtil.putByKey(dataSource, tableName, keyColumn, key, value, columns, clazz, getDatabaseEngine(),
+                uniqueKey, removedRows);
+    }
+
+    /**
+     * 按 key 批量查询
+     *
+     * @param keyColumn 主键列
+     * @param keys      要查询的 key
+     * @param parallel  是否并行查询各批
+     * @return 找到的 key 和对应的对象
+     */
+    @Override
+    public Map<String, T> getAllByKeys(String keyColumn, Collection<String> keys, boolean parallel) {
+        return DBUtil.getByKeys(dataSource, tableName, keyColumn, keys, columns, clazz, parallel);
+    }
+
+    /**
+     * 在一个事务中批量写入 key-value
+     *
+     * @param keyColumn 主键列
+     * @param entries   要写入的数据
+     * @param overwrite 已经存在的 key 是否覆盖
+     * @param existing  不为空时，放入已经存在的 key 和原来的值
+     * @return 表中增加的行数
+     */
+    @Override
+    public int putAllByKey(String keyColumn, Map<String, ? extends T> entries, boolean overwrite, Map<String, T> existing) {
+        return DBUtil.putAllByKey(dataSource, tableName, keyColumn, entries, overwrite, existing, columns, clazz,
+                getDatabaseEngine(), uniqueKey);
     }
 
     /**
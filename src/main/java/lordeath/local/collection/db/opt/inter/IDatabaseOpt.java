@@ -2,11 +2,17 @@ package lordeath.local.collection.db.opt.inter;
 
 import lordeath.local.collection.db.bean.LocalColumn;
 import lordeath.local.collection.db.bean.LocalColumnForMap;
+import lordeath.local.collection.db.bean.LocalQueryCondition;
 
 import javax.sql.DataSource;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * 数据库操作接口
@@ -67,7 +73,7 @@ public interface IDatabaseOpt<T> {
      * 获取指定索引的对象
      *
      * @param index      对象索引
-     * @param removeFlag 用于判断是否对集合操作过移除，如果没有操作过移除，那就可以用下标+1作为id来进行查询
+     * @param removeFlag 用于判断是否对集合操作过移除，列表的表由位置索引定位主键，段文件有自己的墓碑位图，都不使用这个参数
      * @return 指定索引的对象
      */
     T get(int index, boolean removeFlag);
@@ -98,6 +104,146 @@ public interface IDatabaseOpt<T> {
      */
     List<T> batchQuery(int fromIndex, int toIndex);
 
+    /**
+     * 批量查询，只读取指定的列
+     *
+     * @param fromIndex 开始索引
+     * @param toIndex   结束索引
+     * @param columns   要读取的列，是 {@link #getColumns()} 的子集
+     * @return 查询结果列表，没有读取的字段保持默认值
+     */
+    List<T> batchQuery(int fromIndex, int toIndex, List<LocalColumn> columns);
+
+    /**
+     * 批量查询，每一行都解码到同一个复用的对象中再交给消费者
+     *
+     * @param fromIndex 开始索引
+     * @param toIndex   结束索引
+     * @param reuse     复用的对象，简单类型时不会被使用
+     * @param action    消费者，调用返回后对象的内容就会被下一行覆盖
+     * @return 读取的行数
+     */
+    int batchQueryInto(int fromIndex, int toIndex, T reuse, Consumer<? super T> action);
+
+    /**
+     * 按顺序流式读取全部数据，只执行一次查询，遍历结束或者流关闭时释放资源
+     *
+     * @return 数据流
+     */
+    Stream<T> stream();
+
+    /**
+     * 按主键顺序流式读取主键在 (fromPk, toPk] 范围内的数据，按主键范围定位，不需要跳过前面的行
+     *
+     * @param fromPk 起始主键(不包含)
+     * @param toPk   结束主键(包含)
+     * @return 数据流，遍历结束或者流关闭时释放资源
+     */
+    Stream<T> streamByPk(long fromPk, long toPk);
+
+    /**
+     * 获取主键的最小值和最大值
+     *
+     * @return 两个元素的数组，分别是最小和最大的主键；没有数据时返回 null
+     */
+    long[] pkRange();
+
+    /**
+     * 按条件流式读取数据，过滤、排序和分页在数据库中完成
+     *
+     * @param condition 查询条件
+     * @return 数据流，遍历结束或者流关闭时释放资源
+     */
+    Stream<T> query(LocalQueryCondition condition);
+
+    /**
+     * 把按条件查询出的行直接插入到目标表，目标表需要和当前表使用相同的存储列
+     *
+     * @param condition       查询条件
+     * @param targetTableName 目标表名
+     * @param targetColumns   目标表的列定义
+     * @return 插入的行数
+     */
+    int insertQuery(LocalQueryCondition condition, String targetTableName, List<LocalColumn> targetColumns);
+
+    /**
+     * 把去重后的行直接插入到目标表，目标表需要和当前表使用相同的存储列
+     *
+     * @param keyColumns      去重的列名
+     * @param keepLast        是否保留最后出现的一行，否则保留第一次出现的一行
+     * @param targetTableName 目标表名
+     * @param targetColumns   目标表的列定义
+     * @return 插入的行数
+     */
+    int insertDistinct(List<String> keyColumns, boolean keepLast, String targetTableName, List<LocalColumn> targetColumns);
+
+    /**
+     * 在数据库中执行一次聚合查询，不创建中间表
+     *
+     * @param selectExpressions 输出的表达式，分组列在前，聚合表达式在后
+     * @param resultColumns     和输出表达式一一对应的列定义，用于按类型读取结果
+     * @param groupByColumns    分组的列名，没有分组时为空
+     * @param condition         查询条件，只使用其中的过滤条件
+     * @return 每一行的结果
+     */
+    List<Object[]> aggregate(List<String> selectExpressions, List<LocalColumn> resultColumns,
+                             List<String> groupByColumns, LocalQueryCondition condition);
+
+    /**
+     * 在数据库中按指定的排序重写整张表，重写后主键从 1 开始连续
+     *
+     * @param orderByClauses 排序，比如 score desc
+     * @return 表中的行数
+     */
+    int sortBy(List<String> orderByClauses);
+
+    /**
+     * 用给定的数据按顺序替换表中的全部数据，替换后主键从 1 开始连续
+     *
+     * @param rows 新的数据
+     * @return 写入的行数
+     */
+    int replaceAll(Iterator<? extends T> rows);
+
+    /**
+     * 把数据插入到指定的位置，不移动其他行，插入位置前后的主键通过位置索引查询
+     *
+     * @param index 插入的位置，需要小于表中的行数
+     * @param rows  要插入的数据
+     * @return 插入的行数
+     */
+    int insertAt(int index, Collection<? extends T> rows);
+
+    /**
+     * 确保 {@code @LocalIndex} 声明的二级索引已经创建，执行下推到数据库的过滤条件前调用
+     */
+    void ensureIndexes();
+
+    /**
+     * 按值查找元素的下标
+     *
+     * @param o    要查找的元素
+     * @param last 是否查找最后一个
+     * @return 下标，找不到时返回 -1
+     */
+    int indexOf(Object o, boolean last);
+
+    /**
+     * 判断是否包含全部的元素
+     *
+     * @param c 元素集合
+     * @return 是否全部包含
+     */
+    boolean containsAll(Collection<?> c);
+
+    /**
+     * 删除所有满足条件的元素，一次遍历完成，不逐个按下标删除
+     *
+     * @param filter 删除条件
+     * @return 删除的元素个数
+     */
+    int removeIf(Predicate<? super T> filter);
+
     /**
      * 获取表名
      *
@@ -105,6 +251,20 @@ public interface IDatabaseOpt<T> {
      */
     String getTableName();
 
+    /**
+     * 获取主键列名
+     *
+     * @return 主键列名，没有自增主键的表（比如 map 使用的表）返回 null
+     */
+    String getPkColumnName();
+
+    /**
+     * 获取实际存储的列定义
+     *
+     * @return 列定义
+     */
+    List<LocalColumn> getColumns();
+
     /**
      * 创建一个新表，用于存储分组后的数据
      *
@@ -132,6 +292,16 @@ public interface IDatabaseOpt<T> {
                               List<String> groupByColumns, String whereClause,
                               List<LocalColumnForMap> columnForMapList);
 
+    /**
+     * 把连接查询的结果直接插入到当前表
+     *
+     * @param joinClause       FROM 之后的连接子句，比如 t1 a JOIN t2 b ON a.user_id = b.id
+     * @param columnForMapList 列映射列表，表达式中的列需要带上表别名
+     * @param condition        查询条件，使用其中的过滤条件、参数和排序
+     * @return 插入的行数
+     */
+    int insertJoinedData(String joinClause, List<LocalColumnForMap> columnForMapList, LocalQueryCondition condition);
+
     /**
      * 根据key查询单个对象
      *
@@ -142,15 +312,36 @@ public interface IDatabaseOpt<T> {
     T getByKey(String keyColumn, Object keyValue);
 
     /**
-     * 根据key存储对象
+     * 根据key批量查询对象，key 按批用 IN 查询
+     *
+     * @param keyColumn key列名
+     * @param keys      要查询的key
+     * @param parallel  是否使用多个连接并行查询各批
+     * @return 找到的key和对象，不存在的key不会出现在结果中
+     */
+    Map<String, T> getAllByKeys(String keyColumn, Collection<String> keys, boolean parallel);
+
+    /**
+     * 根据key存储对象，key 已经存在时覆盖原来的对象
      *
      * @param keyColumn key列名
      * @param key       key值
      * @param value     要存储的对象
-     * @param removed   用于判断列表是否被移除过对象，如果移除过，就需要重新查询id，如果没有移除过，就可以用下标+1作为id来查找数据
+     * @param removedRows 被覆盖或删除的行数，值在方法里面更新；key 列上没有唯一索引时同一个 key 可能有多行
      * @return 原对象（如果存在）
      */
-    T putByKey(String keyColumn, String key, T value, AtomicBoolean removed);
+    T putByKey(String keyColumn, String key, T value, AtomicInteger removedRows);
+
+    /**
+     * 在一个事务中批量存储对象
+     *
+     * @param keyColumn key列名
+     * @param entries   要存储的 key 和对象
+     * @param overwrite 已经存在的 key 是否覆盖，为 false 时只写入不存在的 key
+     * @param existing  不为空时，放入已经存在的 key 和原来的对象
+     * @return 表中增加的行数
+     */
+    int putAllByKey(String keyColumn, Map<String, ? extends T> entries, boolean overwrite, Map<String, T> existing);
 
     /**
      * 根据key删除对象
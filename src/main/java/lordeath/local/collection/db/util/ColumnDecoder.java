@@ -0,0 +1,306 @@
+package lordeath.local.collection.db.util;
+
+import lordeath.local.collection.db.bean.LocalColumn;
+import lordeath.local.collection.serialize.BinaryTypeCodec;
+import lordeath.local.collection.serialize.TypeCodec;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 列解码器
+ * 在查询准备好时按列的下标和类型确定一次读取方式，读取时使用 getInt、getLong 这类类型化的方法，
+ * 不再按列名查找，也不再先 getObject 再转换，基本类型的字段直接写入，不经过装箱
+ */
+final class ColumnDecoder {
+
+    private final LocalColumn column;
+    private final int ordinal;
+    private final Kind kind;
+    private final FieldAccessor accessor;
+    private final boolean primitive;
+
+    private ColumnDecoder(LocalColumn column, int ordinal) {
+        this.column = column;
+        this.ordinal = ordinal;
+        this.kind = Kind.of(column);
+        this.accessor = column.getAccessor();
+        this.primitive = column.getField() != null && column.getField().getType().isPrimitive();
+    }
+
+    /**
+     * 按查询结果中列的顺序创建解码器，第 i 列对应 SQL 中第 i + 1 个输出列
+     *
+     * @param columns 列定义
+     * @return 解码器
+     */
+    static ColumnDecoder[] of(List<LocalColumn> columns) {
+        ColumnDecoder[] decoders = new ColumnDecoder[columns.size()];
+        for (int i = 0; i < decoders.length; i++) {
+            decoders[i] = new ColumnDecoder(columns.get(i), i + 1);
+        }
+        return decoders;
+    }
+
+    LocalColumn getColumn() {
+        return column;
+    }
+
+    int getOrdinal() {
+        return ordinal;
+    }
+
+    /**
+     * 把当前行这一列的值直接写入对象的字段，数据库中为 null 时保持字段的默认值
+     *
+     * @param rs  结果集
+     * @param obj 对象
+     * @throws SQLException 异常
+     */
+    void readInto(ResultSet rs, Object obj) throws SQLException {
+        readInto(rs, obj, false);
+    }
+
+    /**
+     * 把当前行这一列的值直接写入对象的字段
+     *
+     * @param rs            结果集
+     * @param obj           对象
+     * @param overwriteNull 数据库中为 null 时是否把非基本类型的字段重置为 null，复用对象时需要重置
+     * @throws SQLException 异常
+     */
+    void readInto(ResultSet rs, Object obj, boolean overwriteNull) throws SQLException {
+        if (primitive) {
+            switch (kind) {
+                case INT: {
+                    int value = rs.getInt(ordinal);
+                    if (!rs.wasNull()) {
+                        accessor.setInt(obj, value);
+                    }
+                    return;
+                }
+                case LONG: {
+                    long value = rs.getLong(ordinal);
+                    if (!rs.wasNull()) {
+                        accessor.setLong(obj, value);
+                    }
+                    return;
+                }
+                case DOUBLE: {
+                    double value = rs.getDouble(ordinal);
+                    if (!rs.wasNull()) {
+                        accessor.setDouble(obj, value);
+                    }
+                    return;
+                }
+                default:
+                    break;
+            }
+        }
+        Object value = read(rs);
+        if (value != null || (overwriteNull && !primitive)) {
+            accessor.set(obj, value);
+        }
+    }
+
+    /**
+     * 读取当前行这一列的值
+     *
+     * @param rs 结果集
+     * @return 值，数据库中为 null 时返回 null
+     * @throws SQLException 异常
+     */
+    Object read(ResultSet rs) throws SQLException {
+        Class<?> targetType = column.getColumnType();
+        switch (kind) {
+            case STRING:
+                return rs.getString(ordinal);
+            case INT: {
+                int value = rs.getInt(ordinal);
+                return rs.wasNull() ? null : value;
+            }
+            case LONG: {
+                long value = rs.getLong(ordinal);
+                return rs.wasNull() ? null : value;
+            }
+            case DOUBLE: {
+                double value = rs.getDouble(ordinal);
+                return rs.wasNull() ? null : value;
+            }
+            case FLOAT: {
+                float value = rs.getFloat(ordinal);
+                return rs.wasNull() ? null : value;
+            }
+            case BOOLEAN: {
+                boolean value = rs.getBoolean(ordinal);
+                return rs.wasNull() ? null : value;
+            }
+            case CHAR: {
+                String text = rs.getString(ordinal);
+                return text == null || text.isEmpty() ? null : text.charAt(0);
+            }
+            case DECIMAL: {
+                String text = rs.getString(ordinal);
+                return text == null ? null : new BigDecimal(text);
+            }
+            case DICTIONARY: {
+                int code = rs.getInt(ordinal);
+                return rs.wasNull() ? null : column.getDictionary().decode(code);
+            }
+            case COMPRESSED: {
+                byte[] stored = rs.getBytes(ordinal);
+                if (stored == null) {
+                    return null;
+                }
+                byte[] raw = column.getCompressor().decompress(stored);
+                TypeCodec codec = column.getTypeCodec();
+                if (codec instanceof BinaryTypeCodec) {
+                    return ((BinaryTypeCodec) codec).deserializeBytes(raw, targetType);
+                }
+                String text = new String(raw, StandardCharsets.UTF_8);
+                return codec == null ? convertStandardValue(text, targetType) : codec.deserialize(text, targetType);
+            }
+            case BINARY_CODEC: {
+                byte[] bytes = rs.getBytes(ordinal);
+                return bytes == null ? null : ((BinaryTypeCodec) column.getTypeCodec()).deserializeBytes(bytes, targetType);
+            }
+            case CODEC: {
+                String text = rs.getString(ordinal);
+                return text == null ? null : column.getTypeCodec().deserialize(text, targetType);
+            }
+            case BYTES:
+                return rs.getBytes(ordinal);
+            default: {
+                // 日期这类在不同数据库中存储形式不同的类型，仍然按原始对象转换
+                Object raw = rs.getObject(ordinal);
+                return raw == null ? null : convertStandardValue(raw, targetType);
+            }
+        }
+    }
+
+    static Object convertStandardValue(Object raw, Class<?> targetType) {
+        if (targetType == String.class) {
+            return String.valueOf(raw);
+        }
+        if (targetType == Integer.class || targetType == int.class) {
+            if (raw instanceof Number) {
+                return ((Number) raw).intValue();
+            }
+            return Integer.valueOf(raw.toString());
+        }
+        if (targetType == Long.class || targetType == long.class) {
+            if (raw instanceof Number) {
+                return ((Number) raw).longValue();
+            }
+            return Long.valueOf(raw.toString());
+        }
+        if (targetType == Double.class || targetType == double.class) {
+            if (raw instanceof Number) {
+                return ((Number) raw).doubleValue();
+            }
+            return Double.valueOf(raw.toString());
+        }
+        if (targetType == Float.class || targetType == float.class) {
+            if (raw instanceof Number) {
+                return ((Number) raw).floatValue();
+            }
+            return Float.valueOf(raw.toString());
+        }
+        if (targetType == Boolean.class || targetType == boolean.class) {
+            if (raw instanceof Boolean) {
+                return raw;
+            }
+            if (raw instanceof Number) {
+                return ((Number) raw).intValue() != 0;
+            }
+            return Boolean.valueOf(raw.toString());
+        }
+        if (targetType == Character.class || targetType == char.class) {
+            String text = String.valueOf(raw);
+            return text.isEmpty() ? null : text.charAt(0);
+        }
+        if (targetType == Date.class) {
+            return convertObjectToDate(raw);
+        }
+        if (targetType == java.sql.Date.class) {
+            Date date = convertObjectToDate(raw);
+            return date == null ? null : new java.sql.Date(date.getTime());
+        }
+        if (targetType == BigDecimal.class) {
+            if (raw instanceof BigDecimal) {
+                return raw;
+            }
+            return new BigDecimal(raw.toString());
+        }
+        return raw;
+    }
+
+    private static Date convertObjectToDate(Object dateInDb) {
+        Date date = null;
+        if (dateInDb instanceof Number) {
+            date = new Date(((Number) dateInDb).longValue());
+        } else if (dateInDb instanceof Date) {
+            date = (Date) dateInDb;
+        } else if (dateInDb instanceof CharSequence) {
+            String text = dateInDb.toString();
+            try {
+                date = new Date(Long.parseLong(text));
+            } catch (NumberFormatException ignored) {
+                try {
+                    date = Timestamp.valueOf(text);
+                } catch (IllegalArgumentException e) {
+                    date = java.sql.Date.valueOf(text);
+                }
+            }
+        }
+        return date;
+    }
+
+    /**
+     * 列的读取方式
+     */
+    private enum Kind {
+        STRING, INT, LONG, DOUBLE, FLOAT, BOOLEAN, CHAR, DECIMAL, DICTIONARY, COMPRESSED, BINARY_CODEC, CODEC, BYTES, OTHER;
+
+        static Kind of(LocalColumn column) {
+            if (column.getDictionary() != null) {
+                return DICTIONARY;
+            }
+            if (column.getCompressor() != null) {
+                return COMPRESSED;
+            }
+            if (column.getTypeCodec() instanceof BinaryTypeCodec) {
+                return BINARY_CODEC;
+            }
+            if (column.getTypeCodec() != null) {
+                return CODEC;
+            }
+            Class<?> type = column.getColumnType();
+            if (type == String.class) {
+                return STRING;
+            } else if (type == Integer.class || type == int.class) {
+                return INT;
+            } else if (type == Long.class || type == long.class) {
+                return LONG;
+            } else if (type == Double.class || type == double.class) {
+                return DOUBLE;
+            } else if (type == Float.class || type == float.class) {
+                return FLOAT;
+            } else if (type == Boolean.class || type == boolean.class) {
+                return BOOLEAN;
+            } else if (type == Character.class || type == char.class) {
+                return CHAR;
+            } else if (type == BigDecimal.class) {
+                return DECIMAL;
+            } else if (type == byte[].class) {
+                return BYTES;
+            }
+            return OTHER;
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package lordeath.local.collection.db.util;
 
+import lordeath.local.collection.annotation.LocalField;
+import lordeath.local.collection.annotation.LocalIndex;
 import lordeath.local.collection.db.bean.LocalColumn;
+import lordeath.local.collection.db.config.MainConfig;
+import lordeath.local.collection.serialize.BinaryRowSerializer;
+import lordeath.local.collection.serialize.ColumnCompressor;
+import lordeath.local.collection.serialize.StringDictionary;
 import lordeath.local.collection.serialize.TypeCodec;
 import lordeath.local.collection.serialize.TypeCodecRegistry;
 import org.apache.commons.lang3.reflect.FieldUtils;
@@ -9,8 +15,14 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
 /**
  * 用于操作列，把对象的字段转换成数据库的列相关的工具类
@@ -21,6 +33,189 @@ public class ColumnNameUtil {
      */
     private ColumnNameUtil() {
     }
+
+    /**
+     * 整行存储时，二进制列的列名
+     */
+    public static final String ROW_COLUMN_NAME = "lc_row_data";
+
+    /**
+     * 整行哈希列的列名
+     */
+    public static final String ROW_HASH_COLUMN_NAME = "lc_row_hash";
+
+    /**
+     * 获取实际存储到数据库中的列
+     * 默认和 {@link #getFields(Class)} 一致；标记了 {@link LocalField#dictionary()} 的字段保存为整数编码列，
+     * 标记了 {@link LocalField#compress()} 的字段保存为压缩后的二进制列；
+     * 当存储布局配置为 row 时，除了保留为独立列的字段和 {@link LocalIndex} 索引中的字段，其余字段都编码到同一个二进制列中；
+     * 开启整行哈希时，最后追加一个保存其他列编码值哈希的列
+     *
+     * @param clazz          类
+     * @param databaseEngine 数据库引擎
+     * @return 存储列列表
+     */
+    public static List<LocalColumn> getStorageColumns(Class<?> clazz, String databaseEngine) {
+        List<LocalColumn> fields = getFields(clazz);
+        if (fields.size() == 1 && fields.get(0).getField() == null) {
+            // 简单类型本身就只有一列，没有必要再编码
+            return fields;
+        }
+        boolean rowLayout = "row".equalsIgnoreCase(MainConfig.DB_STORAGE_LAYOUT.getProperty());
+        Set<String> indexedFields = new HashSet<>();
+        getIndexes(clazz).forEach(indexedFields::addAll);
+        List<LocalColumn> storageColumns = new ArrayList<>();
+        List<LocalColumn> packedColumns = new ArrayList<>();
+        for (LocalColumn column : fields) {
+            LocalField localField = column.getField().getAnnotation(LocalField.class);
+            if (localField != null && localField.dictionary() && localField.compress()) {
+                throw new UnsupportedOperationException("字典编码和压缩不能同时使用: " + column.getColumnName());
+            } else if (localField != null && localField.dictionary()) {
+                storageColumns.add(getDictionaryColumn(column));
+            } else if (localField != null && localField.compress()) {
+                if (indexedFields.contains(column.getColumnName())) {
+                    throw new UnsupportedOperationException("压缩的字段不能建立索引: " + column.getColumnName());
+                }
+                storageColumns.add(getCompressedColumn(column, databaseEngine));
+            } else if (!rowLayout || (localField != null && localField.keepColumn())
+                    || indexedFields.contains(column.getColumnName())) {
+                storageColumns.add(column);
+            } else {
+                packedColumns.add(column);
+            }
+        }
+        if (!packedColumns.isEmpty()) {
+            LocalColumn rowColumn = new LocalColumn(ROW_COLUMN_NAME, byte[].class, SqlDialectUtil.binaryType(databaseEngine), null);
+            rowColumn.setRowSerializer(new BinaryRowSerializer<>(clazz, packedColumns));
+            if (MainConfig.DB_STORAGE_ROW_COMPRESS.getPropertyBoolean()) {
+                rowColumn.setCompressor(new ColumnCompressor(MainConfig.DB_COMPRESS_THRESHOLD.getPropertyInt()));
+            }
+            storageColumns.add(rowColumn);
+        }
+        if (MainConfig.DB_ROW_HASH.getPropertyBoolean()) {
+            // 哈希列放在最后，写入时其他列的值都已经编码好了
+            storageColumns.add(new LocalColumn(ROW_HASH_COLUMN_NAME, Long.class, "BIGINT", null));
+        }
+        return storageColumns;
+    }
+
+    /**
+     * 获取类上声明的二级索引，类上的 {@link LocalIndex} 在前，字段上的在后
+     *
+     * @param clazz 类
+     * @return 每个索引按顺序包含的字段名，没有声明索引时为空
+     */
+    public static List<List<String>> getIndexes(Class<?> clazz) {
+        List<List<String>> indexes = new ArrayList<>();
+        for (LocalIndex index : clazz.getAnnotationsByType(LocalIndex.class)) {
+            if (index.value().length == 0) {
+                throw new IllegalArgumentException("类上的索引至少需要一个字段: " + clazz.getName());
+            }
+            indexes.add(Arrays.asList(index.value()));
+        }
+        for (Field field : FieldUtils.getAllFields(clazz)) {
+            for (LocalIndex index : field.getAnnotationsByType(LocalIndex.class)) {
+                List<String> fieldNames = new ArrayList<>();
+                fieldNames.add(field.getName());
+                fieldNames.addAll(Arrays.asList(index.value()));
+                indexes.add(fieldNames);
+            }
+        }
+        if (indexes.isEmpty()) {
+            return indexes;
+        }
+        Set<String> knownFields = getFields(clazz).stream().map(LocalColumn::getColumnName).collect(Collectors.toSet());
+        for (List<String> index : indexes) {
+            if (new LinkedHashSet<>(index).size() != index.size()) {
+                throw new IllegalArgumentException("索引中的字段重复: " + index);
+            }
+            for (String fieldName : index) {
+                if (!knownFields.contains(fieldName)) {
+                    throw new IllegalArgumentException("索引中找不到字段: " + fieldName + ", 类: " + clazz.getName());
+                }
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * 判断是否是整行哈希列
+     *
+     * @param column 列
+     * @return 是否是整行哈希列
+     */
+    public static boolean isRowHashColumn(LocalColumn column) {
+        return column.getField() == null && column.getRowSerializer() == null
+                && ROW_HASH_COLUMN_NAME.equals(column.getColumnName());
+    }
+
+    /**
+     * 按字段名称查找保存为独立列、可以在 SQL 中直接引用的列
+     *
+     * @param storageColumns 实际存储的列
+     * @param fieldName      字段名称
+     * @return 字段对应的列
+     */
+    public static LocalColumn getSqlColumn(List<LocalColumn> storageColumns, String fieldName) {
+        for (LocalColumn column : storageColumns) {
+            if (column.getRowSerializer() == null && !isRowHashColumn(column)
+                    && column.getColumnName().equals(fieldName)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("找不到保存为独立列的字段: " + fieldName);
+    }
+
+    /**
+     * 获取投影查询需要读取的列，保持存储列原有的顺序；
+     * 如果要读取的字段被编码在整行的二进制列中，就需要读取整个二进制列
+     *
+     * @param storageColumns 实际存储的列
+     * @param fieldNames     要读取的字段名称
+     * @return 需要读取的列
+     */
+    public static List<LocalColumn> getProjectionColumns(List<LocalColumn> storageColumns, String... fieldNames) {
+        if (fieldNames == null || fieldNames.length == 0) {
+            throw new IllegalArgumentException("至少需要指定一个字段");
+        }
+        Set<String> remaining = new HashSet<>(Arrays.asList(fieldNames));
+        List<LocalColumn> projection = new ArrayList<>();
+        LocalColumn rowColumn = null;
+        for (LocalColumn column : storageColumns) {
+            if (column.getRowSerializer() != null) {
+                rowColumn = column;
+            } else if (column.getField() != null && remaining.remove(column.getColumnName())) {
+                projection.add(column);
+            }
+        }
+        if (!remaining.isEmpty() && rowColumn != null) {
+            Set<String> packedFields = rowColumn.getRowSerializer().getColumns().stream()
+                    .map(LocalColumn::getColumnName).collect(Collectors.toSet());
+            if (remaining.removeAll(packedFields)) {
+                projection.add(rowColumn);
+            }
+        }
+        if (!remaining.isEmpty()) {
+            throw new IllegalArgumentException("找不到字段: " + remaining);
+        }
+        return projection;
+    }
+
+    /**
+     * 把字符串列转换成字典编码列，每次调用都会创建新的字典
+     *
+     * @param column 字符串列
+     * @return 字典编码列
+     */
+    private static LocalColumn getDictionaryColumn(LocalColumn column) {
+        if (column.getColumnType() != String.class) {
+            throw new UnsupportedOperationException("字典编码只支持String类型的字段: " + column.getColumnName());
+        }
+        LocalColumn dictionaryColumn = new LocalColumn(column.getColumnName(), String.class, "INTEGER", column.getField());
+        dictionaryColumn.setDictionary(new StringDictionary("dict_" + UUID.randomUUID().toString().replace("-", "")));
+        return dictionaryColumn;
+    }
+
     /**
      * 获取字段
      *
@@ -50,6 +245,23 @@ public class ColumnNameUtil {
         return list;
     }
 
+    /**
+     * 把字段转换成压缩保存的二进制列
+     *
+     * @param column         字段对应的列
+     * @param databaseEngine 数据库引擎
+     * @return 压缩列
+     */
+    private static LocalColumn getCompressedColumn(LocalColumn column, String databaseEngine) {
+        if (column.getColumnType() != String.class && column.getTypeCodec() == null) {
+            throw new UnsupportedOperationException("压缩只支持String类型或者注册了TypeCodec的字段: " + column.getColumnName());
+        }
+        LocalColumn compressedColumn = new LocalColumn(column.getColumnName(), column.getColumnType(),
+                SqlDialectUtil.binaryType(databaseEngine), column.getField(), column.getTypeCodec());
+        compressedColumn.setCompressor(new ColumnCompressor(MainConfig.DB_COMPRESS_THRESHOLD.getPropertyInt()));
+        return compressedColumn;
+    }
+
     /**
      * 获取字段
      *
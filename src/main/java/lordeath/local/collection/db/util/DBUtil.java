@@ -4,20 +4,31 @@ import com.google.common.collect.Lists;
 import lombok.extern.slf4j.Slf4j;
 import lordeath.local.collection.db.bean.LocalColumn;
 import lordeath.local.collection.db.bean.LocalColumnForMap;
+import lordeath.local.collection.db.bean.LocalQueryCondition;
 import lordeath.local.collection.db.config.MainConfig;
+import lordeath.local.collection.serialize.BinaryRowSerializer;
+import lordeath.local.collection.serialize.BinaryTypeCodec;
+import lordeath.local.collection.serialize.StringDictionary;
 import lordeath.local.collection.serialize.TypeCodec;
 import lordeath.local.collection.serialize.TypeCodecRegistry;
 
 import javax.sql.DataSource;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.Date;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 数据库工具类
@@ -30,6 +41,11 @@ public class DBUtil {
     private DBUtil() {
     }
 
+    /**
+     * 分组聚合时源表的别名
+     */
+    public static final String SOURCE_ALIAS = "source_";
+
     /**
      * 添加数据
      *
@@ -54,19 +70,23 @@ public class DBUtil {
 
         try (Connection connection = dataSource.getConnection();
              PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
-            int parameterIndex = 1;
-            for (LocalColumn column : columns) {
-                if (column.getField() == null && columns.size() == 1) {
-                    // 特殊情况：如果只有一个列且field为null，直接使用对象本身作为值
-                    stmt.setObject(parameterIndex++, toDbValue(column, obj));
-                } else {
-                    Field field = column.getField();
-                    field.setAccessible(true);
-                    Object value = field.get(obj);
-                    stmt.setObject(parameterIndex++, toDbValue(column, value));
-                }
+            // 字典和数据在同一个事务中写入
+            connection.setAutoCommit(false);
+            try {
+                bindRow(stmt, 1, columns, obj);
+                Map<StringDictionary, Integer> written = flushDictionaries(connection, columns);
+                boolean added = stmt.executeUpdate() > 0;
+                connection.commit();
+                markDictionariesFlushed(written);
+                return added;
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
-            return stmt.executeUpdate() > 0;
+        } catch (RuntimeException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -100,50 +120,47 @@ public class DBUtil {
         try (Connection connection = dataSource.getConnection();
              PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
             connection.setAutoCommit(false);
+            try {
                 for (T obj : c) {
-                    int parameterIndex = 1;
-                    for (LocalColumn column : columns) {
-                        if (column.getField() == null && columns.size() == 1) {
-                            // 特殊情况：如果只有一个列且field为null，直接使用对象本身作为值
-                            stmt.setObject(parameterIndex++, toDbValue(column, obj));
-                        } else {
-                            Field field = column.getField();
-                            field.setAccessible(true);
-                            Object value = field.get(obj);
-                            stmt.setObject(parameterIndex++, toDbValue(column, value));
-                        }
-                    }
-                stmt.addBatch();
+                    bindRow(stmt, 1, columns, obj);
+                    stmt.addBatch();
+                }
+                Map<StringDictionary, Integer> written = flushDictionaries(connection, columns);
+                int[] results = stmt.executeBatch();
+                connection.commit();
+                markDictionariesFlushed(written);
+                return Arrays.stream(results).allMatch(result -> result > 0);
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
-            int[] results = stmt.executeBatch();
-            connection.commit();
-            connection.setAutoCommit(true);
-            return Arrays.stream(results).allMatch(result -> result > 0);
+        } catch (RuntimeException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * 删除数据
+     * 按主键删除数据
      *
-     * @param index        索引
+     * @param pk           主键
      * @param tableName    表名
      * @param pkColumnName 主键列名
      * @param columns      列定义
      * @param dataSource   数据源
      * @param clazz        数据类型
      * @param <T>          数据类型
-     * @return 删除的数据
+     * @return 删除的数据，没有这一行时返回 null
      */
-    public static <T> T remove(int index, String tableName, String pkColumnName, List<LocalColumn> columns, DataSource dataSource, Class<T> clazz) {
+    public static <T> T remove(long pk, String tableName, String pkColumnName, List<LocalColumn> columns, DataSource dataSource, Class<T> clazz) {
         // 先获取要删除的数据
-        T obj = get(index, tableName, columns, pkColumnName, dataSource, clazz, true);
+        T obj = getByPk(pk, tableName, columns, pkColumnName, dataSource, clazz);
         if (obj == null) {
             return null;
         }
-        // 获取主键值
-        long pk = pk(index, tableName, pkColumnName, dataSource);
         // 删除数据
         String sql = "DELETE FROM " + tableName + " WHERE " + pkColumnName + " = ?";
         try (Connection connection = dataSource.getConnection();
@@ -170,7 +187,7 @@ public class DBUtil {
      * @return 数据
      */
     public static <T> T get(int index, String tableName, List<LocalColumn> columns, String pkColumnName, DataSource dataSource, Class<T> clazz, boolean removeFlag) {
-        StringBuilder sql = new StringBuilder("select * from ")
+        StringBuilder sql = new StringBuilder("select ").append(selectColumns(columns)).append(" from ")
                 .append(tableName);
         if (removeFlag || pkColumnName == null) {
             // 通过主键进行排序，然后查询，limit offset 1
@@ -190,7 +207,26 @@ public class DBUtil {
     }
 
     /**
-     * 批量查询数据
+     * 按主键获取数据
+     *
+     * @param pk           主键
+     * @param tableName    表名
+     * @param columns      列定义
+     * @param pkColumnName 主键列名
+     * @param dataSource   数据源
+     * @param clazz        数据类型
+     * @param <T>          数据类型
+     * @return 数据，没有这一行时返回 null
+     */
+    public static <T> T getByPk(long pk, String tableName, List<LocalColumn> columns, String pkColumnName,
+                                DataSource dataSource, Class<T> clazz) {
+        String sql = "select " + selectColumns(columns) + " from " + tableName + " where " + pkColumnName + " = " + pk;
+        log.debug("按主键查询数据的sql: {}", sql);
+        return DBUtil.querySingle(dataSource, sql, columns, clazz);
+    }
+
+    /**
+     * 批量查询数据，按偏移量跳过前面的行，用于没有位置索引的 Map 内部的表
      *
      * @param fromIndex    起始索引(包含)
      * @param toIndex      结束索引(不包含)
@@ -204,39 +240,47 @@ public class DBUtil {
      */
     public static <T> List<T> batchQuery(int fromIndex, int toIndex, String tableName, List<LocalColumn> columns,
                                          String pkColumnName, DataSource dataSource, Class<T> clazz) {
-        StringBuilder sql = new StringBuilder("SELECT * FROM ")
+        StringBuilder sql = new StringBuilder("SELECT ").append(selectColumns(columns)).append(" FROM ")
                 .append(tableName)
                 .append(" ORDER BY ")
                 .append(pkColumnName)
                 .append(" LIMIT ? OFFSET ?");
 
         log.debug("批量查询数据的sql: {}", sql);
+        return batchQuery(sql.toString(), Arrays.asList(toIndex - fromIndex, fromIndex), columns, dataSource, clazz);
+    }
+
+    /**
+     * 从指定的主键开始按主键顺序批量查询数据，通过主键索引定位，不需要跳过前面的行
+     *
+     * @param fromPk       起始主键(包含)
+     * @param limit        最多读取的行数
+     * @param tableName    表名
+     * @param columns      列定义
+     * @param pkColumnName 主键列名
+     * @param dataSource   数据源
+     * @param clazz        数据类型
+     * @param <T>          数据类型
+     * @return 数据
+     */
+    public static <T> List<T> batchQueryByPk(long fromPk, int limit, String tableName, List<LocalColumn> columns,
+                                             String pkColumnName, DataSource dataSource, Class<T> clazz) {
+        String sql = "SELECT " + selectColumns(columns) + " FROM " + tableName + " WHERE " + pkColumnName
+                + " >= ? ORDER BY " + pkColumnName + " LIMIT ?";
+        log.debug("按主键批量查询数据的sql: {}", sql);
+        return batchQuery(sql, Arrays.asList(fromPk, limit), columns, dataSource, clazz);
+    }
 
+    private static <T> List<T> batchQuery(String sql, List<Object> params, List<LocalColumn> columns,
+                                          DataSource dataSource, Class<T> clazz) {
         List<T> result = new ArrayList<>();
         try (Connection connection = dataSource.getConnection();
-             PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
-            stmt.setInt(1, toIndex - fromIndex);
-            stmt.setInt(2, fromIndex);
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            bindParams(stmt, params);
+            ColumnDecoder[] decoders = ColumnDecoder.of(columns);
             try (ResultSet resultSet = stmt.executeQuery()) {
-                if (columns.size() == 1 && columns.get(0).getField() == null) {
-                    while (resultSet.next()) {
-                        result.add(clazz.cast(fromDbValue(resultSet, columns.get(0), clazz)));
-                    }
-                } else {
-                    while (resultSet.next()) {
-                        T obj = clazz.getDeclaredConstructor().newInstance();
-                        // 通过sql的返回结果，使用反射来填充这些字段
-                        for (LocalColumn column : columns) {
-                            if (column.getField() != null) {
-                                column.getField().setAccessible(true);
-                                Object value = fromDbValue(resultSet, column, column.getField().getType());
-                                if (value != null) {
-                                    column.getField().set(obj, value);
-                                }
-                            }
-                        }
-                        result.add(obj);
-                    }
+                while (resultSet.next()) {
+                    result.add(readRow(resultSet, decoders, clazz));
                 }
             }
         } catch (Exception e) {
@@ -246,322 +290,1636 @@ public class DBUtil {
     }
 
     /**
-     * 执行sql
+     * 批量查询，把每一行解码到同一个复用的对象中再交给消费者，遍历过程中不为每一行创建新对象。
+     * 按偏移量跳过前面的行，用于没有位置索引的 Map 内部的表
      *
-     * @param dataSource 数据源
-     * @param sql        sql
-     * @return 执行结果
+     * @param fromIndex    开始索引
+     * @param toIndex      结束索引
+     * @param tableName    表名
+     * @param columns      列定义
+     * @param pkColumnName 主键列名
+     * @param dataSource   数据源
+     * @param clazz        数据类型
+     * @param reuse        复用的对象
+     * @param action       消费者，调用返回后对象的内容就会被下一行覆盖
+     * @param <T>          数据类型
+     * @return 读取的行数
      */
-    @SuppressWarnings("UnusedReturnValue")
-    public static boolean executeSql(DataSource dataSource, String sql) {
+    public static <T> int batchQueryInto(int fromIndex, int toIndex, String tableName, List<LocalColumn> columns,
+                                         String pkColumnName, DataSource dataSource, Class<T> clazz,
+                                         T reuse, Consumer<? super T> action) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(selectColumns(columns)).append(" FROM ")
+                .append(tableName)
+                .append(" ORDER BY ")
+                .append(pkColumnName)
+                .append(" LIMIT ? OFFSET ?");
+
+        log.debug("批量复用查询数据的sql: {}", sql);
+        return batchQueryInto(sql.toString(), Arrays.asList(toIndex - fromIndex, fromIndex), columns, dataSource,
+                clazz, reuse, action);
+    }
+
+    /**
+     * 从指定的主键开始批量查询，把每一行解码到同一个复用的对象中再交给消费者，通过主键索引定位
+     *
+     * @param fromPk       起始主键(包含)
+     * @param limit        最多读取的行数
+     * @param tableName    表名
+     * @param columns      列定义
+     * @param pkColumnName 主键列名
+     * @param dataSource   数据源
+     * @param clazz        数据类型
+     * @param reuse        复用的对象
+     * @param action       消费者，调用返回后对象的内容就会被下一行覆盖
+     * @param <T>          数据类型
+     * @return 读取的行数
+     */
+    public static <T> int batchQueryIntoByPk(long fromPk, int limit, String tableName, List<LocalColumn> columns,
+                                             String pkColumnName, DataSource dataSource, Class<T> clazz,
+                                             T reuse, Consumer<? super T> action) {
+        String sql = "SELECT " + selectColumns(columns) + " FROM " + tableName + " WHERE " + pkColumnName
+                + " >= ? ORDER BY " + pkColumnName + " LIMIT ?";
+        log.debug("按主键批量复用查询数据的sql: {}", sql);
+        return batchQueryInto(sql, Arrays.asList(fromPk, limit), columns, dataSource, clazz, reuse, action);
+    }
+
+    private static <T> int batchQueryInto(String sql, List<Object> params, List<LocalColumn> columns,
+                                          DataSource dataSource, Class<T> clazz, T reuse, Consumer<? super T> action) {
+        int count = 0;
         try (Connection connection = dataSource.getConnection();
-             Statement statement = connection.createStatement()) {
-            statement.execute(sql);
-            return true;
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            bindParams(stmt, params);
+            ColumnDecoder[] decoders = ColumnDecoder.of(columns);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    action.accept(readRowInto(resultSet, decoders, clazz, reuse));
+                    count++;
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return count;
+    }
+
+    /**
+     * 按主键顺序流式读取整张表，只执行一次查询，通过一个只向前的游标边读边解码。
+     * 遍历结束或者流被关闭时释放游标和连接，没有遍历完就不再使用时必须关闭流
+     *
+     * @param tableName    表名
+     * @param columns      列定义
+     * @param pkColumnName 主键列名
+     * @param dataSource   数据源
+     * @param clazz        数据类型
+     * @param <T>          数据类型
+     * @return 数据流
+     */
+    public static <T> Stream<T> stream(String tableName, List<LocalColumn> columns, String pkColumnName,
+                                       DataSource dataSource, Class<T> clazz) {
+        String sql = "SELECT " + selectColumns(columns) + " FROM " + tableName + " ORDER BY " + pkColumnName;
+        log.debug("流式查询数据的sql: {}", sql);
+        return openCursor(sql, Collections.emptyList(), columns, dataSource, clazz);
+    }
+
+    /**
+     * 按主键顺序流式读取主键在 (fromPk, toPk] 范围内的数据，通过主键索引定位，不用 OFFSET 跳过前面的行
+     *
+     * @param fromPk       起始主键(不包含)
+     * @param toPk         结束主键(包含)
+     * @param tableName    表名
+     * @param columns      列定义
+     * @param pkColumnName 主键列名
+     * @param dataSource   数据源
+     * @param clazz        数据类型
+     * @param <T>          数据类型
+     * @return 数据流，遍历结束或者流关闭时释放游标
+     */
+    public static <T> Stream<T> streamByPk(long fromPk, long toPk, String tableName, List<LocalColumn> columns,
+                                           String pkColumnName, DataSource dataSource, Class<T> clazz) {
+        String sql = "SELECT " + selectColumns(columns) + " FROM " + tableName + " WHERE " + pkColumnName
+                + " > ? AND " + pkColumnName + " <= ? ORDER BY " + pkColumnName;
+        log.debug("按主键范围流式查询数据的sql: {}", sql);
+        return openCursor(sql, Arrays.asList(fromPk, toPk), columns, dataSource, clazz);
+    }
+
+    /**
+     * 查询主键的最小值和最大值
+     *
+     * @param tableName    表名
+     * @param pkColumnName 主键列名
+     * @param dataSource   数据源
+     * @return 最小和最大的主键，表为空时返回 null
+     */
+    public static long[] pkRange(String tableName, String pkColumnName, DataSource dataSource) {
+        String sql = "SELECT MIN(" + pkColumnName + "), MAX(" + pkColumnName + ") FROM " + tableName;
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            long min = rs.getLong(1);
+            if (rs.wasNull()) {
+                return null;
+            }
+            return new long[]{min, rs.getLong(2)};
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * 查询单个数据
+     * 按查询条件流式读取数据，过滤、排序和分页都在数据库中完成
      *
-     * @param dataSource 数据源
-     * @param sql        sql
-     * @param columns    列定义
-     * @param clazz      数据类型
-     * @param <T>        数据类型
-     * @return 数据
+     * @param condition      查询条件
+     * @param tableName      表名
+     * @param columns        列定义
+     * @param pkColumnName   主键列名
+     * @param databaseEngine 数据库引擎
+     * @param dataSource     数据源
+     * @param clazz          数据类型
+     * @param <T>            数据类型
+     * @return 数据流，遍历结束或者流关闭时释放游标
      */
-    @SuppressWarnings("unchecked")
-    public static <T> T querySingle(DataSource dataSource, String sql, List<LocalColumn> columns, Class<T> clazz) {
-        // 通过数据源进行查询，返回一个对象
+    public static <T> Stream<T> query(LocalQueryCondition condition, String tableName, List<LocalColumn> columns,
+                                      String pkColumnName, String databaseEngine, DataSource dataSource, Class<T> clazz) {
+        String sql = "SELECT " + selectColumns(columns) + " FROM " + tableName + " " + SOURCE_ALIAS
+                + buildQueryClause(condition, columns, pkColumnName, databaseEngine);
+        log.debug("按条件查询数据的sql: {}", sql);
+        return openCursor(sql, condition.getParams(), columns, dataSource, clazz);
+    }
+
+    /**
+     * 把按条件查询出的行直接插入到目标表，数据不经过 Java 对象。
+     * 目标表和源表的存储列需要一致，字典编码的列会先把源表的字典按相同的编码复制到目标表的字典中
+     *
+     * @param condition       查询条件
+     * @param sourceTableName 源表名
+     * @param sourceColumns   源表的列定义
+     * @param pkColumnName    源表的主键列名
+     * @param databaseEngine  数据库引擎
+     * @param dataSource      数据源
+     * @param targetTableName 目标表名
+     * @param targetColumns   目标表的列定义
+     * @return 插入的行数
+     */
+    public static int insertQuery(LocalQueryCondition condition, String sourceTableName, List<LocalColumn> sourceColumns,
+                                  String pkColumnName, String databaseEngine, DataSource dataSource,
+                                  String targetTableName, List<LocalColumn> targetColumns) {
+        copyDictionaries(sourceTableName, sourceColumns, targetTableName, targetColumns);
+        String columnList = selectColumns(targetColumns);
+        String sql = "INSERT INTO " + targetTableName + " (" + columnList + ") SELECT " + columnList
+                + " FROM " + sourceTableName + " " + SOURCE_ALIAS
+                + buildQueryClause(condition, sourceColumns, pkColumnName, databaseEngine);
+        log.debug("按条件复制数据的sql: {}", sql);
+        return insertSelect(sql, condition.getParams(), targetColumns, dataSource);
+    }
+
+    /**
+     * 把去重后的行直接插入到目标表，数据不经过 Java 对象。
+     * 去重列的值相同的行只保留主键最小（或者最大）的一行，插入时保持这些行原有的先后顺序
+     *
+     * @param keyColumns      去重的列名
+     * @param keepLast        是否保留最后出现的一行，否则保留第一次出现的一行
+     * @param sourceTableName 源表名
+     * @param sourceColumns   源表的列定义
+     * @param pkColumnName    源表的主键列名
+     * @param dataSource      数据源
+     * @param targetTableName 目标表名
+     * @param targetColumns   目标表的列定义
+     * @return 插入的行数
+     */
+    public static int insertDistinct(List<String> keyColumns, boolean keepLast, String sourceTableName,
+                                     List<LocalColumn> sourceColumns, String pkColumnName, DataSource dataSource,
+                                     String targetTableName, List<LocalColumn> targetColumns) {
+        if (keyColumns.isEmpty()) {
+            throw new IllegalArgumentException("去重的列不能为空");
+        }
+        copyDictionaries(sourceTableName, sourceColumns, targetTableName, targetColumns);
+        String columnList = selectColumns(targetColumns);
+        // 字典编码的列相同的值编码也相同，直接按编码分组即可
+        String sql = "INSERT INTO " + targetTableName + " (" + columnList + ") SELECT " + columnList
+                + " FROM " + sourceTableName + " " + SOURCE_ALIAS
+                + " WHERE " + SOURCE_ALIAS + "." + pkColumnName + " IN (SELECT " + (keepLast ? "MAX(" : "MIN(")
+                + pkColumnName + ") FROM " + sourceTableName + " GROUP BY " + String.join(", ", keyColumns) + ")"
+                + " ORDER BY " + SOURCE_ALIAS + "." + pkColumnName;
+        log.debug("去重复制数据的sql: {}", sql);
+        return insertSelect(sql, Collections.emptyList(), targetColumns, dataSource);
+    }
+
+    /**
+     * 检查源表和目标表的存储列一致，并把源表的字典按相同的编码复制到目标表的字典中
+     */
+    private static void copyDictionaries(String sourceTableName, List<LocalColumn> sourceColumns,
+                                         String targetTableName, List<LocalColumn> targetColumns) {
+        if (!selectColumns(sourceColumns).equals(selectColumns(targetColumns))) {
+            throw new IllegalStateException("源表和目标表的存储列不一致: " + sourceTableName + " -> " + targetTableName);
+        }
+        for (int i = 0; i < sourceColumns.size(); i++) {
+            StringDictionary dictionary = sourceColumns.get(i).getDictionary();
+            if (dictionary != null) {
+                targetColumns.get(i).getDictionary().copyFrom(dictionary);
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中写入目标表的字典并执行 INSERT ... SELECT
+     */
+    private static int insertSelect(String sql, List<Object> params, List<LocalColumn> targetColumns,
+                                    DataSource dataSource) {
         try (Connection connection = dataSource.getConnection();
-             Statement statement = connection.createStatement()) {
-            ResultSet resultSet = statement.executeQuery(sql);
-            if (columns.size() == 2 && columns.get(1).getField() == null && columns.get(0).getColumnName().startsWith("key_")) {
-                    // map来获取列时，直接使用列的名称即可
-                    if (resultSet.next()) {
-                        return clazz.cast(fromDbValue(resultSet, columns.get(1), clazz));
-                    }
-                    return null;
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            connection.setAutoCommit(false);
+            try {
+                Map<StringDictionary, Integer> written = flushDictionaries(connection, targetColumns);
+                bindParams(stmt, params);
+                int inserted = stmt.executeUpdate();
+                connection.commit();
+                markDictionariesFlushed(written);
+                return inserted;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 把查询条件编译成 FROM 之后的 SQL 片段，条件和排序中引用的字典编码列会被替换成解码后的字符串。
+     * 有主键时总是以主键作为最后的排序字段，没有指定排序时保持列表原有的顺序，排序值相同的行也保持原有的先后顺序
+     *
+     * @param condition      查询条件
+     * @param columns        源表的列定义
+     * @param pkColumnName   源表的主键列名
+     * @param databaseEngine 数据库引擎
+     * @return SQL片段
+     */
+    public static String buildQueryClause(LocalQueryCondition condition, List<LocalColumn> columns,
+                                          String pkColumnName, String databaseEngine) {
+        StringBuilder clause = new StringBuilder(buildWhereClause(condition, columns));
+        String orderBy = buildOrderByList(condition.getOrderByClauses(), columns, pkColumnName);
+        if (!orderBy.isEmpty()) {
+            clause.append(" ORDER BY ").append(orderBy);
+        }
+        clause.append(SqlDialectUtil.buildLimitClause(condition.getLimit(), condition.getOffset(), databaseEngine));
+        return clause.toString();
+    }
+
+    /**
+     * 拼接 ORDER BY 后面的排序列表，有主键时以主键作为最后的排序字段
+     *
+     * @param orderByClauses 排序，比如 score desc
+     * @param columns        源表的列定义
+     * @param pkColumnName   源表的主键列名
+     * @return 排序列表，没有排序字段时返回空字符串
+     */
+    private static String buildOrderByList(List<String> orderByClauses, List<LocalColumn> columns, String pkColumnName) {
+        List<String> orderByList = new ArrayList<>();
+        for (String orderBy : orderByClauses) {
+            orderByList.add(decodeDictionaryColumns(orderBy, columns));
+        }
+        if (pkColumnName != null) {
+            orderByList.add(SOURCE_ALIAS + "." + pkColumnName);
+        }
+        return String.join(", ", orderByList);
+    }
+
+    /**
+     * 按指定的排序重写整张表，数据不经过 Java 对象。
+     * 先用 ROW_NUMBER() 把排序后的序号和数据复制到临时表，再在同一个事务中清空原表，按序号作为主键写回，
+     * 写回后主键从 1 开始连续，排序值相同的行保持原有的先后顺序
+     *
+     * @param orderByClauses 排序，比如 score desc
+     * @param tableName      表名
+     * @param columns        列定义
+     * @param pkColumnName   主键列名
+     * @param databaseEngine 数据库引擎
+     * @param dataSource     数据源
+     * @return 表中的行数
+     */
+    public static int sortBy(List<String> orderByClauses, String tableName, List<LocalColumn> columns,
+                             String pkColumnName, String databaseEngine, DataSource dataSource) {
+        return rewriteOrder(orderByClauses, 1, tableName, columns, pkColumnName, databaseEngine, dataSource);
+    }
+
+    /**
+     * 整张表重新编号时相邻两行主键之间的间隔
+     */
+    public static final long POSITIONAL_INSERT_GAP = 1L << 20;
+
+    /**
+     * 局部重新编号后相邻两行主键之间的最小间隔，达不到时扩大重新编号的范围。
+     * 在同一个位置连续插入时每次用掉一半的间隔，大约 10 次之后才需要再次局部重新编号
+     */
+    private static final long POSITIONAL_INSERT_MIN_SPACING = 1L << 10;
+
+    /**
+     * 把数据插入到指定的位置，列表的顺序就是主键的顺序，新的行使用前后两行主键之间空出的主键，不需要移动其他行。
+     * 前后两行之间的主键不够用时，只把插入位置附近的一段行重新编号，这一段从插入位置向两边成倍扩大，
+     * 直到平均间隔不小于 {@link #POSITIONAL_INSERT_MIN_SPACING}；整张表都不够用时，按 {@link #POSITIONAL_INSERT_GAP}
+     * 的间隔把整张表重新编号。主键连续（从来没有删除和按位置插入过）时没有任何空位，第一次插入会直接把整张表重新编号。
+     * 插入位置前后两行的主键由调用方通过位置索引查出来传入，这里不按偏移量查询
+     *
+     * @param index          插入的位置，需要小于表中的行数
+     * @param prevPk         插入位置前一行的主键，插入到第一行之前时是 0，主键连续时不使用
+     * @param nextPk         插入位置当前这一行的主键，主键连续时不使用
+     * @param densePk        主键是否从 1 开始连续，连续时第 i 行的主键就是 i + 1
+     * @param rows           要插入的数据
+     * @param tableName      表名
+     * @param columns        列定义
+     * @param pkColumnName   主键列名
+     * @param databaseEngine 数据库引擎
+     * @param dataSource     数据源
+     * @param <T>            数据类型
+     * @return 主键发生变化的范围 (lo, hi)，不包含两端，新的行和局部重新编号的行都在这个范围内；整张表重新编号过时返回 null
+     */
+    public static <T> long[] insertAt(int index, long prevPk, long nextPk, boolean densePk, Collection<? extends T> rows,
+                                      String tableName, List<LocalColumn> columns, String pkColumnName,
+                                      String databaseEngine, DataSource dataSource) {
+        int n = rows.size();
+        long prev = prevPk;
+        long next = nextPk;
+        if (densePk) {
+            log.debug("主键连续，没有空位，整张表重新编号: {}", tableName);
+            rewriteOrder(Collections.emptyList(), POSITIONAL_INSERT_GAP, tableName, columns, pkColumnName, databaseEngine, dataSource);
+            prev = index * POSITIONAL_INSERT_GAP;
+            next = (index + 1) * POSITIONAL_INSERT_GAP;
+        }
+        String sql = "INSERT INTO " + tableName + " (" + pkColumnName + ", " + selectColumns(columns) + ") VALUES ("
+                + String.join(", ", Collections.nCopies(columns.size() + 1, "?")) + ")";
+        log.debug("按位置插入数据的sql: {}", sql);
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                long[] newPks = null;
+                long[] changed = {prev, next};
+                if (next - prev - 1 < n) {
+                    newPks = renumberWindow(connection, prev, next, n, tableName, pkColumnName, changed);
                 }
-                if (columns.size() == 1 && columns.get(0).getField() == null) {
-                    // 说明是简单数据，直接返回
-                    if (resultSet.next()) {
-                        return clazz.cast(fromDbValue(resultSet, columns.get(0), clazz));
-                    }
+                if (newPks == null && next - prev - 1 < n) {
+                    // 整张表都没有足够的空位，在事务外面整张表重新编号
+                    connection.rollback();
                 } else {
-                    if (resultSet.next()) {
-                        T t = clazz.getDeclaredConstructor().newInstance();
-                        // 通过sql的返回结果，使用反射来填充这些字段
-                        for (LocalColumn column : columns) {
-                            Field field = column.getField();
-                            field.setAccessible(true);
-                            Object value = fromDbValue(resultSet, column, column.getField().getType());
-                            if (value != null) {
-                                field.set(t, value);
-                            }
+                    if (newPks == null) {
+                        // 新的行在前后两行之间均匀分布，给之后的插入留出空位
+                        long step = (next - prev) / (n + 1);
+                        newPks = new long[n];
+                        for (int i = 0; i < n; i++) {
+                            newPks[i] = prev + step * (i + 1);
                         }
-                        return t;
                     }
+                    int i = 0;
+                    for (T row : rows) {
+                        stmt.setLong(1, newPks[i++]);
+                        bindRow(stmt, 2, columns, row);
+                        stmt.addBatch();
+                    }
+                    Map<StringDictionary, Integer> written = flushDictionaries(connection, columns);
+                    stmt.executeBatch();
+                    connection.commit();
+                    markDictionariesFlushed(written);
+                    return densePk ? null : changed;
+                }
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
-            return null;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        log.debug("局部没有足够的空位，整张表重新编号: {}", tableName);
+        long gap = Math.max(POSITIONAL_INSERT_GAP, n + 1L);
+        rewriteOrder(Collections.emptyList(), gap, tableName, columns, pkColumnName, databaseEngine, dataSource);
+        // 重新编号后第 i 行的主键是 (i + 1) * gap
+        insertAt(index, index * gap, (index + 1) * gap, false, rows, tableName, columns, pkColumnName, databaseEngine, dataSource);
+        return null;
+    }
+
+    /**
+     * 把插入位置附近的一段行重新编号，给 n 个新的行留出空位。这一段从插入位置向两边成倍扩大，
+     * 只通过主键索引向前后各读取一段主键，不需要按偏移量查询。
+     * 已有的行先改成负数的新主键再取反，避免更新过程中和其他行的主键冲突
+     *
+     * @param changed 重新编号时放入这一段的边界 (lo, hi)，重新编号的行前后的主键都在这个范围内
+     * @return 新的行使用的主键，整张表都没有足够的空位时返回 null
+     */
+    private static long[] renumberWindow(Connection connection, long prev, long next, int n, String tableName,
+                                         String pkColumnName, long[] changed) throws SQLException {
+        String beforeSql = "SELECT " + pkColumnName + " FROM " + tableName + " WHERE " + pkColumnName + " <= ? ORDER BY "
+                + pkColumnName + " DESC LIMIT ?";
+        String afterSql = "SELECT " + pkColumnName + " FROM " + tableName + " WHERE " + pkColumnName + " >= ? ORDER BY "
+                + pkColumnName + " LIMIT ?";
+        for (int w = Math.max(n, 8); ; w *= 2) {
+            // 多读一行作为这一段的边界
+            List<Long> before = prev == 0 ? Collections.emptyList() : selectPks(connection, beforeSql, prev, w + 1);
+            List<Long> after = selectPks(connection, afterSql, next, w + 1);
+            boolean startReached = before.size() <= w;
+            boolean endReached = after.size() <= w;
+            long lo = startReached ? 0 : before.get(w);
+            // 到达最后一行时，最后一行的主键不变大，之后追加的行仍然使用自增主键
+            long hi = endReached ? after.get(after.size() - 1) + 1 : after.get(w);
+            int beforeCount = Math.min(before.size(), w);
+            int afterCount = Math.min(after.size(), w);
+            long spacing = (hi - lo) / (beforeCount + n + afterCount + 1);
+            if (spacing < POSITIONAL_INSERT_MIN_SPACING) {
+                if (startReached && endReached) {
+                    return null;
+                }
+                if (w > Integer.MAX_VALUE / 4) {
+                    return null;
+                }
+                continue;
+            }
+            log.debug("局部重新编号: {} {} {}", tableName, beforeCount + afterCount, spacing);
+            changed[0] = lo;
+            changed[1] = hi;
+            String updateSql = "UPDATE " + tableName + " SET " + pkColumnName + " = ? WHERE " + pkColumnName + " = ?";
+            long[] newPks = new long[n];
+            try (PreparedStatement update = connection.prepareStatement(updateSql)) {
+                long slot = lo;
+                for (int i = beforeCount - 1; i >= 0; i--) {
+                    slot += spacing;
+                    update.setLong(1, -slot);
+                    update.setLong(2, before.get(i));
+                    update.addBatch();
+                }
+                for (int i = 0; i < n; i++) {
+                    slot += spacing;
+                    newPks[i] = slot;
+                }
+                for (int i = 0; i < afterCount; i++) {
+                    slot += spacing;
+                    update.setLong(1, -slot);
+                    update.setLong(2, after.get(i));
+                    update.addBatch();
+                }
+                update.executeBatch();
+            }
+            try (Statement negate = connection.createStatement()) {
+                negate.executeUpdate("UPDATE " + tableName + " SET " + pkColumnName + " = -" + pkColumnName
+                        + " WHERE " + pkColumnName + " < 0");
+            }
+            return newPks;
+        }
+    }
+
+    private static List<Long> selectPks(Connection connection, String sql, long pk, int limit) throws SQLException {
+        List<Long> pks = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, pk);
+            stmt.setInt(2, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    pks.add(rs.getLong(1));
+                }
+            }
+        }
+        return pks;
+    }
+
+    /**
+     * 按指定的排序重写整张表，写回时第 n 行的主键是 n * step
+     */
+    private static int rewriteOrder(List<String> orderByClauses, long step, String tableName, List<LocalColumn> columns,
+                                    String pkColumnName, String databaseEngine, DataSource dataSource) {
+        String sortTableName = "tmp_sort_" + UUID.randomUUID().toString().replace("-", "");
+        String sortSeqColumn = "sort_seq";
+        StringBuilder createSql = new StringBuilder("CREATE TABLE ").append(sortTableName)
+                .append(" (").append(sortSeqColumn).append(" BIGINT");
+        for (LocalColumn column : columns) {
+            createSql.append(", ").append(column.getColumnName()).append(" ").append(column.getDbType());
+        }
+        createSql.append(")");
+        String columnList = selectColumns(columns);
+        String copySql = "INSERT INTO " + sortTableName + " (" + sortSeqColumn + ", " + columnList + ") SELECT ROW_NUMBER() OVER (ORDER BY "
+                + buildOrderByList(orderByClauses, columns, pkColumnName) + "), " + columnList
+                + " FROM " + tableName + " " + SOURCE_ALIAS;
+        String writeBackSql = "INSERT INTO " + tableName + " (" + pkColumnName + ", " + columnList + ") SELECT "
+                + (step == 1 ? sortSeqColumn : sortSeqColumn + " * " + step) + ", " + columnList + " FROM " + sortTableName;
+        log.debug("排序复制数据的sql: {}", copySql);
+        // 建表放在事务外面，h2 的 DDL 会提交当前事务
+        executeSql(dataSource, createSql.toString());
+        try (Connection connection = dataSource.getConnection();
+             Statement stmt = connection.createStatement()) {
+            int rows;
+            connection.setAutoCommit(false);
+            try {
+                rows = stmt.executeUpdate(copySql);
+                stmt.executeUpdate("DELETE FROM " + tableName);
+                stmt.executeUpdate(writeBackSql);
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            stmt.execute(SqlDialectUtil.buildRestartIdentitySql(tableName, pkColumnName, rows * step + 1L, databaseEngine));
+            return rows;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            executeSql(dataSource, "DROP TABLE IF EXISTS " + sortTableName);
+        }
+    }
 
-        } catch (SQLException | InstantiationException | IllegalAccessException | InvocationTargetException |
-                 NoSuchMethodException e) {
+    /**
+     * 替换全部数据时，每批写入的行数
+     */
+    private static final int REPLACE_BATCH_SIZE = 1000;
+
+    /**
+     * 用给定的数据替换表中的全部数据，清空和写入在同一个事务中完成。
+     * 写入时主键从 1 开始按顺序指定，写完后把自增序列重置到最后一个主键之后
+     *
+     * @param rows           新的数据，按顺序写入
+     * @param tableName      表名
+     * @param columns        列定义
+     * @param pkColumnName   主键列名
+     * @param databaseEngine 数据库引擎
+     * @param dataSource     数据源
+     * @param <T>            数据类型
+     * @return 写入的行数
+     */
+    public static <T> int replaceAll(Iterator<? extends T> rows, String tableName, List<LocalColumn> columns,
+                                     String pkColumnName, String databaseEngine, DataSource dataSource) {
+        String sql = "INSERT INTO " + tableName + " (" + pkColumnName + ", " + selectColumns(columns) + ") VALUES ("
+                + String.join(", ", Collections.nCopies(columns.size() + 1, "?")) + ")";
+        log.debug("替换全部数据的sql: {}", sql);
+        int written = 0;
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            connection.setAutoCommit(false);
+            try {
+                try (Statement delete = connection.createStatement()) {
+                    delete.executeUpdate("DELETE FROM " + tableName);
+                }
+                Map<StringDictionary, Integer> dictionaryWritten = new IdentityHashMap<>();
+                while (rows.hasNext()) {
+                    stmt.setLong(1, ++written);
+                    bindRow(stmt, 2, columns, rows.next());
+                    stmt.addBatch();
+                    if (written % REPLACE_BATCH_SIZE == 0) {
+                        flushDictionaries(connection, columns, dictionaryWritten);
+                        stmt.executeBatch();
+                    }
+                }
+                flushDictionaries(connection, columns, dictionaryWritten);
+                stmt.executeBatch();
+                connection.commit();
+                markDictionariesFlushed(dictionaryWritten);
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            try (Statement restart = connection.createStatement()) {
+                restart.execute(SqlDialectUtil.buildRestartIdentitySql(tableName, pkColumnName, written + 1L, databaseEngine));
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        return written;
+    }
+
+    /**
+     * 把查询条件中的过滤条件编译成 WHERE 子句，多个条件之间用 AND 连接
+     *
+     * @param condition 查询条件
+     * @param columns   源表的列定义
+     * @return WHERE 子句，没有过滤条件时返回空字符串
+     */
+    public static String buildWhereClause(LocalQueryCondition condition, List<LocalColumn> columns) {
+        if (condition.getWhereClauses().isEmpty()) {
+            return "";
+        }
+        return condition.getWhereClauses().stream()
+                .map(where -> "(" + decodeDictionaryColumns(where, columns) + ")")
+                .collect(Collectors.joining(" AND ", " WHERE ", ""));
+    }
+
+    /**
+     * 在数据库中执行一次聚合查询，不创建中间表，结果行数和分组数相同，没有分组时只有一行
+     *
+     * @param selectExpressions 输出的表达式，分组列在前，聚合表达式在后
+     * @param resultColumns     和输出表达式一一对应的列定义，用于按类型读取结果
+     * @param groupByColumns    分组的列名，没有分组时为空
+     * @param condition         查询条件，只使用其中的过滤条件
+     * @param tableName         表名
+     * @param columns           表的列定义
+     * @param dataSource        数据源
+     * @return 每一行的结果，按分组列排序
+     */
+    public static List<Object[]> aggregate(List<String> selectExpressions, List<LocalColumn> resultColumns,
+                                           List<String> groupByColumns, LocalQueryCondition condition,
+                                           String tableName, List<LocalColumn> columns, DataSource dataSource) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(String.join(", ", selectExpressions))
+                .append(" FROM ").append(tableName).append(" ").append(SOURCE_ALIAS)
+                .append(buildWhereClause(condition, columns));
+        if (!groupByColumns.isEmpty()) {
+            String groupBy = groupByColumns.stream().map(column -> SOURCE_ALIAS + "." + column).collect(Collectors.joining(", "));
+            sql.append(" GROUP BY ").append(groupBy).append(" ORDER BY ").append(groupBy);
+        }
+        log.debug("聚合查询的sql: {}", sql);
+        ColumnDecoder[] decoders = ColumnDecoder.of(resultColumns);
+        List<Object[]> rows = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+            bindParams(stmt, condition.getParams());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Object[] row = new Object[decoders.length];
+                    for (int i = 0; i < decoders.length; i++) {
+                        row[i] = decoders[i].read(rs);
+                    }
+                    rows.add(row);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return rows;
+    }
+
+    private static <T> Stream<T> openCursor(String sql, List<Object> params, List<LocalColumn> columns,
+                                            DataSource dataSource, Class<T> clazz) {
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        try {
+            connection = dataSource.getConnection();
+            stmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(MainConfig.DB_FETCH_SIZE.getPropertyInt());
+            bindParams(stmt, params);
+            CursorSpliterator<T> cursor = new CursorSpliterator<>(connection, stmt, stmt.executeQuery(),
+                    ColumnDecoder.of(columns), clazz);
+            return StreamSupport.stream(cursor, false).onClose(cursor::close);
+        } catch (SQLException e) {
+            closeQuietly(stmt);
+            closeQuietly(connection);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 每条删除语句中主键的个数
+     */
+    private static final int DELETE_BATCH_SIZE = 500;
+
+    /**
+     * 按条件批量删除。通过只向前的游标按主键顺序读取并判断每一行，命中的主键攒成一批，
+     * 用 DELETE ... WHERE pk IN (...) 在另一个连接上删除，所有的删除在同一个事务中提交
+     *
+     * @param filter       删除条件
+     * @param tableName    表名
+     * @param columns      列定义
+     * @param pkColumnName 主键列名
+     * @param dataSource   数据源
+     * @param clazz        数据类型
+     * @param <T>          数据类型
+     * @return 删除的行数
+     */
+    public static <T> int removeIf(Predicate<? super T> filter, String tableName, List<LocalColumn> columns,
+                                   String pkColumnName, DataSource dataSource, Class<T> clazz) {
+        // 主键放在最后，解码器按列定义的下标读取
+        String sql = "SELECT " + selectColumns(columns) + ", " + pkColumnName + " FROM " + tableName
+                + " ORDER BY " + pkColumnName;
+        log.debug("按条件删除数据的查询sql: {}", sql);
+        int pkOrdinal = columns.size() + 1;
+        int removed = 0;
+        try (Connection readConnection = dataSource.getConnection();
+             PreparedStatement query = readConnection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+             Connection writeConnection = dataSource.getConnection()) {
+            query.setFetchSize(MainConfig.DB_FETCH_SIZE.getPropertyInt());
+            writeConnection.setAutoCommit(false);
+            try {
+                ColumnDecoder[] decoders = ColumnDecoder.of(columns);
+                List<Long> pks = new ArrayList<>(DELETE_BATCH_SIZE);
+                try (ResultSet rs = query.executeQuery()) {
+                    while (rs.next()) {
+                        if (filter.test(readRow(rs, decoders, clazz))) {
+                            pks.add(rs.getLong(pkOrdinal));
+                            if (pks.size() == DELETE_BATCH_SIZE) {
+                                removed += deleteByPks(writeConnection, tableName, pkColumnName, pks);
+                                pks.clear();
+                            }
+                        }
+                    }
+                }
+                if (!pks.isEmpty()) {
+                    removed += deleteByPks(writeConnection, tableName, pkColumnName, pks);
+                }
+                writeConnection.commit();
+            } catch (SQLException | RuntimeException e) {
+                writeConnection.rollback();
+                throw e;
+            } finally {
+                writeConnection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return removed;
+    }
+
+    private static int deleteByPks(Connection connection, String tableName, String pkColumnName, List<Long> pks) throws SQLException {
+        String sql = "DELETE FROM " + tableName + " WHERE " + pkColumnName + " IN ("
+                + String.join(", ", Collections.nCopies(pks.size(), "?")) + ")";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int i = 0; i < pks.size(); i++) {
+                stmt.setLong(i + 1, pks.get(i));
+            }
+            return stmt.executeUpdate();
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            log.warn("关闭数据库资源失败", e);
+        }
+    }
+
+    /**
+     * 基于只向前游标的 Spliterator，读到最后一行后自动释放资源
+     *
+     * @param <T> 数据类型
+     */
+    private static final class CursorSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+        private final Connection connection;
+        private final PreparedStatement stmt;
+        private final ResultSet resultSet;
+        private final ColumnDecoder[] decoders;
+        private final Class<T> clazz;
+        private boolean closed;
+
+        CursorSpliterator(Connection connection, PreparedStatement stmt, ResultSet resultSet,
+                          ColumnDecoder[] decoders, Class<T> clazz) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+            this.connection = connection;
+            this.stmt = stmt;
+            this.resultSet = resultSet;
+            this.decoders = decoders;
+            this.clazz = clazz;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (closed) {
+                return false;
+            }
+            T next;
+            try {
+                if (!resultSet.next()) {
+                    close();
+                    return false;
+                }
+                next = readRow(resultSet, decoders, clazz);
+            } catch (SQLException e) {
+                close();
+                throw new RuntimeException(e);
+            }
+            action.accept(next);
+            return true;
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeQuietly(resultSet);
+            closeQuietly(stmt);
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * 执行sql
+     *
+     * @param dataSource 数据源
+     * @param sql        sql
+     * @return 执行结果
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public static boolean executeSql(DataSource dataSource, String sql) {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+            return true;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 查询单个数据
+     *
+     * @param dataSource 数据源
+     * @param sql        sql
+     * @param columns    列定义
+     * @param clazz      数据类型
+     * @param <T>        数据类型
+     * @return 数据
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T querySingle(DataSource dataSource, String sql, List<LocalColumn> columns, Class<T> clazz) {
+        // 通过数据源进行查询，返回一个对象
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            ResultSet resultSet = statement.executeQuery(sql);
+            if (resultSet.next()) {
+                return readRow(resultSet, ColumnDecoder.of(columns), clazz);
+            }
+            return null;
+
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 查询数据量
+     *
+     * @param tableName  表名
+     * @param dataSource 数据源
+     * @return 数据量
+     */
+    public static Integer size(String tableName, DataSource dataSource) {
+        // 查询表的数据量
+        StringBuilder sql = new StringBuilder("select count(*) AS count from ").append(tableName);
+        log.debug("查询数据量的sql: {}", sql);
+        return DBUtil.querySingle(dataSource, sql.toString(), Lists.newArrayList(new LocalColumn("count", Integer.class, "INT", null)), Integer.class);
+    }
+
+    /**
+     * 用于标记drop的表的数量，主要用于单元测试，测试表的自动删除
+     */
+    public static final AtomicInteger dropTableCounter = new AtomicInteger(0);
+
+    /**
+     * 删除表
+     *
+     * @param tableName  表名
+     * @param dataSource 数据源
+     */
+    public static void drop(String tableName, DataSource dataSource) {
+        // 删除表的数据
+        StringBuilder sql = new StringBuilder("drop table ").append(tableName);
+        log.info("删除表的sql: {}", sql);
+        DBUtil.executeSql(dataSource, sql.toString());
+        dropTableCounter.incrementAndGet();
+    }
+
+    /**
+     * 清空表
+     *
+     * @param tableName  表名
+     * @param dataSource 数据源
+     */
+    public static void clear(String tableName, DataSource dataSource) {
+        String sql = "DELETE FROM " + tableName;
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.executeUpdate();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 按主键更新数据
+     *
+     * @param pk           主键
+     * @param element      数据
+     * @param tableName    表名
+     * @param columns      列定义
+     * @param pkColumnName 主键列名
+     * @param dataSource   数据源
+     * @param <T>          数据类型
+     * @return 数据
+     */
+    public static <T> T set(long pk, T element, String tableName, List<LocalColumn> columns, String pkColumnName, DataSource dataSource) {
+        // 更新数据
+        StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+        for (LocalColumn column : columns) {
+            sql.append(column.getColumnName()).append(" = ?, ");
+        }
+        sql.setLength(sql.length() - 2);
+        sql.append(" WHERE ").append(pkColumnName).append(" = ?");
+
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+            connection.setAutoCommit(false);
+            try {
+                int parameterIndex = bindRow(stmt, 1, columns, element);
+                stmt.setLong(parameterIndex, pk);
+                Map<StringDictionary, Integer> written = flushDictionaries(connection, columns);
+                stmt.executeUpdate();
+                connection.commit();
+                markDictionariesFlushed(written);
+                return element;
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 获取从指定主键开始的第 offset 行的主键，通过主键索引定位到起始主键，只跳过 offset 行
+     *
+     * @param fromPk       起始主键(包含)
+     * @param offset       跳过的行数
+     * @param tableName    表名
+     * @param pkColumnName 主键列名
+     * @param dataSource   数据源
+     * @return 主键，没有这一行时返回 -1
+     */
+    public static long pk(long fromPk, int offset, String tableName, String pkColumnName, DataSource dataSource) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(pkColumnName).append(" FROM ").append(tableName)
+                .append(" WHERE ").append(pkColumnName).append(" >= ").append(fromPk)
+                .append(" ORDER BY ").append(pkColumnName).append(" LIMIT 1 OFFSET ").append(offset);
+        log.debug("查询数据的id的sql: {}", sql);
+        Long id = DBUtil.querySingle(dataSource, sql.toString(), Lists.newArrayList(new LocalColumn(pkColumnName, Long.class, "BIGINT", null)), Long.class);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * 统计主键在 [fromPk, toPk) 范围内的行数
+     *
+     * @param fromPk       起始主键(包含)
+     * @param toPk         结束主键(不包含)
+     * @param tableName    表名
+     * @param pkColumnName 主键列名
+     * @param dataSource   数据源
+     * @return 行数
+     */
+    public static int countPks(long fromPk, long toPk, String tableName, String pkColumnName, DataSource dataSource) {
+        String sql = "SELECT COUNT(*) FROM " + tableName + " WHERE " + pkColumnName + " >= ? AND " + pkColumnName + " < ?";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, fromPk);
+            stmt.setLong(2, toPk);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 按顺序读取主键在 [fromPk, toPk) 范围内的全部主键，只读取主键索引
+     *
+     * @param fromPk       起始主键(包含)
+     * @param toPk         结束主键(不包含)
+     * @param tableName    表名
+     * @param pkColumnName 主键列名
+     * @param dataSource   数据源
+     * @param action       消费者
+     */
+    public static void forEachPk(long fromPk, long toPk, String tableName, String pkColumnName, DataSource dataSource,
+                                 LongConsumer action) {
+        String sql = "SELECT " + pkColumnName + " FROM " + tableName + " WHERE " + pkColumnName + " >= ? AND "
+                + pkColumnName + " < ? ORDER BY " + pkColumnName;
+        log.debug("按主键范围读取主键的sql: {}", sql);
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, fromPk);
+            stmt.setLong(2, toPk);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    action.accept(rs.getLong(1));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * setParameters
+     *
+     * @param stmt   PreparedStatement
+     * @param params 参数
+     * @throws SQLException 异常
+     */
+    private static void setParameters(PreparedStatement stmt, Object... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            stmt.setObject(i + 1, params[i]);
+        }
+    }
+
+    private static Object toDbValue(LocalColumn column, Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (column.getDictionary() != null) {
+            return column.getDictionary().encode((String) value);
+        }
+        TypeCodec codec = column.getTypeCodec();
+        Object dbValue = value;
+        if (codec instanceof BinaryTypeCodec) {
+            dbValue = ((BinaryTypeCodec) codec).serializeBytes(value);
+        } else if (codec != null) {
+            dbValue = codec.serialize(value);
+        }
+        if (column.getCompressor() != null && dbValue != null) {
+            byte[] raw = dbValue instanceof byte[] ? (byte[]) dbValue : dbValue.toString().getBytes(StandardCharsets.UTF_8);
+            return column.getCompressor().compress(raw);
+        }
+        return dbValue;
+    }
+
+    /**
+     * 把一个对象绑定到插入或更新语句的参数上
+     *
+     * @param stmt           语句
+     * @param parameterIndex 开始绑定的参数下标
+     * @param columns        列定义
+     * @param obj            对象
+     * @return 下一个未绑定的参数下标
+     * @throws Exception 异常
+     */
+    private static int bindRow(PreparedStatement stmt, int parameterIndex, List<LocalColumn> columns, Object obj) throws Exception {
+        long rowHash = ROW_HASH_SEED;
+        for (LocalColumn column : columns) {
+            if (column.getRowSerializer() != null) {
+                // 整行存储：其余字段一次编码成一个二进制值
+                byte[] bytes = encodeRow(column.getRowSerializer(), obj);
+                if (column.getCompressor() != null) {
+                    bytes = column.getCompressor().compress(bytes);
+                }
+                stmt.setBytes(parameterIndex++, bytes);
+                rowHash = hashDbValue(rowHash, bytes);
+            } else if (ColumnNameUtil.isRowHashColumn(column)) {
+                // 哈希列总是最后一列，前面各列的值都已经累加到哈希中
+                stmt.setLong(parameterIndex++, rowHash);
+            } else if (column.getField() == null && columns.size() == 1) {
+                // 特殊情况：如果只有一个列且field为null，直接使用对象本身作为值
+                stmt.setObject(parameterIndex++, toDbValue(column, obj));
+            } else {
+                Object dbValue = toDbValue(column, column.getAccessor().get(obj));
+                stmt.setObject(parameterIndex++, dbValue);
+                rowHash = hashDbValue(rowHash, dbValue);
+            }
+        }
+        return parameterIndex;
+    }
+
+    /**
+     * 整行哈希的初始值，FNV-1a 64位
+     */
+    private static final long ROW_HASH_SEED = 0xcbf29ce484222325L;
+    private static final long ROW_HASH_PRIME = 0x100000001b3L;
+
+    /**
+     * 把一列编码后的值累加到整行哈希中，使用的是写入数据库的值，所以和对象的 hashCode 无关
+     *
+     * @param hash    当前的哈希
+     * @param dbValue 编码后的值
+     * @return 新的哈希
+     */
+    private static long hashDbValue(long hash, Object dbValue) {
+        if (dbValue == null) {
+            return (hash ^ 0xFF) * ROW_HASH_PRIME;
+        }
+        byte[] bytes;
+        if (dbValue instanceof byte[]) {
+            bytes = (byte[]) dbValue;
+        } else if (dbValue instanceof Date) {
+            bytes = Long.toString(((Date) dbValue).getTime()).getBytes(StandardCharsets.UTF_8);
+        } else {
+            bytes = dbValue.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        hash = (hash ^ bytes.length) * ROW_HASH_PRIME;
+        for (byte b : bytes) {
+            hash = (hash ^ (b & 0xFF)) * ROW_HASH_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * 把要查找的对象按列编码成等值查询的条件，开启了整行哈希时会带上哈希列的条件，可以走索引
+     *
+     * @param columns 列定义
+     * @param probe   要查找的对象
+     * @param where   条件
+     * @param params  条件的参数
+     * @return 对象不可能存在于表中时（例如字典中没有对应的字符串）返回 false
+     */
+    private static boolean appendProbe(List<LocalColumn> columns, Object probe, StringBuilder where, List<Object> params) {
+        boolean simple = isSimpleValue(columns);
+        long rowHash = ROW_HASH_SEED;
+        where.append("(");
+        for (int i = 0; i < columns.size(); i++) {
+            LocalColumn column = columns.get(i);
+            Object dbValue;
+            if (column.getRowSerializer() != null) {
+                byte[] bytes = encodeRow(column.getRowSerializer(), probe);
+                if (column.getCompressor() != null) {
+                    bytes = column.getCompressor().compress(bytes);
+                }
+                dbValue = bytes;
+                rowHash = hashDbValue(rowHash, dbValue);
+            } else if (ColumnNameUtil.isRowHashColumn(column)) {
+                dbValue = rowHash;
+            } else {
+                Object value = simple ? probe : column.getAccessor().get(probe);
+                if (column.getDictionary() != null && value != null) {
+                    // 不能用 encode，否则查找一个不存在的值也会往字典里面加数据
+                    dbValue = column.getDictionary().lookup((String) value);
+                    if (dbValue == null) {
+                        return false;
+                    }
+                } else {
+                    dbValue = toDbValue(column, value);
+                }
+                rowHash = hashDbValue(rowHash, dbValue);
+            }
+            if (i > 0) {
+                where.append(" AND ");
+            }
+            if (dbValue == null) {
+                where.append(column.getColumnName()).append(" IS NULL");
+            } else {
+                where.append(column.getColumnName()).append(" = ?");
+                params.add(dbValue);
+            }
+        }
+        where.append(")");
+        return true;
+    }
+
+    /**
+     * 把对象按列编码成用于比较的值。按值查找时缓存、段文件和数据库使用同一种相等的定义：各列编码后的值相等，
+     * 和对象的 equals 无关。二进制的值按内容比较，字典列直接比较字符串，哈希列不参与比较
+     *
+     * @param columns 列定义
+     * @param clazz   数据类型
+     * @param obj     对象
+     * @return 各列编码后的值；对象不可能存在于列表中时（类型不一致，或者对象列表中的 null）返回 null
+     */
+    public static List<Object> equalityKey(List<LocalColumn> columns, Class<?> clazz, Object obj) {
+        boolean simple = isSimpleValue(columns);
+        if (obj == null ? !simple : !clazz.isInstance(obj)) {
+            return null;
+        }
+        List<Object> key = new ArrayList<>(columns.size());
+        for (LocalColumn column : columns) {
+            Object dbValue;
+            if (column.getRowSerializer() != null) {
+                dbValue = encodeRow(column.getRowSerializer(), obj);
+            } else if (ColumnNameUtil.isRowHashColumn(column)) {
+                continue;
+            } else {
+                Object value = simple ? obj : column.getAccessor().get(obj);
+                // 字典编码和字符串一一对应，不用 encode，否则比较也会往字典里面加数据
+                dbValue = column.getDictionary() != null ? value : toDbValue(column, value);
+            }
+            if (dbValue instanceof byte[]) {
+                dbValue = ByteBuffer.wrap((byte[]) dbValue);
+            } else if (dbValue instanceof Date) {
+                dbValue = ((Date) dbValue).getTime();
+            }
+            key.add(dbValue);
+        }
+        return key;
+    }
+
+    /**
+     * 按值查找元素的主键，把要查找的对象按列编码后做等值查询，主键换算成下标由调用方完成
+     *
+     * @param probe        要查找的对象
+     * @param last         是否查找最后一个
+     * @param tableName    表名
+     * @param columns      列定义
+     * @param pkColumnName 主键列名
+     * @param dataSource   数据源
+     * @param clazz        数据类型
+     * @return 主键，找不到时返回 -1
+     */
+    public static long findPk(Object probe, boolean last, String tableName, List<LocalColumn> columns,
+                              String pkColumnName, DataSource dataSource, Class<?> clazz) {
+        if (pkColumnName == null) {
+            throw new UnsupportedOperationException("Map内部的列表不支持按值查找");
+        }
+        if (probe == null ? !isSimpleValue(columns) : !clazz.isInstance(probe)) {
+            // 对象列表中不会有 null，类型不一致的也不可能相等
+            return -1;
+        }
+        StringBuilder where = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        if (!appendProbe(columns, probe, where, params)) {
+            return -1;
+        }
+        String sql = "SELECT " + pkColumnName + " FROM " + tableName + " WHERE " + where
+                + " ORDER BY " + pkColumnName + (last ? " DESC" : "") + " LIMIT 1";
+        log.debug("按值查找数据的sql: {}", sql);
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            bindParams(stmt, params);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 判断表中是否包含全部的对象。
+     * 开启了整行哈希时，多个对象合并成一条 EXISTS 查询分批执行，每个对象都走哈希列的索引；
+     * 没有哈希列时每个 EXISTS 都要扫描整张表，所以多个对象时改成顺序读取整张表一次，按各列编码后的值比较
+     *
+     * @param probes     要查找的对象
+     * @param tableName  表名
+     * @param columns    列定义
+     * @param dataSource 数据源
+     * @param clazz      数据类型
+     * @return 是否全部包含
+     */
+    public static boolean containsAll(Collection<?> probes, String tableName, List<LocalColumn> columns,
+                                      DataSource dataSource, Class<?> clazz) {
+        if (probes.size() > 1 && columns.stream().noneMatch(ColumnNameUtil::isRowHashColumn)) {
+            return containsAllByScan(probes, tableName, columns, dataSource, clazz);
+        }
+        // 控制每条sql的参数个数
+        int chunkSize = Math.max(1, 500 / columns.size());
+        for (List<?> chunk : Lists.partition(new ArrayList<>(probes), chunkSize)) {
+            StringBuilder sql = new StringBuilder("SELECT CASE WHEN ");
+            List<Object> params = new ArrayList<>();
+            for (int i = 0; i < chunk.size(); i++) {
+                Object probe = chunk.get(i);
+                if (probe == null ? !isSimpleValue(columns) : !clazz.isInstance(probe)) {
+                    return false;
+                }
+                if (i > 0) {
+                    sql.append(" AND ");
+                }
+                sql.append("EXISTS (SELECT 1 FROM ").append(tableName).append(" WHERE ");
+                if (!appendProbe(columns, probe, sql, params)) {
+                    return false;
+                }
+                sql.append(")");
+            }
+            sql.append(" THEN 1 ELSE 0 END");
+            log.debug("批量按值查找数据的sql: {}", sql);
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+                bindParams(stmt, params);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next() || rs.getInt(1) == 0) {
+                        return false;
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return true;
+    }
+
+    private static <T> boolean containsAllByScan(Collection<?> probes, String tableName, List<LocalColumn> columns,
+                                                 DataSource dataSource, Class<T> clazz) {
+        Set<List<Object>> remaining = new HashSet<>();
+        for (Object probe : probes) {
+            List<Object> key = equalityKey(columns, clazz, probe);
+            if (key == null) {
+                return false;
+            }
+            remaining.add(key);
+        }
+        String sql = "SELECT " + selectColumns(columns) + " FROM " + tableName;
+        log.debug("顺序读取判断是否全部包含的sql: {}", sql);
+        try (Stream<T> rows = openCursor(sql, Collections.emptyList(), columns, dataSource, clazz)) {
+            return rows.anyMatch(row -> remaining.remove(equalityKey(columns, clazz, row)) && remaining.isEmpty());
+        }
     }
 
-    private static Date convertObjectToDate(Object dateInDb) {
-        Date date = null;
-        if (dateInDb instanceof Number) {
-            date = new Date(((Number) dateInDb).longValue());
-        } else if (dateInDb instanceof Date) {
-            date = (Date) dateInDb;
-        } else if (dateInDb instanceof CharSequence) {
-            String text = dateInDb.toString();
-            try {
-                date = new Date(Long.parseLong(text));
-            } catch (NumberFormatException ignored) {
-                try {
-                    date = Timestamp.valueOf(text);
-                } catch (IllegalArgumentException e) {
-                    date = java.sql.Date.valueOf(text);
-                }
+    private static void bindParams(PreparedStatement stmt, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            Object param = params.get(i);
+            if (param instanceof byte[]) {
+                stmt.setBytes(i + 1, (byte[]) param);
+            } else {
+                stmt.setObject(i + 1, param);
             }
         }
-        return date;
     }
 
     /**
-     * 查询数据量
+     * 开启了整行哈希时，为哈希列创建索引
      *
-     * @param tableName  表名
      * @param dataSource 数据源
-     * @return 数据量
+     * @param tableName  表名
+     * @param columns    列定义
      */
-    public static Integer size(String tableName, DataSource dataSource) {
-        // 查询表的数据量
-        StringBuilder sql = new StringBuilder("select count(*) AS count from ").append(tableName);
-        log.debug("查询数据量的sql: {}", sql);
-        return DBUtil.querySingle(dataSource, sql.toString(), Lists.newArrayList(new LocalColumn("count", Integer.class, "INT", null)), Integer.class);
+    public static void createRowHashIndex(DataSource dataSource, String tableName, List<LocalColumn> columns) {
+        if (!MainConfig.DB_CREATE_INDEX.getPropertyBoolean()
+                || columns.stream().noneMatch(ColumnNameUtil::isRowHashColumn)) {
+            return;
+        }
+        String sql = "CREATE INDEX idx_hash_" + tableName + " ON " + tableName + "(" + ColumnNameUtil.ROW_HASH_COLUMN_NAME + ")";
+        log.debug("创建整行哈希索引的sql: {}", sql);
+        executeSql(dataSource, sql);
     }
 
     /**
-     * 用于标记drop的表的数量，主要用于单元测试，测试表的自动删除
-     */
-    public static final AtomicInteger dropTableCounter = new AtomicInteger(0);
-
-    /**
-     * 删除表
+     * 创建二级索引
      *
-     * @param tableName  表名
      * @param dataSource 数据源
+     * @param tableName  表名
+     * @param indexes    每个索引按顺序包含的列名
      */
-    public static void drop(String tableName, DataSource dataSource) {
-        // 删除表的数据
-        StringBuilder sql = new StringBuilder("drop table ").append(tableName);
-        log.info("删除表的sql: {}", sql);
-        DBUtil.executeSql(dataSource, sql.toString());
-        dropTableCounter.incrementAndGet();
+    public static void createIndexes(DataSource dataSource, String tableName, List<List<String>> indexes) {
+        for (int i = 0; i < indexes.size(); i++) {
+            String sql = "CREATE INDEX idx_" + i + "_" + tableName + " ON " + tableName
+                    + "(" + String.join(", ", indexes.get(i)) + ")";
+            log.debug("创建二级索引的sql: {}", sql);
+            executeSql(dataSource, sql);
+        }
     }
 
     /**
-     * 清空表
+     * 判断是否是简单类型的列表，只有一列并且直接保存元素本身
      *
-     * @param tableName  表名
-     * @param dataSource 数据源
+     * @param columns 列定义
+     * @return 是否是简单类型
      */
-    public static void clear(String tableName, DataSource dataSource) {
-        String sql = "DELETE FROM " + tableName;
-        try (Connection connection = dataSource.getConnection();
-             PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.executeUpdate();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    private static boolean isSimpleValue(List<LocalColumn> columns) {
+        return columns.size() == 1 && columns.get(0).getField() == null && columns.get(0).getRowSerializer() == null;
     }
 
     /**
-     * 更新数据
+     * 在列定义中找到整行存储的二进制列
      *
-     * @param index        索引
-     * @param element      数据
-     * @param tableName    表名
-     * @param columns      列定义
-     * @param pkColumnName 主键列名
-     * @param dataSource   数据源
-     * @param <T>          数据类型
-     * @return 数据
+     * @param decoders 解码器
+     * @return 整行存储列的解码器，没有时返回 null
      */
-    public static <T> T set(int index, T element, String tableName, List<LocalColumn> columns, String pkColumnName, DataSource dataSource) {
-        // 获取主键值
-        long pk = pk(index, tableName, pkColumnName, dataSource);
-
-        // 更新数据
-        StringBuilder sql = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
-        for (LocalColumn column : columns) {
-            sql.append(column.getColumnName()).append(" = ?, ");
-        }
-        sql.setLength(sql.length() - 2);
-        sql.append(" WHERE ").append(pkColumnName).append(" = ?");
-
-        try (Connection connection = dataSource.getConnection();
-             PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
-            int parameterIndex = 1;
-            for (LocalColumn column : columns) {
-                if (column.getField() == null && columns.size() == 1) {
-                    // 特殊情况：如果只有一个列且field为null，直接使用对象本身作为值
-                    stmt.setObject(parameterIndex++, toDbValue(column, element));
-                } else {
-                    Field field = column.getField();
-                    field.setAccessible(true);
-                    Object value = field.get(element);
-                    stmt.setObject(parameterIndex++, toDbValue(column, value));
-                }
+    private static ColumnDecoder findRowDecoder(ColumnDecoder[] decoders) {
+        for (ColumnDecoder decoder : decoders) {
+            if (decoder.getColumn().getRowSerializer() != null) {
+                return decoder;
             }
-            stmt.setLong(parameterIndex, pk);
-            stmt.executeUpdate();
-            return element;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
         }
+        return null;
     }
 
     /**
-     * 获取主键
+     * 拼接查询的输出列，和列定义的顺序一致，解码器按这个顺序的下标读取
      *
-     * @param index        索引
-     * @param tableName    表名
-     * @param pkColumnName 主键列名
-     * @param dataSource   数据源
-     * @return 主键
+     * @param columns 列定义
+     * @return 输出列
      */
-    public static long pk(int index, String tableName, String pkColumnName, DataSource dataSource) {
-        // 查出原有的数据的id，然后进行更新
-        StringBuilder sql = new StringBuilder("SELECT ").append(pkColumnName).append(" FROM ")
-                .append(tableName).append(" ORDER BY ").append(pkColumnName).append(" LIMIT 1 OFFSET ").append(index);
-        log.debug("查询数据的id的sql: {}", sql);
-        Long id = DBUtil.querySingle(dataSource, sql.toString(), Lists.newArrayList(new LocalColumn(pkColumnName, Long.class, "BIGINT", null)), Long.class);
-        if (id == null) {
-            throw new RuntimeException("没有找到对应的数据");
-        }
-        return id;
+    private static String selectColumns(List<LocalColumn> columns) {
+        return columns.stream().map(LocalColumn::getColumnName).collect(Collectors.joining(", "));
     }
 
     /**
-     * setParameters
+     * 从结果集的当前行恢复出一个对象
      *
-     * @param stmt   PreparedStatement
-     * @param params 参数
+     * @param rs       结果集
+     * @param decoders 和查询输出列一一对应的解码器
+     * @param clazz    数据类型
+     * @param <T>      数据类型
+     * @return 对象
      * @throws SQLException 异常
      */
-    private static void setParameters(PreparedStatement stmt, Object... params) throws SQLException {
-        for (int i = 0; i < params.length; i++) {
-            stmt.setObject(i + 1, params[i]);
+    @SuppressWarnings("unchecked")
+    private static <T> T readRow(ResultSet rs, ColumnDecoder[] decoders, Class<T> clazz) throws SQLException {
+        if (decoders.length == 2 && decoders[1].getColumn().getField() == null
+                && decoders[0].getColumn().getColumnName().startsWith("key_")) {
+            // map来获取列时，直接读取值的列即可
+            return (T) decoders[1].read(rs);
         }
-    }
-
-    private static Object toDbValue(LocalColumn column, Object value) {
-        if (value == null) {
-            return null;
+        ColumnDecoder rowDecoder = findRowDecoder(decoders);
+        if (rowDecoder == null && decoders.length == 1 && decoders[0].getColumn().getField() == null) {
+            // 说明是简单数据，直接返回
+            return clazz.cast(decoders[0].read(rs));
         }
-        TypeCodec codec = column.getTypeCodec();
-        if (codec != null) {
-            return codec.serialize(value);
+        T obj;
+        if (rowDecoder != null) {
+            LocalColumn rowColumn = rowDecoder.getColumn();
+            byte[] bytes = rs.getBytes(rowDecoder.getOrdinal());
+            if (bytes != null && rowColumn.getCompressor() != null) {
+                bytes = rowColumn.getCompressor().decompress(bytes);
+            }
+            obj = bytes == null ? RowMapper.of(clazz).newInstance() : (T) decodeRow(rowColumn.getRowSerializer(), bytes);
+        } else {
+            obj = RowMapper.of(clazz).newInstance();
+        }
+        // 通过sql的返回结果填充这些字段
+        for (ColumnDecoder decoder : decoders) {
+            if (decoder.getColumn().getField() != null) {
+                decoder.readInto(rs, obj);
+            }
         }
-        return value;
+        return obj;
     }
 
+    /**
+     * 把结果集的当前行写入复用的对象，数据库中为 null 的字段会被重置；简单类型没有可复用的对象，直接返回读取到的值
+     *
+     * @param rs       结果集
+     * @param decoders 和查询输出列一一对应的解码器
+     * @param clazz    数据类型
+     * @param reuse    复用的对象
+     * @param <T>      数据类型
+     * @return 写入了这一行数据的对象
+     * @throws SQLException 异常
+     */
     @SuppressWarnings("unchecked")
-    private static <T> T fromDbValue(ResultSet resultSet, LocalColumn column, Class<T> targetType) throws SQLException {
-        Object raw = resultSet.getObject(column.getColumnName());
-        if (raw == null) {
-            return null;
+    private static <T> T readRowInto(ResultSet rs, ColumnDecoder[] decoders, Class<T> clazz, T reuse) throws SQLException {
+        ColumnDecoder rowDecoder = findRowDecoder(decoders);
+        if (rowDecoder == null && decoders.length == 1 && decoders[0].getColumn().getField() == null) {
+            return clazz.cast(decoders[0].read(rs));
         }
-        TypeCodec codec = column.getTypeCodec();
-        if (codec != null) {
-            return (T) codec.deserialize(String.valueOf(raw), targetType);
+        if (rowDecoder != null) {
+            LocalColumn rowColumn = rowDecoder.getColumn();
+            byte[] bytes = rs.getBytes(rowDecoder.getOrdinal());
+            if (bytes != null && rowColumn.getCompressor() != null) {
+                bytes = rowColumn.getCompressor().decompress(bytes);
+            }
+            if (bytes != null) {
+                BinaryRowSerializer<T> serializer = (BinaryRowSerializer<T>) rowColumn.getRowSerializer();
+                synchronized (serializer) {
+                    serializer.decodeInto(bytes, reuse);
+                }
+            }
+        }
+        for (ColumnDecoder decoder : decoders) {
+            if (decoder.getColumn().getField() != null) {
+                decoder.readInto(rs, reuse, true);
+            }
         }
-        return (T) convertStandardValue(raw, targetType);
+        return reuse;
     }
 
-    private static Object convertStandardValue(Object raw, Class<?> targetType) {
-        if (targetType == String.class) {
-            return String.valueOf(raw);
-        }
-        if (targetType == Integer.class || targetType == int.class) {
-            if (raw instanceof Number) {
-                return ((Number) raw).intValue();
-            }
-            return Integer.valueOf(raw.toString());
+    @SuppressWarnings("unchecked")
+    private static <T> byte[] encodeRow(BinaryRowSerializer<T> serializer, Object obj) {
+        // 序列化器内部复用缓冲区，本身不是线程安全的
+        synchronized (serializer) {
+            return serializer.encode((T) obj);
         }
-        if (targetType == Long.class || targetType == long.class) {
-            if (raw instanceof Number) {
-                return ((Number) raw).longValue();
-            }
-            return Long.valueOf(raw.toString());
+    }
+
+    private static Object decodeRow(BinaryRowSerializer<?> serializer, byte[] bytes) {
+        synchronized (serializer) {
+            return serializer.decode(bytes);
         }
-        if (targetType == Double.class || targetType == double.class) {
-            if (raw instanceof Number) {
-                return ((Number) raw).doubleValue();
+    }
+
+    /**
+     * 为字典编码的列创建字典表
+     *
+     * @param dataSource 数据源
+     * @param columns    列定义
+     */
+    public static void createDictionaryTables(DataSource dataSource, List<LocalColumn> columns) {
+        for (LocalColumn column : columns) {
+            if (column.getDictionary() != null) {
+                String sql = "CREATE TABLE " + column.getDictionary().getTableName()
+                        + " (dict_code INTEGER PRIMARY KEY, dict_value VARCHAR)";
+                log.debug("创建字典表的sql: {}", sql);
+                executeSql(dataSource, sql);
             }
-            return Double.valueOf(raw.toString());
         }
-        if (targetType == Float.class || targetType == float.class) {
-            if (raw instanceof Number) {
-                return ((Number) raw).floatValue();
+    }
+
+    /**
+     * 删除字典编码的列对应的字典表
+     *
+     * @param dataSource 数据源
+     * @param columns    列定义
+     */
+    public static void dropDictionaryTables(DataSource dataSource, List<LocalColumn> columns) {
+        for (LocalColumn column : columns) {
+            if (column.getDictionary() != null) {
+                executeSql(dataSource, "DROP TABLE IF EXISTS " + column.getDictionary().getTableName());
             }
-            return Float.valueOf(raw.toString());
         }
-        if (targetType == Boolean.class || targetType == boolean.class) {
-            if (raw instanceof Boolean) {
-                return raw;
-            }
-            if (raw instanceof Number) {
-                return ((Number) raw).intValue() != 0;
+    }
+
+    /**
+     * 把新分配的字典条目写入字典表，和数据使用同一个连接，保证在同一个事务里
+     *
+     * @param connection 连接
+     * @param columns    列定义
+     * @return 每个字典写到的条目数，事务提交后交给 {@link #markDictionariesFlushed(Map)}
+     * @throws SQLException 异常
+     */
+    private static Map<StringDictionary, Integer> flushDictionaries(Connection connection, List<LocalColumn> columns)
+            throws SQLException {
+        Map<StringDictionary, Integer> written = new IdentityHashMap<>();
+        flushDictionaries(connection, columns, written);
+        return written;
+    }
+
+    /**
+     * 在调用方的事务中写入字典里还没有写入字典表的条目，written 记录这个事务中每个字典已经写到的条目数，
+     * 同一个事务中多次调用时不会重复写入。字典要等事务提交后再用 {@link #markDictionariesFlushed(Map)} 标记，
+     * 回滚时这些条目仍然是待写入的，下一次写入时会重新写入字典表
+     */
+    private static void flushDictionaries(Connection connection, List<LocalColumn> columns,
+                                          Map<StringDictionary, Integer> written) throws SQLException {
+        for (LocalColumn column : columns) {
+            StringDictionary dictionary = column.getDictionary();
+            if (dictionary == null) {
+                continue;
             }
-            return Boolean.valueOf(raw.toString());
-        }
-        if (targetType == Character.class || targetType == char.class) {
-            String text = String.valueOf(raw);
-            return text.isEmpty() ? null : text.charAt(0);
-        }
-        if (targetType == Date.class) {
-            return convertObjectToDate(raw);
-        }
-        if (targetType == java.sql.Date.class) {
-            Date date = convertObjectToDate(raw);
-            return date == null ? null : new java.sql.Date(date.getTime());
-        }
-        if (targetType == BigDecimal.class) {
-            if (raw instanceof BigDecimal) {
-                return raw;
+            synchronized (dictionary) {
+                int flushedSize = dictionary.getFlushedSize();
+                List<String> pendingValues = dictionary.getPendingValues();
+                int from = Math.max(flushedSize, written.getOrDefault(dictionary, 0));
+                int to = flushedSize + pendingValues.size();
+                if (from >= to) {
+                    continue;
+                }
+                String sql = "INSERT INTO " + dictionary.getTableName() + " (dict_code, dict_value) VALUES (?, ?)";
+                try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                    for (int code = from; code < to; code++) {
+                        stmt.setInt(1, code);
+                        stmt.setString(2, pendingValues.get(code - flushedSize));
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+                written.put(dictionary, to);
             }
-            return new BigDecimal(raw.toString());
         }
-        return raw;
     }
 
-    @SuppressWarnings("unchecked")
-    private static <T> T createInstance(ResultSet rs, List<LocalColumn> columns, Class<T> clazz)
-            throws Exception {
-        if (columns.size() == 2 && columns.get(1).getField() == null && columns.get(0).getColumnName().startsWith("key_")) {
-            return (T) fromDbValue(rs, columns.get(1), clazz);
+    /**
+     * 事务提交后，标记字典条目已经写入字典表
+     */
+    private static void markDictionariesFlushed(Map<StringDictionary, Integer> written) {
+        written.forEach(StringDictionary::markFlushed);
+    }
+
+    /**
+     * 把SQL片段中引用的字典编码列替换成解码后的字符串，用于 where、select 这类需要比较或者输出字符串的地方。
+     * 分组时仍然直接使用编码列，按整数分组。
+     *
+     * @param expression SQL片段
+     * @param columns    源表的列定义
+     * @return 替换后的SQL片段
+     */
+    public static String decodeDictionaryColumns(String expression, List<LocalColumn> columns) {
+        return decodeDictionaryColumns(expression, columns, SOURCE_ALIAS, false);
+    }
+
+    /**
+     * 把 SQL 片段中带有表别名的字典编码列引用（比如 a.status）替换成解码后的字符串，用于多表的连接查询
+     *
+     * @param expression SQL片段
+     * @param columns    表的列定义
+     * @param tableAlias 表别名
+     * @return 替换后的SQL片段
+     */
+    public static String decodeDictionaryColumns(String expression, List<LocalColumn> columns, String tableAlias) {
+        return decodeDictionaryColumns(expression, columns, tableAlias, true);
+    }
+
+    private static String decodeDictionaryColumns(String expression, List<LocalColumn> columns, String tableAlias,
+                                                  boolean qualified) {
+        if (expression == null || columns == null) {
+            return expression;
         }
-        T obj = clazz.getDeclaredConstructor().newInstance();
+        String result = expression;
         for (LocalColumn column : columns) {
-            if (column.getField() != null) {
-                column.getField().setAccessible(true);
-                Object value = fromDbValue(rs, column, column.getField().getType());
-                if (value != null) {
-                    column.getField().set(obj, value);
-                }
+            if (column.getDictionary() == null) {
+                continue;
             }
+            String reference = tableAlias + "." + column.getColumnName();
+            String decoded = "(SELECT dict_value FROM " + column.getDictionary().getTableName()
+                    + " WHERE dict_code = " + reference + ")";
+            // 只替换完整的列名，跳过字符串常量；不带别名时跳过已经带表前缀的引用
+            String pattern = Pattern.quote(qualified ? reference : column.getColumnName());
+            result = result.replaceAll("(?<![\\w.'])" + pattern + "(?![\\w'])", Matcher.quoteReplacement(decoded));
         }
-        return obj;
+        return result;
     }
 
     /**
@@ -678,7 +2036,7 @@ public class DBUtil {
                                             String targetTableName, List<String> groupByColumns,
                                             String whereClause,
                                             List<LocalColumnForMap> columnForMapList) {
-        String sourceAlias = "source_";
+        String sourceAlias = SOURCE_ALIAS;
         // 构建INSERT语句
         StringBuilder insertSql = new StringBuilder();
         insertSql.append("INSERT INTO ").append(targetTableName).append(" (");
@@ -735,6 +2093,30 @@ public class DBUtil {
         }
     }
 
+    /**
+     * 把连接查询的结果直接插入到目标表，在一个事务中完成
+     *
+     * @param dataSource       数据源
+     * @param targetTableName  目标表名
+     * @param joinClause       FROM 之后的连接子句，比如 t1 a JOIN t2 b ON a.user_id = b.id
+     * @param columnForMapList 列映射列表
+     * @param condition        查询条件，使用其中的过滤条件、参数和排序
+     * @return 插入的行数
+     */
+    public static int insertJoinedData(DataSource dataSource, String targetTableName, String joinClause,
+                                       List<LocalColumnForMap> columnForMapList, LocalQueryCondition condition) {
+        List<LocalColumn> sinkColumns = columnForMapList.stream().map(LocalColumnForMap::getSinkColumn)
+                .collect(Collectors.toList());
+        String sql = "INSERT INTO " + targetTableName + " (" + selectColumns(sinkColumns) + ") SELECT "
+                + columnForMapList.stream().map(LocalColumnForMap::getExpression).collect(Collectors.joining(", "))
+                + " FROM " + joinClause + buildWhereClause(condition, null);
+        if (!condition.getOrderByClauses().isEmpty()) {
+            sql += " ORDER BY " + String.join(", ", condition.getOrderByClauses());
+        }
+        log.debug("连接查询复制数据的sql: {}", sql);
+        return insertSelect(sql, condition.getParams(), sinkColumns, dataSource);
+    }
+
     /**
      * 获取对象
      *
@@ -749,45 +2131,259 @@ public class DBUtil {
      */
     public static <T> T getByKey(DataSource dataSource, String tableName, String keyColumn,
                                  Object keyValue, List<LocalColumn> columns, Class<T> clazz) {
-        String sql = String.format("SELECT * FROM %s WHERE %s = ?", tableName, keyColumn);
-
-        try (Connection connection = dataSource.getConnection();
-             PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = dataSource.getConnection()) {
+            return getByKey(connection, tableName, keyColumn, keyValue, columns, clazz, null);
+        } catch (Exception e) {
+            log.error("Failed to get object by key: {}", e.getMessage());
+            throw new RuntimeException("Failed to get object by key", e);
+        }
+    }
 
+    /**
+     * 在指定的连接上按 key 查询对象，found 不为空时记录这个 key 是否存在
+     */
+    private static <T> T getByKey(Connection connection, String tableName, String keyColumn, Object keyValue,
+                                  List<LocalColumn> columns, Class<T> clazz, AtomicBoolean found) throws Exception {
+        String sql = String.format("SELECT %s FROM %s WHERE %s = ?", selectColumns(columns), tableName, keyColumn);
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
             setParameters(stmt, keyValue);
-
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
-                    return createInstance(rs, columns, clazz);
+                    if (found != null) {
+                        found.set(true);
+                    }
+                    return readRow(rs, ColumnDecoder.of(columns), clazz);
                 }
             }
-        } catch (Exception e) {
-            log.error("Failed to get object by key: {}", e.getMessage());
-            throw new RuntimeException("Failed to get object by key", e);
         }
         return null;
     }
 
     /**
      * 根据给定的键向指定表中添加或更新对象。
+     * 原来的值和写入在同一个连接的同一个事务中完成。key 列上有唯一索引时写入是一条 upsert 语句，
+     * 没有唯一索引时（比如 group by 生成的表）先按 key 删除再插入
+     *
+     * @param <K>            键类型
+     * @param <V>            对象类型
+     * @param dataSource     数据源
+     * @param tableName      表名
+     * @param keyColumn      key列名
+     * @param key            键值
+     * @param value          对象值
+     * @param columns        列定义
+     * @param clazz          对象类型
+     * @param databaseEngine 数据库引擎
+     * @param uniqueKey      key 列上是否有唯一索引
+     * @param removedRows    被覆盖或删除的行数，值在方法里面更新
+     * @return 原来的对象，不存在时返回 null
+     */
+    public static <K, V> V putByKey(DataSource dataSource, String tableName, String keyColumn, K key, V value,
+                                    List<LocalColumn> columns, Class<V> clazz, String databaseEngine,
+                                    boolean uniqueKey, AtomicInteger removedRows) {
+        List<String> columnNames = columns.stream().map(LocalColumn::getColumnName).collect(Collectors.toList());
+        String sql = uniqueKey ? SqlDialectUtil.buildUpsertSql(tableName, keyColumn, columnNames, databaseEngine)
+                : buildKeyInsertSql(tableName, columnNames);
+        log.debug("putByKey写入数据的sql: {}", sql);
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                AtomicBoolean found = new AtomicBoolean(false);
+                V oldValue = getByKey(connection, tableName, keyColumn, key, columns, clazz, found);
+                if (!uniqueKey && found.get()) {
+                    removedRows.set(deleteKeys(connection, tableName, keyColumn, Collections.singletonList(key + "")));
+                } else {
+                    removedRows.set(found.get() ? 1 : 0);
+                }
+                bindKeyRow(stmt, key, value, columns, keyColumn);
+                stmt.executeUpdate();
+                connection.commit();
+                return oldValue;
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String buildKeyInsertSql(String tableName, List<String> columnNames) {
+        return "INSERT INTO " + tableName + " (" + String.join(", ", columnNames) + ") VALUES ("
+                + String.join(", ", Collections.nCopies(columnNames.size(), "?")) + ")";
+    }
+
+    /**
+     * 在给定的连接上按 key 删除，每 {@link #KEY_BATCH_SIZE} 个 key 一条 IN 语句
+     *
+     * @return 删除的行数
+     */
+    private static int deleteKeys(Connection connection, String tableName, String keyColumn,
+                                   Collection<String> keys) throws SQLException {
+        int deleted = 0;
+        for (List<String> chunk : Lists.partition(new ArrayList<>(keys), KEY_BATCH_SIZE)) {
+            String sql = "DELETE FROM " + tableName + " WHERE " + keyColumn + " IN ("
+                    + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                setParameters(stmt, chunk.toArray());
+                deleted += stmt.executeUpdate();
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 按 key 批量查询时，每条 IN 查询最多绑定的 key 数量
+     */
+    private static final int KEY_BATCH_SIZE = 500;
+
+    /**
+     * 批量写入 key-value，查询和写入在同一个连接的同一个事务中完成。
+     * 先用 IN 查询分批找出已经存在的 key，overwrite 为 true 时用 upsert 写入全部数据（key 列上没有唯一索引时先删除已经存在的 key 再插入），
+     * 否则只插入不存在的 key；
+     * 写入按 {@link #REPLACE_BATCH_SIZE} 分批执行
+     *
+     * @param <V>            对象类型
+     * @param dataSource     数据源
+     * @param tableName      表名
+     * @param keyColumn      key列名
+     * @param entries        要写入的数据
+     * @param overwrite      已经存在的 key 是否覆盖
+     * @param existing       不为空时，放入已经存在的 key 和原来的值
+     * @param columns        列定义
+     * @param clazz          对象类型
+     * @param databaseEngine 数据库引擎
+     * @param uniqueKey      key 列上是否有唯一索引
+     * @return 表中增加的行数；key 列上没有唯一索引时，覆盖写入会把同一个 key 的多行合并成一行，结果可能为负数
+     */
+    public static <V> int putAllByKey(DataSource dataSource, String tableName, String keyColumn,
+                                      Map<String, ? extends V> entries, boolean overwrite, Map<String, V> existing,
+                                      List<LocalColumn> columns, Class<V> clazz, String databaseEngine,
+                                      boolean uniqueKey) {
+        List<String> columnNames = columns.stream().map(LocalColumn::getColumnName).collect(Collectors.toList());
+        String sql = overwrite && uniqueKey ? SqlDialectUtil.buildUpsertSql(tableName, keyColumn, columnNames, databaseEngine)
+                : buildKeyInsertSql(tableName, columnNames);
+        log.debug("putAllByKey写入数据的sql: {}", sql);
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                Map<String, V> found = getByKeys(connection, tableName, keyColumn, entries.keySet(), columns, clazz,
+                        existing != null);
+                int deleted = 0;
+                if (overwrite && !uniqueKey && !found.isEmpty()) {
+                    deleted = deleteKeys(connection, tableName, keyColumn, found.keySet());
+                }
+                int written = 0;
+                int inserted = 0;
+                for (Map.Entry<String, ? extends V> entry : entries.entrySet()) {
+                    if (!found.containsKey(entry.getKey())) {
+                        inserted++;
+                    } else if (!overwrite) {
+                        continue;
+                    }
+                    bindKeyRow(stmt, entry.getKey(), entry.getValue(), columns, keyColumn);
+                    stmt.addBatch();
+                    if (++written % REPLACE_BATCH_SIZE == 0) {
+                        stmt.executeBatch();
+                    }
+                }
+                if (written % REPLACE_BATCH_SIZE != 0) {
+                    stmt.executeBatch();
+                }
+                connection.commit();
+                if (existing != null) {
+                    existing.putAll(found);
+                }
+                return overwrite && !uniqueKey ? written - deleted : inserted;
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 按 key 批量查询，每 {@link #KEY_BATCH_SIZE} 个 key 一条 IN 查询。
+     * 默认所有的查询使用同一个连接按顺序执行；parallel 为 true 时每一批使用单独的连接并行查询
      *
-     * @param <K>        键类型
      * @param <V>        对象类型
      * @param dataSource 数据源
      * @param tableName  表名
      * @param keyColumn  key列名
-     * @param key        键值
-     * @param value      对象值
+     * @param keys       要查询的 key
      * @param columns    列定义
-     * @param removed    是否被移除，值在方法里面更新
-     * @return 对象值
+     * @param clazz      对象类型
+     * @param parallel   是否并行查询各批
+     * @return 找到的 key 和对应的对象，不存在的 key 不会出现在结果中
+     */
+    public static <V> Map<String, V> getByKeys(DataSource dataSource, String tableName, String keyColumn,
+                                               Collection<String> keys, List<LocalColumn> columns, Class<V> clazz,
+                                               boolean parallel) {
+        if (!parallel || keys.size() <= KEY_BATCH_SIZE) {
+            try (Connection connection = dataSource.getConnection()) {
+                return getByKeys(connection, tableName, keyColumn, keys, columns, clazz, true);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to get objects by keys", e);
+            }
+        }
+        List<Map<String, V>> chunkResults = Lists.partition(new ArrayList<>(keys), KEY_BATCH_SIZE).parallelStream()
+                .map(chunk -> {
+                    try (Connection connection = dataSource.getConnection()) {
+                        return getByKeys(connection, tableName, keyColumn, chunk, columns, clazz, true);
+                    } catch (RuntimeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new RuntimeException("Failed to get objects by keys", e);
+                    }
+                })
+                .collect(Collectors.toList());
+        Map<String, V> result = new HashMap<>();
+        chunkResults.forEach(result::putAll);
+        return result;
+    }
+
+    /**
+     * 在指定的连接上按 key 批量查询，每 {@link #KEY_BATCH_SIZE} 个 key 一条 IN 查询。
+     * withValues 为 false 时只查询 key 列，返回的值都是 null
      */
-    public static <K, V> V putByKey(DataSource dataSource, String tableName, String keyColumn, K key, V value, List<LocalColumn> columns, AtomicBoolean removed) {
-        // update
-        boolean removedBoolean = removeByKey(dataSource, tableName, keyColumn, key);
-        removed.set(removedBoolean);
-        addByKey(key, value, tableName, columns, dataSource, keyColumn);
-        return value;
+    private static <V> Map<String, V> getByKeys(Connection connection, String tableName, String keyColumn,
+                                                Collection<String> keys, List<LocalColumn> columns, Class<V> clazz,
+                                                boolean withValues) throws Exception {
+        int keyIndex = 1;
+        if (withValues) {
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i).getColumnName().equals(keyColumn)) {
+                    keyIndex = i + 1;
+                }
+            }
+        }
+        ColumnDecoder[] decoders = ColumnDecoder.of(columns);
+        Map<String, V> result = new LinkedHashMap<>();
+        for (List<String> chunk : Lists.partition(new ArrayList<>(keys), KEY_BATCH_SIZE)) {
+            String sql = "SELECT " + (withValues ? selectColumns(columns) : keyColumn) + " FROM " + tableName
+                    + " WHERE " + keyColumn + " IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                setParameters(stmt, chunk.toArray());
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        result.put(rs.getString(keyIndex), withValues ? readRow(rs, decoders, clazz) : null);
+                    }
+                }
+            }
+        }
+        return result;
     }
 
     /**
@@ -818,31 +2414,36 @@ public class DBUtil {
 
         try (Connection connection = dataSource.getConnection();
              PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
-            int parameterIndex = 1;
-            for (LocalColumn column : columns) {
-                if (column.getField() == null && columns.size() == 1) {
-                    // 特殊情况：如果只有一个列且field为null，直接使用对象本身作为值
-                    stmt.setObject(parameterIndex++, toDbValue(column, obj));
-                } else if (column.getField() == null && columns.size() == 2 && !keyColumn.equals(column.getColumnName())) {
-                    // 特殊情况：如果只有2个列且field为null，直接使用对象本身作为值
-                    stmt.setObject(parameterIndex++, toDbValue(column, obj));
-                } else {
-                    if (keyColumn.equals(column.getColumnName())) {
-                        stmt.setObject(parameterIndex++, key);
-                    } else {
-                        Field field = column.getField();
-                        field.setAccessible(true);
-                        Object value = field.get(obj);
-                        stmt.setObject(parameterIndex++, toDbValue(column, value));
-                    }
-                }
-            }
+            bindKeyRow(stmt, key, obj, columns, keyColumn);
             return stmt.executeUpdate() > 0;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * 按列的顺序绑定 key 和对象的值，从第一个参数开始
+     */
+    private static <K, V> void bindKeyRow(PreparedStatement stmt, K key, V obj, List<LocalColumn> columns,
+                                          String keyColumn) throws Exception {
+        int parameterIndex = 1;
+        for (LocalColumn column : columns) {
+            if (column.getField() == null && columns.size() == 1) {
+                // 特殊情况：如果只有一个列且field为null，直接使用对象本身作为值
+                stmt.setObject(parameterIndex++, toDbValue(column, obj));
+            } else if (column.getField() == null && columns.size() == 2 && !keyColumn.equals(column.getColumnName())) {
+                // 特殊情况：如果只有2个列且field为null，直接使用对象本身作为值
+                stmt.setObject(parameterIndex++, toDbValue(column, obj));
+            } else {
+                if (keyColumn.equals(column.getColumnName())) {
+                    stmt.setObject(parameterIndex++, key);
+                } else {
+                    stmt.setObject(parameterIndex++, toDbValue(column, column.getAccessor().get(obj)));
+                }
+            }
+        }
+    }
+
 
     /**
      * 通过key删除对象
@@ -0,0 +1,154 @@
+package lordeath.local.collection.db.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 字段访问器
+ * 用 MethodHandle 代替 {@link Field#get(Object)} 和 {@link Field#set(Object, Object)}，
+ * 每个类的字段只在第一次使用时解析一次，之后的读写不再做访问检查
+ */
+public final class FieldAccessor {
+
+    /**
+     * 按声明类缓存字段访问器
+     */
+    private static final ClassValue<Map<String, FieldAccessor>> ACCESSORS = new ClassValue<>() {
+        @Override
+        protected Map<String, FieldAccessor> computeValue(Class<?> type) {
+            Map<String, FieldAccessor> accessors = new HashMap<>();
+            for (Field field : type.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    accessors.put(field.getName(), new FieldAccessor(field));
+                }
+            }
+            return accessors;
+        }
+    };
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Field field;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+    /**
+     * 基本类型字段的类型化 setter，写入时不需要装箱，不是对应的基本类型时为 null
+     */
+    private final MethodHandle primitiveSetter;
+
+    private FieldAccessor(Field field) {
+        this.field = field;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(field.getDeclaringClass(), MethodHandles.lookup());
+            this.getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+            // final 字段没有 setter，读取时如果要写入会在 set 里报错
+            MethodHandle rawSetter = Modifier.isFinal(field.getModifiers()) ? null : lookup.unreflectSetter(field);
+            this.setter = rawSetter == null ? null : rawSetter.asType(SETTER_TYPE);
+            this.primitiveSetter = rawSetter == null || !field.getType().isPrimitive() ? null
+                    : rawSetter.asType(MethodType.methodType(void.class, Object.class, field.getType()));
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("无法访问字段: " + field, e);
+        }
+    }
+
+    /**
+     * 获取字段的访问器
+     *
+     * @param field 字段
+     * @return 访问器
+     */
+    public static FieldAccessor of(Field field) {
+        return ACCESSORS.get(field.getDeclaringClass()).get(field.getName());
+    }
+
+    /**
+     * 读取字段的值
+     *
+     * @param obj 对象
+     * @return 字段的值，基本类型会被装箱
+     */
+    public Object get(Object obj) {
+        try {
+            return (Object) getter.invokeExact(obj);
+        } catch (Throwable e) {
+            throw new RuntimeException("读取字段失败: " + field.getName(), e);
+        }
+    }
+
+    /**
+     * 写入字段的值，基本类型的字段不能写入 null
+     *
+     * @param obj   对象
+     * @param value 字段的值
+     */
+    public void set(Object obj, Object value) {
+        if (setter == null) {
+            throw new UnsupportedOperationException("不能写入final字段: " + field.getName());
+        }
+        try {
+            setter.invokeExact(obj, value);
+        } catch (Throwable e) {
+            throw new RuntimeException("写入字段失败: " + field.getName(), e);
+        }
+    }
+
+    /**
+     * 写入 int 字段
+     *
+     * @param obj   对象
+     * @param value 字段的值
+     */
+    public void setInt(Object obj, int value) {
+        if (field.getType() != int.class || primitiveSetter == null) {
+            set(obj, value);
+            return;
+        }
+        try {
+            primitiveSetter.invokeExact(obj, value);
+        } catch (Throwable e) {
+            throw new RuntimeException("写入字段失败: " + field.getName(), e);
+        }
+    }
+
+    /**
+     * 写入 long 字段
+     *
+     * @param obj   对象
+     * @param value 字段的值
+     */
+    public void setLong(Object obj, long value) {
+        if (field.getType() != long.class || primitiveSetter == null) {
+            set(obj, value);
+            return;
+        }
+        try {
+            primitiveSetter.invokeExact(obj, value);
+        } catch (Throwable e) {
+            throw new RuntimeException("写入字段失败: " + field.getName(), e);
+        }
+    }
+
+    /**
+     * 写入 double 字段
+     *
+     * @param obj   对象
+     * @param value 字段的值
+     */
+    public void setDouble(Object obj, double value) {
+        if (field.getType() != double.class || primitiveSetter == null) {
+            set(obj, value);
+            return;
+        }
+        try {
+            primitiveSetter.invokeExact(obj, value);
+        } catch (Throwable e) {
+            throw new RuntimeException("写入字段失败: " + field.getName(), e);
+        }
+    }
+}
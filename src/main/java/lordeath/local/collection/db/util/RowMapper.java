@@ -0,0 +1,82 @@
+package lordeath.local.collection.db.util;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.Supplier;
+
+/**
+ * 按类生成的行映射器
+ * 每个类只生成一次，创建对象时使用 LambdaMetafactory 生成的构造函数调用，
+ * 不再每行都走 {@code clazz.getDeclaredConstructor().newInstance()} 的反射路径
+ *
+ * @param <T> 数据类型
+ */
+public final class RowMapper<T> {
+
+    private static final ClassValue<RowMapper<?>> MAPPERS = new ClassValue<>() {
+        @Override
+        protected RowMapper<?> computeValue(Class<?> type) {
+            return new RowMapper<>(type);
+        }
+    };
+
+    private final Supplier<T> constructor;
+
+    private RowMapper(Class<T> clazz) {
+        this.constructor = compileConstructor(clazz);
+    }
+
+    /**
+     * 获取类对应的行映射器
+     *
+     * @param clazz 类
+     * @param <T>   数据类型
+     * @return 行映射器
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> RowMapper<T> of(Class<T> clazz) {
+        return (RowMapper<T>) MAPPERS.get(clazz);
+    }
+
+    /**
+     * 使用无参构造函数创建一个新对象
+     *
+     * @return 新对象
+     */
+    public T newInstance() {
+        return constructor.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Supplier<T> compileConstructor(Class<T> clazz) {
+        MethodHandle handle;
+        MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(clazz, MethodHandles.lookup());
+            handle = lookup.findConstructor(clazz, MethodType.methodType(void.class));
+        } catch (NoSuchMethodException | IllegalAccessException | IllegalArgumentException e) {
+            // 没有可用的无参构造函数，等到真正需要创建对象时再报错，和原来反射的行为保持一致
+            return () -> {
+                throw new RuntimeException("对象实例化失败，缺少无参构造函数: " + clazz, e);
+            };
+        }
+        try {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), handle, MethodType.methodType(clazz));
+            return (Supplier<T>) site.getTarget().invokeExact();
+        } catch (Throwable e) {
+            // 生成失败时（例如访问权限受限），退回到直接调用 MethodHandle
+            MethodHandle generic = handle.asType(MethodType.methodType(Object.class));
+            return () -> {
+                try {
+                    return (T) generic.invokeExact();
+                } catch (Throwable ex) {
+                    throw new RuntimeException("对象实例化失败: " + clazz, ex);
+                }
+            };
+        }
+    }
+}
@@ -2,7 +2,9 @@ package lordeath.local.collection.db.util;
 
 import org.apache.commons.lang3.StringUtils;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * SQL 方言兼容工具
@@ -34,6 +36,91 @@ public final class SqlDialectUtil {
         return buildSqliteGroupKeyExpression(groupByColumns, keyColumn);
     }
 
+    /**
+     * 获取二进制列的数据库类型
+     *
+     * @param databaseEngine 数据库引擎
+     * @return 数据库类型
+     */
+    public static String binaryType(String databaseEngine) {
+        if (ENGINE_H2.equalsIgnoreCase(databaseEngine)) {
+            // h2 的 BLOB 会单独存放，读写都要多走一次 LOB 处理，这里用 VARBINARY 保存在行内
+            return "VARBINARY";
+        }
+        return "BLOB";
+    }
+
+    /**
+     * 构建分页子句，数值直接写入SQL，不作为参数绑定。
+     * sqlite 的 OFFSET 必须跟在 LIMIT 后面，不限制行数时用 LIMIT -1 表示；h2 使用标准的 OFFSET/FETCH 写法
+     *
+     * @param limit          最多返回的行数，小于 0 表示不限制
+     * @param offset         跳过的行数
+     * @param databaseEngine 数据库引擎
+     * @return 分页子句，不需要分页时返回空字符串
+     */
+    public static String buildLimitClause(long limit, long offset, String databaseEngine) {
+        if (limit < 0 && offset <= 0) {
+            return "";
+        }
+        if (ENGINE_H2.equalsIgnoreCase(databaseEngine)) {
+            StringBuilder clause = new StringBuilder();
+            if (offset > 0) {
+                clause.append(" OFFSET ").append(offset).append(" ROWS");
+            }
+            if (limit >= 0) {
+                clause.append(" FETCH FIRST ").append(limit).append(" ROWS ONLY");
+            }
+            return clause.toString();
+        }
+        StringBuilder clause = new StringBuilder(" LIMIT ").append(limit < 0 ? -1 : limit);
+        if (offset > 0) {
+            clause.append(" OFFSET ").append(offset);
+        }
+        return clause.toString();
+    }
+
+    /**
+     * 构建重置自增主键的语句，让之后自动生成的主键从 nextValue 开始。
+     * sqlite 的 AUTOINCREMENT 记录在 sqlite_sequence 表中；h2 需要修改列的自增序列，这条 DDL 会提交当前事务
+     *
+     * @param tableName      表名
+     * @param pkColumnName   主键列名
+     * @param nextValue      下一个自动生成的主键
+     * @param databaseEngine 数据库引擎
+     * @return SQL
+     */
+    public static String buildRestartIdentitySql(String tableName, String pkColumnName, long nextValue, String databaseEngine) {
+        if (ENGINE_H2.equalsIgnoreCase(databaseEngine)) {
+            return "ALTER TABLE " + tableName + " ALTER COLUMN " + pkColumnName + " RESTART WITH " + nextValue;
+        }
+        return "UPDATE sqlite_sequence SET seq = " + (nextValue - 1) + " WHERE name = '" + tableName + "'";
+    }
+
+    /**
+     * 构建按 key 插入或者更新一行的语句，参数按 columnNames 的顺序绑定。
+     * sqlite 使用 INSERT ... ON CONFLICT DO UPDATE，需要 key 列上有唯一索引；h2 使用 MERGE ... KEY
+     *
+     * @param tableName      表名
+     * @param keyColumn      key列名
+     * @param columnNames    所有的列名，包括 key 列
+     * @param databaseEngine 数据库引擎
+     * @return SQL
+     */
+    public static String buildUpsertSql(String tableName, String keyColumn, List<String> columnNames, String databaseEngine) {
+        String columnList = String.join(", ", columnNames);
+        String values = String.join(", ", Collections.nCopies(columnNames.size(), "?"));
+        if (ENGINE_H2.equalsIgnoreCase(databaseEngine)) {
+            return "MERGE INTO " + tableName + " (" + columnList + ") KEY (" + keyColumn + ") VALUES (" + values + ")";
+        }
+        String updates = columnNames.stream()
+                .filter(columnName -> !columnName.equals(keyColumn))
+                .map(columnName -> columnName + " = excluded." + columnName)
+                .collect(Collectors.joining(", "));
+        return "INSERT INTO " + tableName + " (" + columnList + ") VALUES (" + values + ") ON CONFLICT (" + keyColumn + ") "
+                + (updates.isEmpty() ? "DO NOTHING" : "DO UPDATE SET " + updates);
+    }
+
     private static String buildSqliteGroupKeyExpression(List<String> groupByColumns, String keyColumn) {
         return String.join(" || '.' || ", groupByColumns) + " AS " + keyColumn;
     }
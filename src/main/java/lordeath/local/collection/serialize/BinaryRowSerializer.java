@@ -0,0 +1,345 @@
+package lordeath.local.collection.serialize;
+
+import lordeath.local.collection.db.bean.LocalColumn;
+import lordeath.local.collection.db.util.RowMapper;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 整行紧凑二进制序列化器。
+ * <p>
+ * 按列定义把一个对象编码成一段字节：开头是空值位图，后面依次是每个非空列的值。
+ * 每一列的读写方式在构造时就确定好，编码和解码时不再按类型分支判断。
+ * 注意，这个类是线程不安全的，每个使用方持有自己的实例。
+ *
+ * @param <T> 数据类型
+ */
+public final class BinaryRowSerializer<T> {
+
+    private final Class<T> clazz;
+    private final RowMapper<T> rowMapper;
+    private final List<LocalColumn> columns;
+    private final ColumnCodec[] codecs;
+    private final boolean simpleValue;
+    private final int bitmapBytes;
+
+    /**
+     * 编码缓冲区，重复使用，避免每行都扩容
+     */
+    private byte[] writeBuffer = new byte[256];
+    private int writePosition;
+    /**
+     * 解码字符串时使用的临时缓冲区
+     */
+    private byte[] readBuffer = new byte[256];
+
+    /**
+     * 使用指定的列定义构造序列化器
+     *
+     * @param clazz   数据类型
+     * @param columns 列定义
+     */
+    public BinaryRowSerializer(Class<T> clazz, List<LocalColumn> columns) {
+        this.clazz = clazz;
+        this.rowMapper = RowMapper.of(clazz);
+        this.columns = columns;
+        this.simpleValue = columns.size() == 1 && columns.get(0).getField() == null;
+        this.codecs = new ColumnCodec[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            codecs[i] = ColumnCodec.of(columns.get(i));
+        }
+        this.bitmapBytes = (columns.size() + 7) >>> 3;
+    }
+
+    /**
+     * 获取编码到这一行中的列
+     *
+     * @return 列定义
+     */
+    public List<LocalColumn> getColumns() {
+        return columns;
+    }
+
+    /**
+     * 把对象编码成字节数组
+     *
+     * @param obj 对象
+     * @return 编码后的字节
+     */
+    public byte[] encode(T obj) {
+        writePosition = 0;
+        ensureWritable(bitmapBytes);
+        Arrays.fill(writeBuffer, 0, bitmapBytes, (byte) 0);
+        writePosition = bitmapBytes;
+        for (int i = 0; i < codecs.length; i++) {
+            Object value = simpleValue ? obj : columns.get(i).getAccessor().get(obj);
+            if (value == null) {
+                writeBuffer[i >>> 3] |= (byte) (1 << (i & 7));
+                continue;
+            }
+            writeValue(codecs[i], columns.get(i), value);
+        }
+        return Arrays.copyOf(writeBuffer, writePosition);
+    }
+
+    /**
+     * 从缓冲区的当前位置解码出一个对象，解码完成后缓冲区的位置会移动到这一行的末尾
+     *
+     * @param buffer 缓冲区，可以是堆外的映射内存
+     * @return 对象
+     */
+    public T decode(ByteBuffer buffer) {
+        int bitmapStart = buffer.position();
+        buffer.position(bitmapStart + bitmapBytes);
+        if (simpleValue) {
+            if ((buffer.get(bitmapStart) & 1) != 0) {
+                return null;
+            }
+            return clazz.cast(readValue(codecs[0], columns.get(0), buffer));
+        }
+        T obj = rowMapper.newInstance();
+        decodeFields(buffer, bitmapStart, obj, false);
+        return obj;
+    }
+
+    /**
+     * 从缓冲区的当前位置解码一行，写入到复用的对象中，为空的字段会被重置为 null。
+     * 简单类型没有可以复用的对象，返回新解码出的值
+     *
+     * @param buffer 缓冲区
+     * @param reuse  复用的对象
+     * @return 写入了这一行数据的对象
+     */
+    public T decodeInto(ByteBuffer buffer, T reuse) {
+        if (simpleValue) {
+            return decode(buffer);
+        }
+        int bitmapStart = buffer.position();
+        buffer.position(bitmapStart + bitmapBytes);
+        decodeFields(buffer, bitmapStart, reuse, true);
+        return reuse;
+    }
+
+    /**
+     * 从字节数组解码一行，写入到复用的对象中
+     *
+     * @param bytes 编码后的字节
+     * @param reuse 复用的对象
+     * @return 写入了这一行数据的对象
+     */
+    public T decodeInto(byte[] bytes, T reuse) {
+        return decodeInto(ByteBuffer.wrap(bytes), reuse);
+    }
+
+    private void decodeFields(ByteBuffer buffer, int bitmapStart, T obj, boolean overwriteNull) {
+        for (int i = 0; i < codecs.length; i++) {
+            if ((buffer.get(bitmapStart + (i >>> 3)) & (1 << (i & 7))) != 0) {
+                if (overwriteNull) {
+                    columns.get(i).getAccessor().set(obj, null);
+                }
+                continue;
+            }
+            columns.get(i).getAccessor().set(obj, readValue(codecs[i], columns.get(i), buffer));
+        }
+    }
+
+    /**
+     * 从字节数组解码出一个对象
+     *
+     * @param bytes 编码后的字节
+     * @return 对象
+     */
+    public T decode(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    private void writeValue(ColumnCodec codec, LocalColumn column, Object value) {
+        switch (codec) {
+            case STRING:
+                writeBytes(((String) value).getBytes(StandardCharsets.UTF_8));
+                break;
+            case INT:
+                writeInt(((Number) value).intValue());
+                break;
+            case LONG:
+                writeLong(((Number) value).longValue());
+                break;
+            case DOUBLE:
+                writeLong(Double.doubleToRawLongBits(((Number) value).doubleValue()));
+                break;
+            case FLOAT:
+                writeInt(Float.floatToRawIntBits(((Number) value).floatValue()));
+                break;
+            case BOOLEAN:
+                ensureWritable(1);
+                writeBuffer[writePosition++] = (byte) (((Boolean) value) ? 1 : 0);
+                break;
+            case CHAR:
+                ensureWritable(2);
+                char ch = (Character) value;
+                writeBuffer[writePosition++] = (byte) (ch >>> 8);
+                writeBuffer[writePosition++] = (byte) ch;
+                break;
+            case DATE:
+            case SQL_DATE:
+                writeLong(((Date) value).getTime());
+                break;
+            case DECIMAL:
+                writeBytes(((BigDecimal) value).toString().getBytes(StandardCharsets.UTF_8));
+                break;
+            case CODEC:
+                writeBytes(column.getTypeCodec().serialize(value).getBytes(StandardCharsets.UTF_8));
+                break;
+            case BINARY_CODEC:
+                writeBytes(((BinaryTypeCodec) column.getTypeCodec()).serializeBytes(value));
+                break;
+            default:
+                throw new UnsupportedOperationException("不支持的数据类型: " + column.getColumnType());
+        }
+    }
+
+    private Object readValue(ColumnCodec codec, LocalColumn column, ByteBuffer buffer) {
+        switch (codec) {
+            case STRING:
+                return readString(buffer);
+            case INT:
+                return buffer.getInt();
+            case LONG:
+                return buffer.getLong();
+            case DOUBLE:
+                return Double.longBitsToDouble(buffer.getLong());
+            case FLOAT:
+                return Float.intBitsToFloat(buffer.getInt());
+            case BOOLEAN:
+                return buffer.get() != 0;
+            case CHAR:
+                return buffer.getChar();
+            case DATE:
+                return new Date(buffer.getLong());
+            case SQL_DATE:
+                return new java.sql.Date(buffer.getLong());
+            case DECIMAL:
+                return new BigDecimal(readString(buffer));
+            case CODEC:
+                return column.getTypeCodec().deserialize(readString(buffer), column.getColumnType());
+            case BINARY_CODEC:
+                return readBinary((BinaryTypeCodec) column.getTypeCodec(), column.getColumnType(), buffer);
+            default:
+                throw new UnsupportedOperationException("不支持的数据类型: " + column.getColumnType());
+        }
+    }
+
+    private String readString(ByteBuffer buffer) {
+        int length = readVarInt(buffer);
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.position() + length);
+            return new String(buffer.array(), offset, length, StandardCharsets.UTF_8);
+        }
+        if (readBuffer.length < length) {
+            readBuffer = new byte[Math.max(length, readBuffer.length << 1)];
+        }
+        buffer.get(readBuffer, 0, length);
+        return new String(readBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static Object readBinary(BinaryTypeCodec codec, Class<?> targetType, ByteBuffer buffer) {
+        int length = readVarInt(buffer);
+        // 只把这一段交给编解码器，不复制数据
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return codec.deserialize(slice, targetType);
+    }
+
+    private void writeBytes(byte[] bytes) {
+        writeVarInt(bytes.length);
+        ensureWritable(bytes.length);
+        System.arraycopy(bytes, 0, writeBuffer, writePosition, bytes.length);
+        writePosition += bytes.length;
+    }
+
+    private void writeInt(int value) {
+        ensureWritable(4);
+        writeBuffer[writePosition++] = (byte) (value >>> 24);
+        writeBuffer[writePosition++] = (byte) (value >>> 16);
+        writeBuffer[writePosition++] = (byte) (value >>> 8);
+        writeBuffer[writePosition++] = (byte) value;
+    }
+
+    private void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    private void writeVarInt(int value) {
+        ensureWritable(5);
+        while ((value & ~0x7F) != 0) {
+            writeBuffer[writePosition++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeBuffer[writePosition++] = (byte) value;
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private void ensureWritable(int length) {
+        if (writePosition + length > writeBuffer.length) {
+            writeBuffer = Arrays.copyOf(writeBuffer, Math.max(writePosition + length, writeBuffer.length << 1));
+        }
+    }
+
+    /**
+     * 列的编码方式，构造序列化器时按列类型确定一次
+     */
+    private enum ColumnCodec {
+        STRING, INT, LONG, DOUBLE, FLOAT, BOOLEAN, CHAR, DATE, SQL_DATE, DECIMAL, CODEC, BINARY_CODEC;
+
+        static ColumnCodec of(LocalColumn column) {
+            if (column.getTypeCodec() instanceof BinaryTypeCodec) {
+                return BINARY_CODEC;
+            }
+            if (column.getTypeCodec() != null) {
+                return CODEC;
+            }
+            Class<?> type = column.getColumnType();
+            if (type == String.class) {
+                return STRING;
+            } else if (type == Integer.class) {
+                return INT;
+            } else if (type == Long.class) {
+                return LONG;
+            } else if (type == Double.class) {
+                return DOUBLE;
+            } else if (type == Float.class) {
+                return FLOAT;
+            } else if (type == Boolean.class) {
+                return BOOLEAN;
+            } else if (type == Character.class) {
+                return CHAR;
+            } else if (type == Date.class) {
+                return DATE;
+            } else if (type == java.sql.Date.class) {
+                return SQL_DATE;
+            } else if (type == BigDecimal.class) {
+                return DECIMAL;
+            }
+            throw new UnsupportedOperationException("不支持的数据类型: " + type);
+        }
+    }
+}
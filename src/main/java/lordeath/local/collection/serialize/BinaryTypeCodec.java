@@ -0,0 +1,65 @@
+package lordeath.local.collection.serialize;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * 二进制类型编解码器。
+ * <p>
+ * 数据库读写直接使用字节，落到 BLOB 列中，不再经过字符串中转。
+ * 文本形式（例如快照导出）默认使用 Base64 包装二进制结果。
+ */
+public interface BinaryTypeCodec extends TypeCodec {
+
+    /**
+     * 序列化为可落库的字节。
+     *
+     * @param value 对象值
+     * @return 序列化后的字节
+     */
+    byte[] serializeBytes(Object value);
+
+    /**
+     * 反序列化从数据库读出的字节。
+     *
+     * @param bytes      数据库存储字节
+     * @param targetType 目标类型
+     * @return 反序列化后的对象
+     */
+    Object deserializeBytes(byte[] bytes, Class<?> targetType);
+
+    /**
+     * 从缓冲区的剩余内容反序列化，默认复制成字节数组后调用 {@link #deserializeBytes(byte[], Class)}。
+     * 需要直接在映射内存上解码的实现可以覆盖这个方法。
+     *
+     * @param buffer     缓冲区，position 到 limit 为数据
+     * @param targetType 目标类型
+     * @return 反序列化后的对象
+     */
+    default Object deserialize(ByteBuffer buffer, Class<?> targetType) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return deserializeBytes(bytes, targetType);
+    }
+
+    @Override
+    default String serialize(Object value) {
+        if (value == null) {
+            return null;
+        }
+        return Base64.getEncoder().encodeToString(serializeBytes(value));
+    }
+
+    @Override
+    default Object deserialize(String rawString, Class<?> targetType) {
+        if (rawString == null) {
+            return null;
+        }
+        return deserializeBytes(Base64.getDecoder().decode(rawString), targetType);
+    }
+
+    @Override
+    default String getDbType() {
+        return "BLOB";
+    }
+}
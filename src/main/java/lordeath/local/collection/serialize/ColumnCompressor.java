@@ -0,0 +1,142 @@
+package lordeath.local.collection.serialize;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 列值压缩器。
+ * <p>
+ * 超过阈值的值使用 Deflater 压缩，压缩后的第一个字节是标记位：0 表示原样保存，1 表示已压缩。
+ * 压缩收益不明显（压缩后没有变小）时也会原样保存，避免读取时白白解压。
+ * 同时记录压缩前后的字节数和压缩、解压耗时，用于运行时指标。
+ */
+public final class ColumnCompressor {
+
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final int threshold;
+
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /**
+     * 构造压缩器
+     *
+     * @param threshold 压缩阈值，小于这个字节数的值不压缩
+     */
+    public ColumnCompressor(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * 压缩
+     *
+     * @param raw 原始字节
+     * @return 带标记位的字节
+     */
+    public byte[] compress(byte[] raw) {
+        long start = System.nanoTime();
+        byte[] result = null;
+        if (raw.length >= threshold) {
+            Deflater deflater = DEFLATER.get();
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[raw.length + 1];
+            buffer[0] = DEFLATED;
+            int length = 1;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (deflater.finished() && length < buffer.length) {
+                result = Arrays.copyOf(buffer, length);
+            }
+        }
+        if (result == null) {
+            result = new byte[raw.length + 1];
+            result[0] = STORED;
+            System.arraycopy(raw, 0, result, 1, raw.length);
+        }
+        compressNanos.add(System.nanoTime() - start);
+        rawBytes.add(raw.length);
+        storedBytes.add(result.length);
+        return result;
+    }
+
+    /**
+     * 解压
+     *
+     * @param stored 带标记位的字节
+     * @return 原始字节
+     */
+    public byte[] decompress(byte[] stored) {
+        if (stored[0] == STORED) {
+            return Arrays.copyOfRange(stored, 1, stored.length);
+        }
+        long start = System.nanoTime();
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(stored, 1, stored.length - 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 4);
+        byte[] buffer = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("压缩数据不完整");
+                }
+                out.write(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("解压失败", e);
+        }
+        decompressNanos.add(System.nanoTime() - start);
+        return out.toByteArray();
+    }
+
+    /**
+     * 压缩前的总字节数
+     *
+     * @return 字节数
+     */
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    /**
+     * 实际保存的总字节数
+     *
+     * @return 字节数
+     */
+    public long getStoredBytes() {
+        return storedBytes.sum();
+    }
+
+    /**
+     * 压缩总耗时
+     *
+     * @return 纳秒
+     */
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    /**
+     * 解压总耗时
+     *
+     * @return 纳秒
+     */
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+}
@@ -0,0 +1,134 @@
+package lordeath.local.collection.serialize;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 低基数字符串列的字典。
+ * <p>
+ * 每个不同的字符串分配一个从 0 开始的整数编码，数据库里只保存编码。
+ * 解码时总是返回字典里的同一个字符串实例，遍历大量重复值时不会重复创建字符串。
+ * 字典同时会写到数据库的字典表里，方便 SQL 聚合时把编码还原成字符串。
+ */
+public final class StringDictionary {
+
+    /**
+     * 字典表的表名
+     */
+    @Getter
+    private final String tableName;
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+    /**
+     * 已经写入字典表的条目数
+     */
+    private int flushedSize;
+
+    /**
+     * 构造字典
+     *
+     * @param tableName 字典表的表名
+     */
+    public StringDictionary(String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * 获取字符串的编码，不存在时分配新的编码
+     *
+     * @param value 字符串
+     * @return 编码
+     */
+    public synchronized int encode(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    /**
+     * 查找字符串已有的编码，不存在时不分配新的编码
+     *
+     * @param value 字符串
+     * @return 编码，字典中没有这个字符串时返回 null
+     */
+    public synchronized Integer lookup(String value) {
+        return codes.get(value);
+    }
+
+    /**
+     * 按相同的编码复制另一个字典的全部条目，用于在表之间直接复制编码后的数据
+     *
+     * @param source 源字典
+     */
+    public void copyFrom(StringDictionary source) {
+        List<String> sourceValues;
+        synchronized (source) {
+            sourceValues = new ArrayList<>(source.values);
+        }
+        synchronized (this) {
+            if (!values.isEmpty()) {
+                throw new IllegalStateException("只能复制到空的字典: " + tableName);
+            }
+            for (String value : sourceValues) {
+                encode(value);
+            }
+        }
+    }
+
+    /**
+     * 获取编码对应的字符串
+     *
+     * @param code 编码
+     * @return 字典中的字符串实例
+     */
+    public synchronized String decode(int code) {
+        if (code < 0 || code >= values.size()) {
+            throw new IllegalStateException("字典中不存在的编码: " + code + ", 字典表: " + tableName);
+        }
+        return values.get(code);
+    }
+
+    /**
+     * 字典的大小
+     *
+     * @return 不同字符串的数量
+     */
+    public synchronized int size() {
+        return values.size();
+    }
+
+    /**
+     * 获取还没有写入字典表的条目，编码等于 {@link #getFlushedSize()} 加上在列表中的下标
+     *
+     * @return 待写入的字符串
+     */
+    public synchronized List<String> getPendingValues() {
+        return new ArrayList<>(values.subList(flushedSize, values.size()));
+    }
+
+    /**
+     * 已经写入字典表的条目数
+     *
+     * @return 条目数
+     */
+    public synchronized int getFlushedSize() {
+        return flushedSize;
+    }
+
+    /**
+     * 标记条目已经写入字典表
+     *
+     * @param flushedSize 已写入的条目数
+     */
+    public synchronized void markFlushed(int flushedSize) {
+        this.flushedSize = Math.max(this.flushedSize, flushedSize);
+    }
+}
@@ -1,6 +1,7 @@
 package lordeath.local.collection.serialize;
 
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -10,6 +11,11 @@ public final class TypeCodecRegistry {
 
     private static final List<TypeCodec> CODECS = new CopyOnWriteArrayList<>();
 
+    /**
+     * 按类型缓存查找结果，注册或清理时整体替换，避免每次查找都遍历所有编解码器
+     */
+    private static volatile ClassValue<Optional<TypeCodec>> cache = newCache();
+
     private TypeCodecRegistry() {
     }
 
@@ -23,6 +29,7 @@ public final class TypeCodecRegistry {
             throw new IllegalArgumentException("codec is null");
         }
         CODECS.add(codec);
+        cache = newCache();
     }
 
     /**
@@ -35,12 +42,7 @@ public final class TypeCodecRegistry {
         if (javaType == null) {
             return null;
         }
-        for (TypeCodec codec : CODECS) {
-            if (codec.supports(javaType)) {
-                return codec;
-            }
-        }
-        return null;
+        return cache.get(javaType).orElse(null);
     }
 
     /**
@@ -59,5 +61,20 @@ public final class TypeCodecRegistry {
      */
     public static void clear() {
         CODECS.clear();
+        cache = newCache();
+    }
+
+    private static ClassValue<Optional<TypeCodec>> newCache() {
+        return new ClassValue<>() {
+            @Override
+            protected Optional<TypeCodec> computeValue(Class<?> javaType) {
+                for (TypeCodec codec : CODECS) {
+                    if (codec.supports(javaType)) {
+                        return Optional.of(codec);
+                    }
+                }
+                return Optional.empty();
+            }
+        };
     }
 }
@@ -0,0 +1,55 @@
+package lordeath.local.collection.db.util;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RowMapperTest {
+
+    @Test
+    void newInstanceShouldUsePrivateNoArgConstructor() {
+        PrivateBean bean = RowMapper.of(PrivateBean.class).newInstance();
+        assertNotNull(bean);
+        assertNotSame(bean, RowMapper.of(PrivateBean.class).newInstance());
+        assertSame(RowMapper.of(PrivateBean.class), RowMapper.of(PrivateBean.class));
+    }
+
+    @Test
+    void newInstanceWithoutNoArgConstructorShouldFailLazily() {
+        RowMapper<NoDefaultConstructorBean> mapper = RowMapper.of(NoDefaultConstructorBean.class);
+        assertThrows(RuntimeException.class, mapper::newInstance);
+    }
+
+    @Test
+    void fieldAccessorShouldReadAndWritePrivateAndInheritedFields() {
+        PrivateBean bean = RowMapper.of(PrivateBean.class).newInstance();
+        FieldAccessor age = FieldAccessor.of(FieldUtils.getDeclaredField(PrivateBean.class, "age", true));
+        FieldAccessor name = FieldAccessor.of(FieldUtils.getField(PrivateBean.class, "name", true));
+
+        age.set(bean, 18);
+        name.set(bean, "Jack");
+        assertEquals(18, age.get(bean));
+        assertEquals("Jack", name.get(bean));
+        assertThrows(RuntimeException.class, () -> age.set(bean, null));
+    }
+
+    static class BaseBean {
+        private String name;
+    }
+
+    static class PrivateBean extends BaseBean {
+        private int age;
+
+        private PrivateBean() {
+        }
+    }
+
+    static class NoDefaultConstructorBean {
+        private final int value;
+
+        NoDefaultConstructorBean(int value) {
+            this.value = value;
+        }
+    }
+}
@@ -35,4 +35,31 @@ public class SqlDialectUtilTest {
         assertEquals("'' AS key_col", SqlDialectUtil.buildGroupByKeyExpression(
                 Arrays.asList(), "key_col", "sqlite"));
     }
+
+    @Test
+    void buildLimitClauseShouldFollowDialect() {
+        assertEquals("", SqlDialectUtil.buildLimitClause(-1, 0, "sqlite"));
+        assertEquals(" LIMIT 10", SqlDialectUtil.buildLimitClause(10, 0, "sqlite"));
+        assertEquals(" LIMIT -1 OFFSET 5", SqlDialectUtil.buildLimitClause(-1, 5, "sqlite"));
+        assertEquals(" OFFSET 5 ROWS FETCH FIRST 10 ROWS ONLY", SqlDialectUtil.buildLimitClause(10, 5, "h2"));
+        assertEquals(" FETCH FIRST 10 ROWS ONLY", SqlDialectUtil.buildLimitClause(10, 0, "h2"));
+    }
+
+    @Test
+    void buildRestartIdentitySqlShouldFollowDialect() {
+        assertEquals("UPDATE sqlite_sequence SET seq = 99 WHERE name = 't1'",
+                SqlDialectUtil.buildRestartIdentitySql("t1", "id", 100, "sqlite"));
+        assertEquals("ALTER TABLE t1 ALTER COLUMN id RESTART WITH 100",
+                SqlDialectUtil.buildRestartIdentitySql("t1", "id", 100, "h2"));
+    }
+
+    @Test
+    void buildUpsertSqlShouldFollowDialect() {
+        assertEquals("INSERT INTO t1 (k, a, b) VALUES (?, ?, ?) ON CONFLICT (k) DO UPDATE SET a = excluded.a, b = excluded.b",
+                SqlDialectUtil.buildUpsertSql("t1", "k", Arrays.asList("k", "a", "b"), "sqlite"));
+        assertEquals("INSERT INTO t1 (k) VALUES (?) ON CONFLICT (k) DO NOTHING",
+                SqlDialectUtil.buildUpsertSql("t1", "k", Arrays.asList("k"), "sqlite"));
+        assertEquals("MERGE INTO t1 (k, a, b) KEY (k) VALUES (?, ?, ?)",
+                SqlDialectUtil.buildUpsertSql("t1", "k", Arrays.asList("k", "a", "b"), "h2"));
+    }
 }
@@ -3,11 +3,20 @@ package lordeath.local.collection.test;
 import com.google.common.collect.Lists;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import lordeath.local.collection.AggregateResult;
+import lordeath.local.collection.LocalJoin;
 import lordeath.local.collection.LocalList;
+import lordeath.local.collection.LocalListRuntimeMetrics;
 import lordeath.local.collection.LocalMap;
 import lordeath.local.collection.SynchronizedLocalMap;
+import lordeath.local.collection.annotation.LocalField;
+import lordeath.local.collection.annotation.LocalIndex;
+import lordeath.local.collection.db.config.MainConfig;
+import lordeath.local.collection.serialize.BinaryTypeCodec;
 import lordeath.local.collection.serialize.TypeCodec;
 import lordeath.local.collection.serialize.TypeCodecRegistry;
 import org.apache.commons.lang3.reflect.FieldUtils;
@@ -17,14 +26,28 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -50,6 +73,25 @@ public class LocalListTest {
         testPluggableSerialization();
         testSqlDateAndBooleanSupport();
         testRecoveryStateApi();
+        testRowStorageLayout();
+        testBinaryTypeCodec();
+        testDictionaryEncoding();
+        testColumnCompression();
+        testProjection();
+        testForEachReusing();
+        testStreamingCursor();
+        testForEachBatch();
+        testValueLookup();
+        testBulkRemove();
+        testQuery();
+        testAggregate();
+        testLazyIndexes();
+        testSort();
+        testTopK();
+        testDistinct();
+        testJoin();
+        testPositionalInsert();
+        testMapFrontCache();
     }
 
     @SuppressWarnings("ConstantValue")
@@ -226,6 +268,28 @@ public class LocalListTest {
 
         }
 
+        // 分组拼出来的 key 可能重复，比如 ("a.b", "c") 和 ("a", "b.c")，生成的表不能有唯一索引
+        try (LocalList<JoinBean> list = new LocalList<>()) {
+            list.add(new JoinBean("a.b", "c"));
+            list.add(new JoinBean("a", "b.c"));
+            try (LocalMap<String, JoinBean> map = LocalMap.from(list)
+                    .groupBy("userName", "orderName")
+                    .select("userName", "orderName")
+                    .resultClass(JoinBean.class)
+                    .keyField(FieldUtils.getDeclaredField(JoinBean.class, "userName", true))
+                    .build()) {
+                assertEquals(2, map.size());
+                assertNotNull(map.get("a.b.c"));
+                // 没有唯一索引时 put 先删除再插入，key 只剩一行
+                map.put("a.b.c", new JoinBean("x", "y"));
+                assertEquals(1, map.size());
+                assertEquals("x", map.get("a.b.c").getUserName());
+                map.putAll(Collections.singletonMap("a.b.c", new JoinBean("z", "y")));
+                assertEquals(1, map.size());
+                assertEquals("z", map.get("a.b.c").getUserName());
+            }
+        }
+
         try (LocalMap<String, String> map = new LocalMap<>()) {
             map.put("a", "b");
 
@@ -243,6 +307,11 @@ public class LocalListTest {
             assertEquals("1", map.get("a").name);
             assertEquals(2, map.get("a").age);
 
+            // 覆盖写入时返回原来的值，表中仍然只有一行
+            assertEquals(2, map.put("a", new TestBean1("3", 4)).age);
+            assertEquals(4, map.get("a").age);
+            assertEquals(1, map.getInnerList().stream().count());
+
             map.remove("a");
             assertEquals(0, map.size());
         }
@@ -294,6 +363,53 @@ public class LocalListTest {
             assertEquals("3", map.get("c"));
         }
 
+        try (LocalMap<String, TestBean1> map = new LocalMap<>()) {
+            // 数量超过一批，写入和 IN 查询都会分成多批
+            java.util.Map<String, TestBean1> batch = new java.util.LinkedHashMap<>();
+            for (int i = 0; i < 2500; i++) {
+                batch.put("k" + i, new TestBean1("v" + i, i));
+            }
+            map.putAll(batch);
+            assertEquals(2500, map.size());
+            assertEquals(1234, map.get("k1234").age);
+
+            java.util.Map<String, TestBean1> update = new java.util.LinkedHashMap<>();
+            for (int i = 2000; i < 3000; i++) {
+                update.put("k" + i, new TestBean1("u" + i, -i));
+            }
+            map.putAll(update);
+            assertEquals(3000, map.size());
+            assertEquals(-2100, map.get("k2100").age);
+            assertEquals(1999, map.get("k1999").age);
+
+            java.util.Map<String, TestBean1> absent = new java.util.LinkedHashMap<>();
+            absent.put("k0", new TestBean1("x", 1));
+            absent.put("new1", new TestBean1("n", 2));
+            absent.put("k2999", new TestBean1("y", 3));
+            java.util.Map<String, TestBean1> existing = map.putAllIfAbsentWithExisting(absent);
+            assertEquals(Arrays.asList("k0", "k2999"), new ArrayList<>(existing.keySet()));
+            assertEquals(-2999, existing.get("k2999").age);
+            assertEquals(0, map.get("k0").age);
+            assertEquals(2, map.get("new1").age);
+            assertEquals(3001, map.size());
+            assertEquals(3001, map.getInnerList().stream().count());
+
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < 1200; i++) {
+                keys.add("k" + (i * 3));
+            }
+            keys.add("missing");
+            for (boolean parallel : new boolean[]{false, true}) {
+                java.util.Map<String, TestBean1> all = map.getAll(keys, parallel);
+                assertEquals(1000, all.size());
+                assertEquals("k0", all.keySet().iterator().next());
+                assertEquals(1998, all.get("k1998").age);
+                assertEquals(-2997, all.get("k2997").age);
+                assertFalse(all.containsKey("missing"));
+            }
+            assertTrue(map.getAll(Collections.emptyList()).isEmpty());
+        }
+
         try (SynchronizedLocalMap<String, String> synchronizedMap = LocalMap.synchronizedMap(new LocalMap<>())) {
             assertNull(synchronizedMap.putIfAbsent("a", "1"));
             assertEquals("1", synchronizedMap.get("a"));
@@ -370,17 +486,9 @@ public class LocalListTest {
 
     private static void testUnsupportedOperations() {
         try (LocalList<String> list = new LocalList<>(String.class)) {
-            assertThrows(UnsupportedOperationException.class, () -> list.contains("a"));
             assertThrows(UnsupportedOperationException.class, () -> list.toArray());
             assertThrows(UnsupportedOperationException.class, () -> list.toArray(new String[0]));
             assertThrows(UnsupportedOperationException.class, () -> list.remove((Object) "a"));
-            assertThrows(UnsupportedOperationException.class, () -> list.containsAll(Collections.singleton("a")));
-            assertThrows(UnsupportedOperationException.class, () -> list.addAll(0, Collections.singletonList("a")));
-            assertThrows(UnsupportedOperationException.class, () -> list.removeAll(Collections.singleton("a")));
-            assertThrows(UnsupportedOperationException.class, () -> list.retainAll(Collections.singleton("a")));
-            assertThrows(UnsupportedOperationException.class, () -> list.add(0, "a"));
-            assertThrows(UnsupportedOperationException.class, () -> list.indexOf("a"));
-            assertThrows(UnsupportedOperationException.class, () -> list.lastIndexOf("a"));
         }
     }
 
@@ -747,6 +855,991 @@ public class LocalListTest {
         });
     }
 
+    private static void testRowStorageLayout() {
+        withSystemProperty(MainConfig.DB_STORAGE_LAYOUT.getKey(), "row", () -> withCacheSize(0, () -> {
+            try (LocalList<RowLayoutBean> list = new LocalList<>(RowLayoutBean.class)) {
+                list.add(new RowLayoutBean("Jack", 26, new Date(10000000), new BigDecimal("123.456789")));
+                list.addAll(Arrays.asList(
+                        new RowLayoutBean("Rose", 27, null, new BigDecimal("789.654321")),
+                        new RowLayoutBean("Jack", 28, new Date(30000000), null)));
+                assertEquals(3, list.size());
+                assertEquals(new RowLayoutBean("Jack", 26, new Date(10000000), new BigDecimal("123.456789")), list.get(0));
+                assertNull(list.get(1).getBirthTime());
+                assertNull(list.get(2).getMoney());
+
+                list.set(1, new RowLayoutBean("Rose", 30, new Date(20000000), null));
+                assertEquals(30, list.get(1).getAge());
+                assertEquals(new Date(20000000), list.get(1).getBirthTime());
+
+                int ageSum = 0;
+                for (RowLayoutBean bean : list) {
+                    ageSum += bean.getAge();
+                }
+                assertEquals(26 + 30 + 28, ageSum);
+
+                // 保留为独立列的字段仍然可以用于SQL聚合
+                try (LocalMap<String, TestBean1> map = LocalMap.from(list)
+                        .groupBy("name")
+                        .select("name", "count(*) AS age")
+                        .resultClass(TestBean1.class)
+                        .keyField(FieldUtils.getDeclaredField(TestBean1.class, "name", true))
+                        .build()) {
+                    assertEquals(2, map.get("Jack").getAge());
+                    assertEquals(1, map.get("Rose").getAge());
+                }
+
+                assertEquals("Jack", list.remove(0).getName());
+                assertEquals(2, list.size());
+                assertEquals("Rose", list.get(0).getName());
+            }
+
+            // 简单类型不受影响
+            try (LocalList<String> list = new LocalList<>()) {
+                list.add("a");
+                assertEquals("a", list.get(0));
+            }
+        }));
+    }
+
+    private static void testBinaryTypeCodec() {
+        withCacheSize(0, () -> {
+            TypeCodecRegistry.clear();
+            try {
+                TypeCodecRegistry.register(new BinaryTypeCodec() {
+                    @Override
+                    public boolean supports(Class<?> javaType) {
+                        return javaType == GeoPoint.class;
+                    }
+
+                    @Override
+                    public byte[] serializeBytes(Object value) {
+                        GeoPoint point = (GeoPoint) value;
+                        return ByteBuffer.allocate(8).putInt(point.getX()).putInt(point.getY()).array();
+                    }
+
+                    @Override
+                    public Object deserializeBytes(byte[] bytes, Class<?> targetType) {
+                        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                        return new GeoPoint(buffer.getInt(), buffer.getInt());
+                    }
+                });
+                assertEquals("BLOB", TypeCodecRegistry.resolveSqlType(GeoPoint.class));
+
+                try (LocalList<CustomTypeBean> list = new LocalList<>(CustomTypeBean.class)) {
+                    list.add(new CustomTypeBean("center", new GeoPoint(10, 20)));
+                    list.add(new CustomTypeBean("empty", null));
+                    assertEquals(new GeoPoint(10, 20), list.get(0).point);
+                    assertNull(list.get(1).point);
+
+                    Path json = Files.createTempFile("local-list-snapshot-binary-codec", ".json");
+                    list.exportToJson(json.toFile());
+                    list.clear();
+                    list.importFromJson(json.toFile());
+                    assertEquals(new GeoPoint(10, 20), list.get(0).point);
+                    Files.deleteIfExists(json);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+
+                try (LocalMap<String, GeoPoint> map = new LocalMap<>()) {
+                    map.put("a", new GeoPoint(-1, 2));
+                    assertEquals(new GeoPoint(-1, 2), map.get("a"));
+                }
+            } finally {
+                TypeCodecRegistry.clear();
+            }
+        });
+    }
+
+    private static void testDictionaryEncoding() {
+        withCacheSize(0, () -> {
+            String[] statuses = {"open", "closed", "pending"};
+            try (LocalList<DictionaryBean> list = new LocalList<>(DictionaryBean.class)) {
+                List<DictionaryBean> batch = new ArrayList<>();
+                for (int i = 0; i < 300; i++) {
+                    batch.add(new DictionaryBean(new String(statuses[i % 3]), "name" + i, i));
+                }
+                list.addAll(batch);
+                list.add(new DictionaryBean(null, "nobody", -1));
+                assertEquals(301, list.size());
+                assertEquals("closed", list.get(1).getStatus());
+                assertNull(list.get(300).getStatus());
+                // 同一个值读取出来是同一个字符串实例
+                assertSame(list.get(0).getStatus(), list.get(3).getStatus());
+
+                list.set(0, new DictionaryBean("archived", "name0", 0));
+                assertEquals("archived", list.get(0).getStatus());
+
+                try (LocalMap<String, TestBean1> map = LocalMap.from(list)
+                        .where("status = 'open'")
+                        .groupBy("status")
+                        .select("status AS name", "count(*) AS age")
+                        .resultClass(TestBean1.class)
+                        .keyField(FieldUtils.getDeclaredField(TestBean1.class, "name", true))
+                        .build()) {
+                    assertEquals(1, map.size());
+                    assertEquals("open", map.get("open").getName());
+                    assertEquals(99, map.get("open").getAge());
+                }
+
+                // 写入失败回滚后，新的字典条目仍然是待写入的，下一次写入时重新写入字典表
+                String ageColumn = list.getDatabaseOpt().getColumns().stream()
+                        .filter(column -> column.getField() != null && "age".equals(column.getField().getName()))
+                        .findFirst().orElseThrow(IllegalStateException::new).getColumnName();
+                String tableName = list.getDatabaseOpt().getTableName();
+                try (Connection connection = list.getDatabaseOpt().getDataSource().getConnection();
+                     java.sql.Statement stmt = connection.createStatement()) {
+                    stmt.execute("CREATE UNIQUE INDEX idx_age_" + tableName + " ON " + tableName + "(" + ageColumn + ")");
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+                assertThrows(RuntimeException.class, () -> list.addAll(Arrays.asList(
+                        new DictionaryBean("rejected", "dup", 1), new DictionaryBean("rejected", "dup", 1))));
+                assertThrows(RuntimeException.class, () -> list.add(new DictionaryBean("refused", "dup", 2)));
+                list.add(new DictionaryBean("rejected", "ok", 1000));
+                list.add(new DictionaryBean("refused", "ok", 1001));
+                try (Stream<DictionaryBean> stream = list.query().where("status = ?", "rejected").stream()) {
+                    assertEquals(1, stream.count());
+                }
+                try (Stream<DictionaryBean> stream = list.query().where("status = ?", "refused").stream()) {
+                    assertEquals(1, stream.count());
+                }
+            }
+        });
+    }
+
+    private static void testColumnCompression() {
+        withCacheSize(0, () -> {
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < 200; i++) {
+                json.append("{\"id\":").append(i).append(",\"status\":\"open\"},");
+            }
+            json.append("{}]");
+            try (LocalList<CompressBean> list = new LocalList<>(CompressBean.class)) {
+                list.add(new CompressBean("big", json.toString()));
+                list.add(new CompressBean("small", "{}"));
+                list.add(new CompressBean("empty", null));
+                assertEquals(json.toString(), list.get(0).getPayload());
+                assertEquals("{}", list.get(1).getPayload());
+                assertNull(list.get(2).getPayload());
+
+                LocalListRuntimeMetrics metrics = list.getRuntimeMetrics();
+                assertEquals(json.length() + 2, metrics.getCompressionRawBytes());
+                assertTrue(metrics.getCompressionRatio() < 0.5D);
+                assertTrue(metrics.getCompressionTotalNanos() > 0);
+                assertTrue(metrics.getDecompressionTotalNanos() > 0);
+            }
+
+            // 整行存储时也可以压缩整行
+            withSystemProperty(MainConfig.DB_STORAGE_LAYOUT.getKey(), "row", () ->
+                    withSystemProperty(MainConfig.DB_STORAGE_ROW_COMPRESS.getKey(), "true", () -> {
+                        try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+                            list.add(new TestBean1(json.toString(), 1));
+                            assertEquals(json.toString(), list.get(0).getName());
+                            assertTrue(list.getRuntimeMetrics().getCompressionRatio() < 0.5D);
+                        }
+                    }));
+        });
+    }
+
+    private static void testProjection() {
+        withCacheSize(0, () -> {
+            try (LocalList<TestBean2> list = new LocalList<>(TestBean2.class)) {
+                list.add(new TestBean2("Jack", 26, new Date(10000000), new BigDecimal("123.456789")));
+                list.add(new TestBean2("Rose", 27, new Date(20000000), null));
+                List<TestBean2> projected = new ArrayList<>();
+                list.project("name", "age").forEach(projected::add);
+                assertEquals(Arrays.asList(new TestBean2("Jack", 26, null, null), new TestBean2("Rose", 27, null, null)), projected);
+                assertThrows(IllegalArgumentException.class, () -> list.project("name", "unknown"));
+            }
+
+            // 整行存储时，只读取独立列就不需要解码整行
+            withSystemProperty(MainConfig.DB_STORAGE_LAYOUT.getKey(), "row", () -> {
+                try (LocalList<RowLayoutBean> list = new LocalList<>(RowLayoutBean.class)) {
+                    list.add(new RowLayoutBean("Jack", 26, new Date(10000000), null));
+                    RowLayoutBean bean = list.project("name").iterator().next();
+                    assertEquals(new RowLayoutBean("Jack", 0, null, null), bean);
+                    bean = list.project("age").iterator().next();
+                    assertEquals(new RowLayoutBean(null, 26, new Date(10000000), null), bean);
+                }
+            });
+        });
+        // 数据还在缓存中时返回完整对象
+        try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+            list.add(new TestBean1("Jack", 26));
+            assertEquals(26, list.project("name").iterator().next().getAge());
+        }
+        // 还没有写入过数据的空列表
+        try (LocalList<TestBean1> list = new LocalList<>()) {
+            assertFalse(list.project("name").iterator().hasNext());
+        }
+    }
+
+    private static void testForEachReusing() {
+        withCacheSize(0, () -> {
+            try (LocalList<TestBean2> list = new LocalList<>(TestBean2.class)) {
+                list.add(new TestBean2("Jack", 26, new Date(10000000), new BigDecimal("123.456789")));
+                list.add(new TestBean2(null, 27, null, null));
+                list.add(new TestBean2("Max", 28, new Date(30000000), null));
+                List<TestBean2> copies = new ArrayList<>();
+                Set<TestBean2> instances = Collections.newSetFromMap(new IdentityHashMap<>());
+                list.forEachReusing(TestBean2::new, bean -> {
+                    instances.add(bean);
+                    copies.add(new TestBean2(bean.getName(), bean.getAge(), bean.getBirthTime(), bean.getMoney()));
+                });
+                assertEquals(1, instances.size());
+                // 上一行的值不能残留到下一行
+                assertEquals(Arrays.asList(list.get(0), list.get(1), list.get(2)), copies);
+            }
+
+            withSystemProperty(MainConfig.DB_STORAGE_LAYOUT.getKey(), "row", () -> {
+                try (LocalList<RowLayoutBean> list = new LocalList<>(RowLayoutBean.class)) {
+                    list.add(new RowLayoutBean("Jack", 26, new Date(10000000), null));
+                    list.add(new RowLayoutBean(null, 27, null, new BigDecimal("1.5")));
+                    List<RowLayoutBean> copies = new ArrayList<>();
+                    list.forEachReusing(RowLayoutBean::new, bean -> copies.add(new RowLayoutBean(
+                            bean.getName(), bean.getAge(), bean.getBirthTime(), bean.getMoney())));
+                    assertEquals(Arrays.asList(list.get(0), list.get(1)), copies);
+                }
+            });
+
+            try (LocalList<String> list = new LocalList<>()) {
+                list.add("a");
+                list.add(null);
+                List<String> values = new ArrayList<>();
+                list.forEachReusing(() -> null, values::add);
+                assertEquals(Arrays.asList("a", null), values);
+            }
+        });
+    }
+
+    private static void testStreamingCursor() {
+        withCacheSize(0, () -> {
+            try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class);
+                 LocalList<TestBean1> sink = new LocalList<>(TestBean1.class)) {
+                List<TestBean1> batch = new ArrayList<>();
+                for (int i = 0; i < 12000; i++) {
+                    batch.add(new TestBean1("name" + i, i));
+                }
+                list.addAll(batch);
+                list.remove(0);
+
+                int[] expected = {1};
+                list.forEach(bean -> assertEquals(expected[0]++, bean.getAge()));
+                assertEquals(12000, expected[0]);
+                assertEquals(5999, list.stream().filter(bean -> bean.getAge() % 2 == 0).count());
+
+                // 提前结束的流关闭后释放游标，不影响后续的读写
+                try (Stream<TestBean1> stream = list.stream()) {
+                    assertEquals(Arrays.asList(1, 2, 3), stream.limit(3).map(TestBean1::getAge).collect(Collectors.toList()));
+                }
+                list.add(new TestBean1("last", 12000));
+                assertEquals(12000, list.get(list.size() - 1).getAge());
+
+                // 遍历过程中写入其他的列表
+                list.forEach(bean -> {
+                    if (bean.getAge() % 1000 == 0) {
+                        sink.add(bean);
+                    }
+                });
+                assertEquals(12, sink.size());
+                assertEquals(12000, sink.get(11).getAge());
+            }
+            // 还没有写入过数据的空列表没有数据库操作对象
+            try (LocalList<TestBean1> list = new LocalList<>()) {
+                list.forEach(bean -> fail("空列表不应该有元素"));
+                assertEquals(0, list.stream().count());
+            }
+        });
+    }
+
+    private static void testForEachBatch() {
+        withCacheSize(0, () -> {
+            try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+                List<TestBean1> data = new ArrayList<>();
+                for (int i = 0; i < 12000; i++) {
+                    data.add(new TestBean1("name" + i, i));
+                }
+                list.addAll(data);
+
+                List<Integer> sizes = new ArrayList<>();
+                List<TestBean1> all = new ArrayList<>();
+                list.forEachBatch(5000, batch -> {
+                    sizes.add(batch.size());
+                    all.addAll(batch);
+                });
+                assertEquals(Arrays.asList(5000, 5000, 2000), sizes);
+                assertEquals(data, all);
+                assertEquals(4, list.streamBatches(3000).count());
+
+                // 并行时不保证顺序，但每一行都会被处理一次
+                AtomicLong ageSum = new AtomicLong();
+                AtomicInteger batches = new AtomicInteger();
+                list.forEachBatch(1000, true, batch -> {
+                    batches.incrementAndGet();
+                    batch.forEach(bean -> ageSum.addAndGet(bean.getAge()));
+                });
+                assertEquals(12, batches.get());
+                assertEquals(11999L * 12000 / 2, ageSum.get());
+                assertThrows(IllegalArgumentException.class, () -> list.forEachBatch(0, batch -> {
+                }));
+            }
+        });
+        try (LocalList<String> list = new LocalList<>()) {
+            list.addAll(Arrays.asList("a", "b", "c", "d", "e"));
+            List<List<String>> batches = new ArrayList<>();
+            list.forEachBatch(2, batches::add);
+            assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d"), Collections.singletonList("e")), batches);
+        }
+    }
+
+    private static void testValueLookup() {
+        withCacheSize(0, () -> {
+            try (LocalList<TestBean2> list = new LocalList<>(TestBean2.class)) {
+                TestBean2 jack = new TestBean2("Jack", 26, new Date(10000000), new BigDecimal("123.456789"));
+                TestBean2 rose = new TestBean2("Rose", 27, null, null);
+                list.add(jack);
+                list.add(rose);
+                list.add(jack);
+                assertTrue(list.contains(rose));
+                assertEquals(0, list.indexOf(jack));
+                assertEquals(2, list.lastIndexOf(jack));
+                assertEquals(-1, list.indexOf(new TestBean2("Rose", 28, null, null)));
+                assertEquals(-1, list.indexOf("Rose"));
+                assertEquals(-1, list.indexOf(null));
+                assertTrue(list.containsAll(Arrays.asList(rose, jack)));
+                assertFalse(list.containsAll(Arrays.asList(rose, new TestBean2("Max", 1, null, null))));
+                // 删除后下标需要重新计算
+                list.remove(0);
+                assertEquals(1, list.indexOf(jack));
+            }
+
+            try (LocalList<String> list = new LocalList<>()) {
+                assertEquals(-1, list.indexOf("a"));
+                list.addAll(Arrays.asList("a", null, "b", "a"));
+                assertEquals(1, list.indexOf(null));
+                assertEquals(3, list.lastIndexOf("a"));
+                assertTrue(list.containsAll(Arrays.asList("b", null)));
+                assertFalse(list.contains("c"));
+            }
+
+            // 整行哈希、整行存储和字典编码的列也按编码后的值比较
+            withSystemProperty(MainConfig.DB_ROW_HASH.getKey(), "true", () ->
+                    withSystemProperty(MainConfig.DB_STORAGE_LAYOUT.getKey(), "row", () -> {
+                        try (LocalList<RowLayoutBean> list = new LocalList<>(RowLayoutBean.class)) {
+                            list.add(new RowLayoutBean("Jack", 26, new Date(10000000), null));
+                            list.add(new RowLayoutBean("Rose", 27, null, new BigDecimal("1.5")));
+                            assertEquals(new RowLayoutBean("Rose", 27, null, new BigDecimal("1.5")), list.get(1));
+                            assertEquals(1, list.indexOf(new RowLayoutBean("Rose", 27, null, new BigDecimal("1.5"))));
+                            assertEquals(-1, list.indexOf(new RowLayoutBean("Rose", 27, null, null)));
+                            list.set(0, new RowLayoutBean("Max", 1, null, null));
+                            assertEquals(0, list.indexOf(new RowLayoutBean("Max", 1, null, null)));
+                        }
+                        try (LocalList<DictionaryBean> list = new LocalList<>(DictionaryBean.class)) {
+                            list.add(new DictionaryBean("open", "Jack", 1));
+                            assertTrue(list.contains(new DictionaryBean("open", "Jack", 1)));
+                            assertFalse(list.contains(new DictionaryBean("closed", "Jack", 1)));
+                        }
+                    }));
+        });
+        try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+            list.add(new TestBean1("Jack", 26));
+            assertEquals(0, list.indexOf(new TestBean1("Jack", 26)));
+        }
+        // 元素没有重写 equals，数据在缓存中和在数据库中都按各列编码后的值比较
+        for (int cacheSize : new int[]{0, 10}) {
+            withCacheSize(cacheSize, () -> {
+                try (LocalList<PlainBean> list = new LocalList<>(PlainBean.class)) {
+                    list.add(new PlainBean("Jack", 26));
+                    list.add(new PlainBean("Rose", 27));
+                    list.add(new PlainBean("Jack", 26));
+                    assertEquals(0, list.indexOf(new PlainBean("Jack", 26)));
+                    assertEquals(2, list.lastIndexOf(new PlainBean("Jack", 26)));
+                    assertTrue(list.containsAll(Arrays.asList(new PlainBean("Rose", 27), new PlainBean("Jack", 26))));
+                    assertFalse(list.contains(new PlainBean("Rose", 28)));
+                    assertEquals(-1, list.indexOf(new TestBean1("Rose", 27)));
+                }
+            });
+        }
+    }
+
+    private static void testBulkRemove() {
+        withCacheSize(0, () -> {
+            try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+                List<TestBean1> data = new ArrayList<>();
+                for (int i = 0; i < 3000; i++) {
+                    data.add(new TestBean1("name" + i, i));
+                }
+                list.addAll(data);
+
+                assertTrue(list.removeIf(bean -> bean.getAge() % 3 == 0));
+                assertEquals(2000, list.size());
+                assertEquals(1, list.get(0).getAge());
+                assertEquals(2999, list.get(1999).getAge());
+                assertFalse(list.removeIf(bean -> bean.getAge() % 3 == 0));
+
+                assertTrue(list.removeAll(Arrays.asList(new TestBean1("name1", 1), new TestBean1("name2", 2), new TestBean1("none", 3))));
+                assertEquals(1998, list.size());
+                assertEquals(4, list.get(0).getAge());
+
+                assertTrue(list.retainAll(Arrays.asList(new TestBean1("name5", 5), new TestBean1("name2999", 2999))));
+                assertEquals(2, list.size());
+                assertEquals(Arrays.asList(new TestBean1("name5", 5), new TestBean1("name2999", 2999)), list.stream().collect(Collectors.toList()));
+                assertEquals(1, list.indexOf(new TestBean1("name2999", 2999)));
+
+                // 判断条件抛出异常时，不删除任何数据
+                assertThrows(IllegalStateException.class, () -> list.removeIf(bean -> {
+                    throw new IllegalStateException();
+                }));
+                assertEquals(2, list.size());
+            }
+        });
+        try (LocalList<String> list = new LocalList<>()) {
+            list.addAll(Arrays.asList("a", "b", "c"));
+            assertTrue(list.removeAll(Collections.singleton("b")));
+            assertEquals(2, list.size());
+            assertTrue(list.retainAll(Collections.singleton("c")));
+            assertEquals(Collections.singletonList("c"), list.subList(0, 1));
+        }
+        // 和 contains 一样按各列编码后的值比较，元素没有重写 equals 也能删除
+        for (int cacheSize : new int[]{0, 10}) {
+            withCacheSize(cacheSize, () -> {
+                try (LocalList<PlainBean> list = new LocalList<>(PlainBean.class)) {
+                    list.add(new PlainBean("Jack", 26));
+                    list.add(new PlainBean("Rose", 27));
+                    list.add(new PlainBean("Max", 1));
+                    assertTrue(list.removeAll(Collections.singletonList(new PlainBean("Rose", 27))));
+                    assertEquals(2, list.size());
+                    assertFalse(list.contains(new PlainBean("Rose", 27)));
+                    assertTrue(list.retainAll(Arrays.asList(new PlainBean("Max", 1), "Max")));
+                    assertEquals(1, list.size());
+                    assertEquals("Max", list.get(0).getName());
+                }
+            });
+        }
+    }
+
+    private static void testQuery() {
+        try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+            for (int i = 0; i < 2000; i++) {
+                list.add(new TestBean1("name" + i, i));
+            }
+            // 数据还在缓存中，查询前会先写入数据库
+            try (LocalList<TestBean1> top = list.query().where("age >= ?", 1500).orderBy("age desc").limit(100).toLocalList()) {
+                assertEquals(100, top.size());
+                assertEquals(1999, top.get(0).getAge());
+                assertEquals(1900, top.get(99).getAge());
+                top.add(new TestBean1("extra", -1));
+                assertEquals(101, top.size());
+                assertEquals("extra", top.get(100).getName());
+            }
+            assertEquals(2000, list.size());
+
+            try (Stream<TestBean1> stream = list.query().where("age < ?", 10).where("name <> ?", "name3").stream()) {
+                assertEquals(Arrays.asList(0, 1, 2, 4, 5, 6, 7, 8, 9), stream.map(TestBean1::getAge).collect(Collectors.toList()));
+            }
+            try (Stream<TestBean1> stream = list.query().orderBy("age").offset(1995).stream()) {
+                assertEquals(Arrays.asList(1995, 1996, 1997, 1998, 1999), stream.map(TestBean1::getAge).collect(Collectors.toList()));
+            }
+            try (LocalList<TestBean1> empty = list.query().where("age > ?", 5000).toLocalList()) {
+                assertTrue(empty.isEmpty());
+            }
+            assertThrows(IllegalArgumentException.class, () -> list.query().limit(-1));
+        }
+
+        withCacheSize(0, () -> {
+            String[] statuses = {"open", "closed", "pending"};
+            try (LocalList<DictionaryBean> list = new LocalList<>(DictionaryBean.class)) {
+                for (int i = 0; i < 300; i++) {
+                    list.add(new DictionaryBean(statuses[i % 3], "name" + i, i));
+                }
+                try (LocalList<DictionaryBean> open = list.query().where("status = ?", "open").toLocalList()) {
+                    assertEquals(100, open.size());
+                    assertEquals("open", open.get(99).getStatus());
+                    assertEquals(297, open.get(99).getAge());
+                    // 复制后的字典和数据的编码一致，继续写入新的值也能正确解码
+                    open.add(new DictionaryBean("closed", "new", 1000));
+                    assertEquals("closed", open.get(100).getStatus());
+                }
+                try (Stream<DictionaryBean> stream = list.query().orderBy("status").limit(1).stream()) {
+                    assertEquals("closed", stream.findFirst().orElseThrow().getStatus());
+                }
+            }
+        });
+        try (LocalList<String> list = new LocalList<>()) {
+            assertTrue(list.query().toLocalList().isEmpty());
+        }
+    }
+
+    private static void testAggregate() {
+        try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+            for (int i = 0; i < 1000; i++) {
+                list.add(new TestBean1("name" + (i % 10), i));
+            }
+            AggregateResult result = list.aggregate().count().sum("age").avg("age").min("age").max("age")
+                    .countDistinct("name").min("name").execute();
+            assertEquals(1000L, result.getLong("count"));
+            assertEquals(499500L, result.getLong("sum_age"));
+            assertEquals(499.5, result.getDouble("avg_age"), 0.0001);
+            assertEquals(0, result.get("min_age"));
+            assertEquals(999, result.get("max_age"));
+            assertEquals(10L, result.getLong("count_distinct_name"));
+            assertEquals("name0", result.get("min_name"));
+
+            assertEquals(94950L, list.aggregate().sum("age").where("age > ?", 899).execute().getLong(0));
+            AggregateResult none = list.aggregate().count().sum("age", "total").where("age < ?", 0).execute();
+            assertEquals(0L, none.getLong(0));
+            assertNull(none.get("total"));
+
+            List<AggregateResult> groups = list.aggregate().groupBy("name").count().sum("age")
+                    .where("age >= ?", 500).executeGroups();
+            assertEquals(10, groups.size());
+            assertEquals("name0", groups.get(0).get("name"));
+            assertEquals(50L, groups.get(0).getLong("count"));
+            assertEquals(37250L, groups.get(0).getLong("sum_age"));
+
+            assertThrows(IllegalArgumentException.class, () -> list.aggregate().sum("none").execute());
+            assertThrows(IllegalArgumentException.class, () -> list.aggregate().sum("name").execute());
+            assertThrows(IllegalStateException.class, () -> list.aggregate().groupBy("name").count().execute());
+        }
+        withCacheSize(0, () -> {
+            String[] statuses = {"open", "closed", "pending"};
+            try (LocalList<DictionaryBean> list = new LocalList<>(DictionaryBean.class)) {
+                for (int i = 0; i < 300; i++) {
+                    list.add(new DictionaryBean(statuses[i % 3], "name" + i, i));
+                }
+                AggregateResult result = list.aggregate().max("status").countDistinct("status")
+                        .where("status <> ?", "open").execute();
+                assertEquals("pending", result.get(0));
+                assertEquals(2L, result.getLong(1));
+                List<AggregateResult> groups = list.aggregate().groupBy("status").count().executeGroups();
+                assertEquals(Arrays.asList("open", "closed", "pending"),
+                        groups.stream().map(group -> group.get("status")).collect(Collectors.toList()));
+                assertEquals(100L, groups.get(1).getLong("count"));
+            }
+        });
+        try (LocalList<String> list = new LocalList<>()) {
+            assertEquals(0L, list.aggregate().count().execute().getLong("count"));
+        }
+    }
+
+    private static void testLazyIndexes() {
+        withSystemProperty(MainConfig.DB_INDEX_BUILD_THRESHOLD.getKey(), "100", () -> withCacheSize(0, () -> {
+            try (LocalList<IndexedBean> list = new LocalList<>(IndexedBean.class)) {
+                for (int i = 0; i < 50; i++) {
+                    list.add(new IndexedBean("name" + i, "c" + (i % 5), i));
+                }
+                // 数据量还小，不创建索引
+                assertEquals(0, countIndexes(list));
+                List<IndexedBean> batch = new ArrayList<>();
+                for (int i = 50; i < 150; i++) {
+                    batch.add(new IndexedBean("name" + i, "c" + (i % 5), i));
+                }
+                list.addAll(batch);
+                assertEquals(2, countIndexes(list));
+                assertEquals(30L, list.aggregate().count().where("category = ?", "c1").execute().getLong(0));
+            }
+            try (LocalList<IndexedBean> list = new LocalList<>(IndexedBean.class)) {
+                list.add(new IndexedBean("a", "c1", 1));
+                assertEquals(0, countIndexes(list));
+                // 执行下推的查询前创建索引
+                try (Stream<IndexedBean> stream = list.query().where("category = ? AND score > ?", "c1", 0).stream()) {
+                    assertEquals(1, stream.count());
+                }
+                assertEquals(2, countIndexes(list));
+            }
+        }));
+        withSystemProperty(MainConfig.DB_STORAGE_LAYOUT.getKey(), "row", () -> {
+            try (LocalList<IndexedBean> list = new LocalList<>(IndexedBean.class)) {
+                // 索引中的字段总是保存为独立列
+                assertEquals(Arrays.asList("name", "category", "score"), list.getDatabaseOpt().getColumns().stream()
+                        .map(column -> column.getColumnName()).collect(Collectors.toList()));
+            }
+        });
+        assertThrows(IllegalArgumentException.class, () -> new LocalList<>(BadIndexBean.class));
+    }
+
+    private static void testSort() {
+        // 有序段设置得小一些，让数据跨越多个有序段
+        withSystemProperty(MainConfig.SORT_RUN_SIZE.getKey(), "300", () -> withCacheSize(0, () -> {
+            try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+                for (int i = 0; i < 1000; i++) {
+                    list.add(new TestBean1("name" + (i % 7), (i * 37) % 1000));
+                }
+                list.remove(0);
+                list.sort(Comparator.comparing(TestBean1::getName));
+                assertEquals(999, list.size());
+                // 排序是稳定的，名称相同时保持原来的顺序
+                assertEquals("name0", list.get(0).getName());
+                assertEquals(259, list.get(0).getAge());
+                assertEquals("name6", list.get(998).getName());
+                for (int i = 1; i < list.size(); i++) {
+                    assertTrue(list.get(i - 1).getName().compareTo(list.get(i).getName()) <= 0);
+                }
+
+                list.sortBy("age desc");
+                assertEquals(999, list.get(0).getAge());
+                assertEquals(1, list.get(998).getAge());
+                assertEquals(1, list.pk(0));
+                list.add(new TestBean1("last", -1));
+                assertEquals(1000, list.size());
+                assertEquals(-1, list.get(999).getAge());
+                assertEquals(998, list.indexOf(list.get(998)));
+            }
+            try (LocalList<Integer> list = new LocalList<>(Integer.class)) {
+                for (int i = 1000; i > 0; i--) {
+                    list.add(i);
+                }
+                list.sort(null);
+                for (int i = 0; i < 1000; i++) {
+                    assertEquals(i + 1, list.get(i));
+                }
+            }
+            String[] statuses = {"open", "closed", "pending"};
+            try (LocalList<DictionaryBean> list = new LocalList<>(DictionaryBean.class)) {
+                for (int i = 0; i < 30; i++) {
+                    list.add(new DictionaryBean(statuses[i % 3], "name" + i, i));
+                }
+                list.sortBy("status", "name desc");
+                assertEquals("closed", list.get(0).getStatus());
+                assertEquals("name7", list.get(0).getName());
+                assertEquals("pending", list.get(29).getStatus());
+            }
+        }));
+        try (LocalList<String> list = new LocalList<>(String.class)) {
+            list.addAll(Arrays.asList("c", "a", "b"));
+            // 数据还在缓存中时直接排序缓存
+            list.sort(null);
+            assertEquals("a", list.get(0));
+            assertEquals("c", list.get(2));
+            list.sortBy("simpleColumn desc");
+            assertEquals("c", list.get(0));
+        }
+    }
+
+    private static void testTopK() {
+        try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+            for (int i = 0; i < 3000; i++) {
+                list.add(new TestBean1("name" + i, (i * 37) % 3000));
+            }
+            // 写入数据库前，直接在缓存中取
+            List<TestBean1> cached = list.topK(3, Comparator.comparing(TestBean1::getAge).reversed());
+            assertEquals(Arrays.asList(2999, 2998, 2997), cached.stream().map(TestBean1::getAge).collect(Collectors.toList()));
+        }
+        withCacheSize(0, () -> {
+            try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+                for (int i = 0; i < 3000; i++) {
+                    list.add(new TestBean1("name" + i, (i * 37) % 3000));
+                }
+                list.remove(0);
+
+                List<TestBean1> top = list.topK(5, Comparator.comparing(TestBean1::getAge).reversed());
+                assertEquals(Arrays.asList(2999, 2998, 2997, 2996, 2995), top.stream().map(TestBean1::getAge).collect(Collectors.toList()));
+                List<TestBean1> bottom = list.topK(3, Comparator.comparing(TestBean1::getAge), true);
+                assertEquals(Arrays.asList(1, 2, 3), bottom.stream().map(TestBean1::getAge).collect(Collectors.toList()));
+                assertEquals(2999, list.topK(10000, Comparator.comparing(TestBean1::getAge), true).size());
+                // 按位置插入后主键之间有空隙，按主键范围切分仍然能读到全部数据
+                list.add(1500, new TestBean1("middle", -1));
+                assertEquals(-1, list.topK(1, Comparator.comparing(TestBean1::getAge), true).get(0).getAge());
+                assertEquals(3000, list.topK(10000, Comparator.comparing(TestBean1::getAge), true).size());
+                list.remove(1500);
+                assertTrue(list.topK(0, Comparator.comparing(TestBean1::getAge)).isEmpty());
+
+                List<TestBean1> sqlTop = list.topK(5, "age desc");
+                assertEquals(top, sqlTop);
+                assertEquals(1, list.topK(1, "age").get(0).getAge());
+                assertThrows(IllegalArgumentException.class, () -> list.topK(-1, Comparator.comparing(TestBean1::getAge)));
+            }
+        });
+    }
+
+    private static void testDistinct() {
+        try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+            for (int i = 0; i < 100; i++) {
+                list.add(new TestBean1("name" + (i % 10), i % 20));
+            }
+            list.add(new TestBean1(null, 1));
+            list.add(new TestBean1(null, 1));
+            try (LocalList<TestBean1> distinct = list.distinct()) {
+                assertEquals(21, distinct.size());
+                assertEquals(new TestBean1("name0", 0), distinct.get(0));
+                assertEquals(new TestBean1("name9", 19), distinct.get(19));
+                assertEquals(new TestBean1(null, 1), distinct.get(20));
+            }
+            try (LocalList<TestBean1> first = list.distinctBy("name")) {
+                assertEquals(11, first.size());
+                assertEquals(0, first.get(0).getAge());
+                assertEquals(9, first.get(9).getAge());
+                assertNull(first.get(10).getName());
+            }
+            try (LocalList<TestBean1> last = list.distinctBy(true, "name")) {
+                assertEquals(11, last.size());
+                // 保留最后出现的一个，按它们原来的先后顺序排列
+                assertEquals(new TestBean1("name0", 10), last.get(0));
+                assertEquals(new TestBean1("name9", 19), last.get(9));
+                last.add(new TestBean1("extra", 1));
+                assertEquals(12, last.size());
+            }
+            assertThrows(IllegalArgumentException.class, () -> list.distinctBy("none"));
+        }
+        withCacheSize(0, () -> {
+            String[] statuses = {"open", "closed", "pending"};
+            try (LocalList<DictionaryBean> list = new LocalList<>(DictionaryBean.class)) {
+                for (int i = 0; i < 30; i++) {
+                    list.add(new DictionaryBean(statuses[i % 3], "name" + i, i));
+                }
+                try (LocalList<DictionaryBean> distinct = list.distinctBy("status")) {
+                    assertEquals(3, distinct.size());
+                    assertEquals("pending", distinct.get(2).getStatus());
+                    assertEquals(1L, distinct.aggregate().count().where("status = ?", "closed").execute().getLong(0));
+                }
+            }
+        });
+    }
+
+    private static void testJoin() {
+        withCacheSize(0, () -> {
+            String[] statuses = {"open", "closed", "pending"};
+            try (LocalList<TestBean1> users = new LocalList<>(TestBean1.class);
+                 LocalList<DictionaryBean> orders = new LocalList<>(DictionaryBean.class)) {
+                for (int i = 0; i < 10; i++) {
+                    users.add(new TestBean1("user" + i, i));
+                }
+                for (int i = 0; i < 30; i++) {
+                    // 只有前 5 个用户有订单，每个用户 6 个订单
+                    orders.add(new DictionaryBean(statuses[i % 3], "order" + i, i % 5));
+                }
+                try (LocalList<JoinBean> joined = LocalJoin.of(users, orders)
+                        .on("a.age = b.age")
+                        .where("b.status <> ?", "open")
+                        .select("a.name AS userName", "b.name AS orderName", "b.status AS status")
+                        .resultClass(JoinBean.class)
+                        .toLocalList()) {
+                    assertEquals(20, joined.size());
+                    // 按左边列表的顺序，再按右边列表的顺序
+                    assertEquals(new JoinBean("user0", "order5", "pending"), joined.get(0));
+                    assertEquals(new JoinBean("user0", "order10", "closed"), joined.get(1));
+                    assertEquals("user4", joined.get(19).getUserName());
+                }
+                try (LocalList<JoinBean> joined = LocalJoin.of(users, orders)
+                        .on("a.age = b.age AND b.status = 'open'")
+                        .leftJoin()
+                        .select("a.name AS userName", "b.name AS orderName")
+                        .resultClass(JoinBean.class)
+                        .toLocalList()) {
+                    assertEquals(15, joined.size());
+                    assertEquals("user9", joined.get(14).getUserName());
+                    assertNull(joined.get(14).getOrderName());
+                }
+                try (LocalMap<String, JoinBean> map = LocalJoin.of(users, orders)
+                        .on("a.age = b.age")
+                        .where("b.status = ?", "pending")
+                        .where("b.age < ?", 3)
+                        .select("a.name AS userName", "b.name AS orderName")
+                        .resultClass(JoinBean.class)
+                        .toLocalMap("b.name")) {
+                    assertEquals(6, map.size());
+                    assertEquals("user2", map.get("order17").getUserName());
+                    assertNull(map.get("order14"));
+                }
+                assertThrows(IllegalStateException.class, () -> LocalJoin.of(users, orders)
+                        .select("a.name AS userName").resultClass(JoinBean.class).toLocalList());
+            }
+        });
+    }
+
+    private static void testPositionalInsert() {
+        try (LocalList<String> list = new LocalList<>(String.class)) {
+            list.addAll(Arrays.asList("a", "c"));
+            // 数据还在缓存中时直接插入缓存
+            list.add(1, "b");
+            list.addAll(0, Arrays.asList("x", "y"));
+            assertEquals(Arrays.asList("x", "y", "a", "b", "c"), list.stream().collect(Collectors.toList()));
+            assertThrows(IndexOutOfBoundsException.class, () -> list.add(6, "z"));
+        }
+        withCacheSize(5, () -> {
+            try (LocalList<String> list = new LocalList<>(String.class)) {
+                list.add("a");
+                // 缓存满了以后写入数据库，不会一直留在内存中
+                List<String> expected = new ArrayList<>(Collections.singletonList("a"));
+                for (int i = 0; i < 30; i++) {
+                    list.add(0, "h" + i);
+                    expected.add(0, "h" + i);
+                }
+                assertTrue(list.getRuntimeMetrics().getDatabaseWriteRows() > 0);
+                assertEquals(expected, list.stream().collect(Collectors.toList()));
+            }
+        });
+        withCacheSize(0, () -> {
+            try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+                List<String> expected = new ArrayList<>();
+                for (int i = 0; i < 100; i++) {
+                    list.add(new TestBean1("name" + i, i));
+                    expected.add("name" + i);
+                }
+                // 连续在同一位置插入，用完主键之间的空位后会重新编号
+                for (int i = 0; i < 50; i++) {
+                    list.add(1, new TestBean1("insert" + i, -i));
+                    expected.add(1, "insert" + i);
+                }
+                list.add(0, new TestBean1("first", 0));
+                expected.add(0, "first");
+                list.addAll(75, Arrays.asList(new TestBean1("m1", 1), new TestBean1("m2", 2)));
+                expected.addAll(75, Arrays.asList("m1", "m2"));
+                list.add(list.size(), new TestBean1("last", 0));
+                expected.add("last");
+                list.add(new TestBean1("appended", 0));
+                expected.add("appended");
+                // 在末尾追加的主键连续的行之间插入，重新编号只涉及附近的行，最后一行的主键不变大
+                for (int i = 0; i < 40; i++) {
+                    list.add(new TestBean1("tail" + i, i));
+                    expected.add("tail" + i);
+                }
+                for (int i = 0; i < 30; i++) {
+                    list.add(list.size() - 1, new TestBean1("beforeLast" + i, i));
+                    expected.add(expected.size() - 1, "beforeLast" + i);
+                }
+                list.add(new TestBean1("appended2", 0));
+                expected.add("appended2");
+
+                assertEquals(expected.size(), list.size());
+                assertEquals(expected, list.stream().map(TestBean1::getName).collect(Collectors.toList()));
+                for (int i = 0; i < expected.size(); i += 7) {
+                    assertEquals(expected.get(i), list.get(i).getName());
+                }
+                assertEquals(76, list.indexOf(new TestBean1("m2", 2)));
+                assertEquals("insert49", list.remove(2).getName());
+                expected.remove(2);
+                list.set(2, new TestBean1("replaced", 0));
+                expected.set(2, "replaced");
+                assertEquals(expected, list.stream().map(TestBean1::getName).collect(Collectors.toList()));
+            }
+        });
+        withCacheSize(0, () -> {
+            // 行数超过位置索引的几块，按位置插入和删除之后按下标读取、修改和查找都先定位到块
+            try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+                List<TestBean1> rows = new ArrayList<>();
+                List<String> expected = new ArrayList<>();
+                for (int i = 0; i < 10000; i++) {
+                    rows.add(new TestBean1("row" + i, i));
+                    expected.add("row" + i);
+                }
+                list.addAll(rows);
+                list.add(5000, new TestBean1("mid", -1));
+                expected.add(5000, "mid");
+                assertEquals("row8000", list.remove(8001).getName());
+                expected.remove(8001);
+                list.addAll(9000, Arrays.asList(new TestBean1("late1", -1), new TestBean1("late2", -1)));
+                expected.addAll(9000, Arrays.asList("late1", "late2"));
+                list.addAll(rows.subList(0, 3));
+                expected.addAll(Arrays.asList("row0", "row1", "row2"));
+                list.set(7000, new TestBean1("set", 0));
+                expected.set(7000, "set");
+
+                assertEquals(expected.size(), list.size());
+                for (int i = 0; i < expected.size(); i += 997) {
+                    assertEquals(expected.get(i), list.get(i).getName());
+                }
+                assertEquals(expected.get(expected.size() - 1), list.get(expected.size() - 1).getName());
+                assertEquals(expected.subList(8990, 9010),
+                        list.subList(8990, 9010).stream().map(TestBean1::getName).collect(Collectors.toList()));
+                assertEquals(5000, list.indexOf(new TestBean1("mid", -1)));
+                assertEquals(9001, list.indexOf(new TestBean1("late2", -1)));
+                assertEquals(expected.indexOf("row9500"), list.indexOf(new TestBean1("row9500", 9500)));
+                assertEquals(expected.size() - 2, list.lastIndexOf(new TestBean1("row1", 1)));
+
+                // 批量删除之后重新扫描主键建立分块
+                list.removeIf(b -> b.getAge() % 3 == 0);
+                expected.clear();
+                for (TestBean1 b : list.stream().collect(Collectors.toList())) {
+                    expected.add(b.getName());
+                }
+                list.add(100, new TestBean1("afterRemoveIf", 1));
+                expected.add(100, "afterRemoveIf");
+                for (int i = 0; i < expected.size(); i += 499) {
+                    assertEquals(expected.get(i), list.get(i).getName());
+                }
+                assertEquals(100, list.indexOf(new TestBean1("afterRemoveIf", 1)));
+
+                // 清空后追加的行都在同一块中，块内的偏移量过大时重新切分
+                list.clear();
+                list.addAll(rows);
+                list.add(5, new TestBean1("afterClear", 0));
+                assertEquals("afterClear", list.get(5).getName());
+                assertEquals("row8999", list.get(9000).getName());
+                assertEquals("row9", list.get(10).getName());
+                assertEquals(9001, list.indexOf(new TestBean1("row9000", 9000)));
+            }
+        });
+    }
+
+    private static void testMapFrontCache() {
+        withSystemProperty(MainConfig.MAP_CACHE_SIZE.getKey(), "3", () -> {
+            try (LocalMap<String, TestBean1> map = new LocalMap<>()) {
+                assertNull(map.put("a", new TestBean1("a", 1)));
+                assertEquals(1, map.put("a", new TestBean1("a", 2)).age);
+                assertNull(map.put("b", new TestBean1("b", 3)));
+                // 还没有写入数据库的 key 也能读到和删除
+                assertEquals(2, map.get("a").age);
+                assertTrue(map.containsKey("b"));
+                assertEquals(3, map.remove("b").age);
+                assertNull(map.get("b"));
+                assertEquals(1, map.size());
+
+                // 超过缓存大小后按批写入，被淘汰的 key 从数据库中读回
+                for (int i = 0; i < 20; i++) {
+                    map.put("k" + i, new TestBean1("k" + i, i));
+                }
+                assertEquals(21, map.size());
+                assertEquals(21, map.getInnerList().stream().count());
+                assertEquals(0, map.get("k0").age);
+                assertEquals(19, map.put("k19", new TestBean1("k19", -19)).age);
+                assertEquals(-19, map.getAll(Arrays.asList("k19", "a")).get("k19").age);
+                assertNull(map.get("b"));
+
+                java.util.Map<String, TestBean1> batch = new java.util.LinkedHashMap<>();
+                batch.put("k1", new TestBean1("x", 100));
+                batch.put("c", new TestBean1("c", 5));
+                map.put("k1", new TestBean1("k1", 50));
+                map.putAll(batch);
+                assertEquals(100, map.get("k1").age);
+                assertEquals(22, map.size());
+
+                map.put("d", new TestBean1("d", 6));
+                assertTrue(map.removeIfEquals("d", new TestBean1("d", 6)));
+                assertFalse(map.containsKey("d"));
+                map.put("e", new TestBean1("e", 7));
+                map.clear();
+                assertEquals(0, map.size());
+                assertNull(map.get("e"));
+                assertNull(map.get("a"));
+                assertTrue(map.keySet().isEmpty());
+            }
+        });
+    }
+
+    private static int countIndexes(LocalList<?> list) {
+        String tableName = list.getDatabaseOpt().getTableName();
+        Set<String> indexNames = new HashSet<>();
+        try (Connection connection = list.getDatabaseOpt().getDataSource().getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            // h2 中不带引号的表名是大写的
+            for (String table : Arrays.asList(tableName, tableName.toUpperCase())) {
+                try (ResultSet rs = metaData.getIndexInfo(null, null, table, false, false)) {
+                    while (rs.next()) {
+                        String indexName = rs.getString("INDEX_NAME");
+                        if (indexName != null && indexName.toLowerCase().startsWith("idx_")) {
+                            indexNames.add(indexName.toLowerCase());
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return indexNames.size();
+    }
+
     private static void withCacheSize(int cacheSize, Runnable runnable) {
         withSystemProperty(CACHE_SIZE_KEY, String.valueOf(cacheSize), runnable);
     }
@@ -814,6 +1907,78 @@ public class LocalListTest {
         private Boolean boxedActive;
     }
 
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RowLayoutBean {
+        @LocalField(keepColumn = true)
+        private String name;
+        private int age;
+        private Date birthTime;
+        private BigDecimal money;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DictionaryBean {
+        @LocalField(dictionary = true)
+        private String status;
+        private String name;
+        private int age;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class JoinBean {
+        private String userName;
+        private String orderName;
+        private String status;
+
+        public JoinBean(String userName, String orderName) {
+            this(userName, orderName, null);
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @LocalIndex({"category", "score"})
+    public static class IndexedBean {
+        @LocalIndex
+        private String name;
+        private String category;
+        private int score;
+    }
+
+    @Data
+    @LocalIndex("none")
+    public static class BadIndexBean {
+        private String name;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CompressBean {
+        private String name;
+        @LocalField(compress = true)
+        private String payload;
+    }
+
+    /**
+     * 没有重写 equals 的元素
+     */
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class PlainBean {
+        private String name;
+        private int age;
+    }
+
     @Data
     @NoArgsConstructor
     @AllArgsConstructor
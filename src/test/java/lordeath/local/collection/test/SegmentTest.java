@@ -0,0 +1,191 @@
+package lordeath.local.collection.test;
+
+import lordeath.local.collection.LocalList;
+import lordeath.local.collection.LocalMap;
+import lordeath.local.collection.db.config.MainConfig;
+import lordeath.local.collection.test.LocalListTest.PlainBean;
+import lordeath.local.collection.test.LocalListTest.TestBean1;
+import lordeath.local.collection.test.LocalListTest.TestBean2;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentTest {
+
+    private static final String CACHE_SIZE_KEY = "lordeath.local.collection.cache.size";
+
+    @BeforeAll
+    public static void before() {
+        MainConfig.DB_ENGINE.setProperty("segment");
+        MainConfig.DB_ENGINE_APP_NAME.setProperty("appTestName");
+        // 段文件设置得小一些，让数据跨越多个段
+        MainConfig.DB_SEGMENT_SIZE.setProperty("4096");
+        System.setProperty(CACHE_SIZE_KEY, "0");
+        Thread.currentThread().setName("segment");
+    }
+
+    @AfterAll
+    public static void after() {
+        System.clearProperty(MainConfig.DB_SEGMENT_SIZE.getKey());
+        System.clearProperty(CACHE_SIZE_KEY);
+        Thread.currentThread().setName("main");
+    }
+
+    @Test
+    public void testAddGetSetRemove() {
+        try (LocalList<TestBean2> list = new LocalList<>(TestBean2.class)) {
+            list.add(new TestBean2("Jack", 26, new Date(10000000), new BigDecimal("123.456789")));
+            list.add(new TestBean2("Rose", 27, null, new BigDecimal("789.654321")));
+            list.add(new TestBean2(null, 28, new Date(30000000), null));
+            assertEquals(3, list.size());
+            assertEquals("Jack", list.get(0).getName());
+            assertEquals(new Date(10000000), list.get(0).getBirthTime());
+            assertNull(list.get(1).getBirthTime());
+            assertNull(list.get(2).getName());
+            assertEquals(new BigDecimal("789.654321"), list.get(1).getMoney());
+
+            assertEquals("Rose", list.set(1, new TestBean2("Rose2", 30, null, null)).getName());
+            assertEquals("Rose2", list.get(1).getName());
+            assertEquals(30, list.get(1).getAge());
+
+            assertEquals("Jack", list.remove(0).getName());
+            assertEquals(2, list.size());
+            assertEquals("Rose2", list.get(0).getName());
+            assertEquals(2, list.pk(0));
+            assertEquals(3, list.pk(1));
+
+            list.clear();
+            assertEquals(0, list.size());
+            list.add(new TestBean2("Max", 1, null, null));
+            assertEquals("Max", list.get(0).getName());
+        }
+
+        try (LocalList<String> list = new LocalList<>()) {
+            list.add("a");
+            list.add(null);
+            list.add("c");
+            assertEquals("a", list.get(0));
+            assertNull(list.get(1));
+            assertEquals("c", list.get(2));
+            assertEquals(1, list.indexOf(null));
+            assertEquals(2, list.lastIndexOf("c"));
+            assertTrue(list.containsAll(Arrays.asList("a", "c")));
+            assertFalse(list.contains("d"));
+        }
+
+        // 和数据库引擎一样按各列编码后的值比较，不使用元素的 equals
+        try (LocalList<PlainBean> list = new LocalList<>(PlainBean.class)) {
+            list.add(new PlainBean("Jack", 26));
+            list.add(new PlainBean("Rose", 27));
+            assertEquals(1, list.indexOf(new PlainBean("Rose", 27)));
+            assertTrue(list.containsAll(Arrays.asList(new PlainBean("Rose", 27), new PlainBean("Jack", 26))));
+            assertFalse(list.contains(new PlainBean("Rose", 28)));
+        }
+    }
+
+    @Test
+    public void testRemoveAcrossBlocksAndIterate() {
+        try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+            List<TestBean1> batch = new ArrayList<>();
+            for (int i = 0; i < 20000; i++) {
+                batch.add(new TestBean1("name" + i, i));
+            }
+            list.addAll(batch);
+            assertEquals(20000, list.size());
+            assertEquals(19999, list.get(19999).getAge());
+
+            // 删除所有能被3整除的元素
+            for (int i = list.size() - 1; i >= 0; i--) {
+                if (list.get(i).getAge() % 3 == 0) {
+                    list.remove(i);
+                }
+            }
+            assertEquals(13333, list.size());
+            int expected = 1;
+            int count = 0;
+            for (TestBean1 bean : list) {
+                assertEquals(expected, bean.getAge());
+                expected += expected % 3 == 1 ? 1 : 2;
+                count++;
+            }
+            assertEquals(13333, count);
+            long[] ageSum = new long[1];
+            list.forEachReusing(TestBean1::new, bean -> ageSum[0] += bean.getAge());
+            assertEquals(133326667L, ageSum[0]);
+            assertEquals(133326667L, list.stream().mapToLong(TestBean1::getAge).sum());
+            AtomicLong batchAgeSum = new AtomicLong();
+            list.forEachBatch(1000, true, page -> page.forEach(bean -> batchAgeSum.addAndGet(bean.getAge())));
+            assertEquals(133326667L, batchAgeSum.get());
+            assertEquals(19999, list.get(list.size() - 1).getAge());
+            assertEquals(5, list.subList(3, 4).get(0).getAge());
+
+            assertTrue(list.removeIf(bean -> bean.getAge() % 2 == 0));
+            assertEquals(6667, list.size());
+            assertEquals(1, list.get(0).getAge());
+            assertEquals(5, list.get(1).getAge());
+            assertEquals(19999, list.get(6666).getAge());
+        }
+    }
+
+    @Test
+    public void testSort() {
+        // 有序段设置得小一些，走多个有序段归并的路径
+        MainConfig.SORT_RUN_SIZE.setProperty("1000");
+        try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+            List<TestBean1> batch = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                batch.add(new TestBean1("name" + i, (i * 7919) % 5000));
+            }
+            list.addAll(batch);
+            list.remove(0);
+            list.sort(Comparator.comparingInt(TestBean1::getAge));
+            assertEquals(4999, list.size());
+            for (int i = 0; i < list.size(); i++) {
+                assertEquals(i + 1, list.get(i).getAge());
+            }
+            // 写回后主键重新从 1 开始连续
+            assertEquals(1, list.pk(0));
+            assertEquals(4999, list.pk(4998));
+            assertThrows(UnsupportedOperationException.class, () -> list.sortBy("age desc"));
+        } finally {
+            System.clearProperty(MainConfig.SORT_RUN_SIZE.getKey());
+        }
+
+        try (LocalList<String> list = new LocalList<>()) {
+            list.addAll(Arrays.asList("c", "a", "b"));
+            list.sort(null);
+            assertEquals(Arrays.asList("a", "b", "c"), list.stream().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testMapFallsBackToSqlite() {
+        try (LocalMap<String, String> map = new LocalMap<>()) {
+            map.put("a", "1");
+            assertEquals("1", map.get("a"));
+            assertEquals("sqlite", map.getInnerList().getDatabaseOpt().getDatabaseEngine());
+        }
+
+        try (LocalList<TestBean1> list = new LocalList<>(TestBean1.class)) {
+            list.add(new TestBean1("Jack", 26));
+            assertThrows(UnsupportedOperationException.class, () -> LocalMap.from(list)
+                    .groupBy("name")
+                    .select("name", "sum(age) AS age")
+                    .resultClass(TestBean1.class)
+                    .keyField(FieldUtils.getDeclaredField(TestBean1.class, "name", true))
+                    .build());
+        }
+    }
+}